@@ -0,0 +1,261 @@
+package eu.driver.gateway.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares the CSV results of a JMH run to a saved baseline and flags the
+ * regressions beyond a tolerance.
+ *
+ * The baseline has a line per benchmark, parameters and metric:
+ *
+ * <pre>
+ * benchmark,params,metric,score,unit
+ * PositionParserBenchmark.parseLatDMS,form=plain,thrpt,1523456.7,ops/s
+ * PositionParserBenchmark.parseLatDMS,form=plain,gc.alloc.rate.norm,312.0,B/op
+ * </pre>
+ *
+ * The metric is the benchmark mode for the primary score, or the normalized
+ * allocation of the gc profiler. A throughput below the baseline by more than
+ * the tolerance is a regression, as is a time above it by more than the
+ * tolerance, or an allocation above it by more than the tolerance plus
+ * {@link #ALLOCATION_SLACK} bytes. Benchmarks of the run that are not in the
+ * baseline are reported but not checked.
+ *
+ * Throughput depends on the machine and the JVM, so the baselines in the
+ * repository only hold the allocation per operation, which does not. The
+ * throughput is checked against a baseline recorded locally with the same
+ * benchmarks.jar, before and after a change.
+ *
+ * Usage: BaselineCheck results.csv baseline.csv [tolerance] [--allocation]
+ * [--update]. The tolerance is a fraction, 0.2 by default. With --allocation
+ * only the allocation scores of the results are used. With --update the
+ * baseline is replaced by the results, keeping its comment lines. The exit
+ * code is 1 if a regression was found.
+ */
+public class BaselineCheck {
+
+	private static final double DEFAULT_TOLERANCE = 0.2;
+	/** allocation differences below this many bytes per operation are noise */
+	private static final double ALLOCATION_SLACK = 16;
+
+	private static final String THROUGHPUT = "thrpt";
+	private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BaselineCheck results.csv baseline.csv [tolerance] [--allocation] [--update]");
+			System.exit(2);
+		}
+		double tolerance = DEFAULT_TOLERANCE;
+		boolean update = false;
+		boolean allocationOnly = false;
+		for (int i = 2; i < args.length; i++) {
+			if ("--update".equals(args[i])) {
+				update = true;
+			} else if ("--allocation".equals(args[i])) {
+				allocationOnly = true;
+			} else {
+				tolerance = Double.parseDouble(args[i]);
+			}
+		}
+
+		Map<String, Score> results = readResults(args[0]);
+		if (allocationOnly) {
+			Iterator<Score> scores = results.values().iterator();
+			while (scores.hasNext()) {
+				if (!ALLOCATION.equals(scores.next().metric)) {
+					scores.remove();
+				}
+			}
+		}
+		if (update) {
+			writeBaseline(args[1], results);
+			System.out.println("Saved " + results.size() + " scores as baseline " + args[1]);
+			return;
+		}
+		Map<String, Score> baseline = readBaseline(args[1]);
+		int regressions = 0;
+		for (Map.Entry<String, Score> result : results.entrySet()) {
+			Score expected = baseline.get(result.getKey());
+			Score actual = result.getValue();
+			if (expected == null) {
+				System.out.println("NEW        " + result.getKey() + " " + actual);
+				continue;
+			}
+			boolean regressed;
+			if (THROUGHPUT.equals(actual.metric)) {
+				regressed = actual.score < expected.score * (1 - tolerance);
+			} else if (ALLOCATION.equals(actual.metric)) {
+				regressed = actual.score > expected.score * (1 + tolerance) + ALLOCATION_SLACK;
+			} else {
+				regressed = actual.score > expected.score * (1 + tolerance);
+			}
+			double change = expected.score != 0 ? (actual.score - expected.score) / expected.score * 100 : 0;
+			System.out.println((regressed ? "REGRESSION " : "OK         ") + result.getKey() + " " + actual
+					+ String.format(Locale.ROOT, " (baseline %.1f, %+.1f%%)", expected.score, change));
+			if (regressed) {
+				regressions++;
+			}
+		}
+		System.out.println(regressions + " regressions beyond " + Math.round(tolerance * 100) + "% of " + args[1]);
+		if (regressions > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Reads the primary scores and normalized allocation of a JMH CSV result
+	 * file.
+	 */
+	static Map<String, Score> readResults(String file) throws IOException {
+		Map<String, Score> results = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			List<String> header = parseLine(reader.readLine());
+			int modeColumn = header.indexOf("Mode");
+			int scoreColumn = header.indexOf("Score");
+			int unitColumn = header.indexOf("Unit");
+			String line;
+			while ((line = reader.readLine()) != null) {
+				List<String> fields = parseLine(line);
+				String benchmark = fields.get(0);
+				String metric = fields.get(modeColumn);
+				int separator = benchmark.indexOf(':');
+				if (separator >= 0) {
+					metric = benchmark.substring(separator + 1).replace("\u00b7", "");
+					benchmark = benchmark.substring(0, separator);
+					if (!ALLOCATION.equals(metric)) {
+						continue;
+					}
+				}
+				// simple class name and method
+				int method = benchmark.lastIndexOf('.');
+				benchmark = benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1);
+
+				StringBuilder params = new StringBuilder();
+				for (int i = unitColumn + 1; i < header.size() && i < fields.size(); i++) {
+					if (fields.get(i).isEmpty()) {
+						continue;
+					}
+					if (params.length() > 0) {
+						params.append(';');
+					}
+					params.append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+				}
+				Score score = new Score(benchmark, params.toString(), metric,
+						parseNumber(fields.get(scoreColumn)), fields.get(unitColumn));
+				results.put(score.key(), score);
+			}
+		}
+		return results;
+	}
+
+	static Map<String, Score> readBaseline(String file) throws IOException {
+		Map<String, Score> baseline = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+			if (line.isEmpty() || line.startsWith("#") || line.startsWith("benchmark,")) {
+				continue;
+			}
+			String[] fields = line.split(",", -1);
+			Score score = new Score(fields[0], fields[1], fields[2], Double.parseDouble(fields[3]), fields[4]);
+			baseline.put(score.key(), score);
+		}
+		return baseline;
+	}
+
+	private static void writeBaseline(String file, Map<String, Score> results) throws IOException {
+		List<String> comments = new ArrayList<>();
+		if (Files.exists(Paths.get(file))) {
+			for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+				if (line.startsWith("#")) {
+					comments.add(line);
+				}
+			}
+		}
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+			for (String comment : comments) {
+				writer.println(comment);
+			}
+			writer.println("benchmark,params,metric,score,unit");
+			for (Score score : results.values()) {
+				writer.println(score.benchmark + "," + score.params + "," + score.metric + ","
+						+ String.format(Locale.ROOT, "%.1f", score.score) + "," + score.unit);
+			}
+		}
+	}
+
+	/**
+	 * Splits a CSV line, with fields optionally quoted.
+	 */
+	private static List<String> parseLine(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Parses a score, which JMH writes with the decimal separator of the
+	 * default locale.
+	 */
+	private static double parseNumber(String value) {
+		if (value.indexOf('.') < 0) {
+			value = value.replace(',', '.');
+		}
+		return Double.parseDouble(value);
+	}
+
+	static class Score {
+
+		final String benchmark;
+		final String params;
+		final String metric;
+		final double score;
+		final String unit;
+
+		Score(String benchmark, String params, String metric, double score, String unit) {
+			this.benchmark = benchmark;
+			this.params = params;
+			this.metric = metric;
+			this.score = score;
+			this.unit = unit;
+		}
+
+		String key() {
+			return benchmark + (params.isEmpty() ? "" : "[" + params + "]") + " " + metric;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%.1f %s", score, unit);
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+package eu.driver.gateway.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.driver.gateway.GatewayProperties;
+import eu.driver.gateway.geojson.XVRItemUnitGroupConverter;
+
+/**
+ * Benchmarks the item, unit and group conversion of the
+ * {@link XVRItemUnitGroupConverter}, offline without Kafka.
+ *
+ * The ingest benchmarks measure messageReceived in operations per second, the
+ * flush benchmarks the time of one report of a stream in which every entity
+ * changed. Run with the gc profiler to see the allocation per operation:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ConverterBenchmark -prof gc
+ * </pre>
+ *
+ * gc.alloc.rate.norm of an ingest benchmark is the allocation per record, that
+ * of a flush benchmark divided by the features per flush, which are printed
+ * at the end of every trial, the allocation per feature.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+	/** periodic tasks of the converter, in the order it schedules them */
+	private static final int ITEM_FLUSH = 0;
+	private static final int UNIT_FLUSH = 1;
+	private static final int GROUP_FLUSH = 2;
+
+	@Param({ "1000", "10000", "100000" })
+	public int entities;
+
+	/** depth of the unit trees, 1 for unconnected units */
+	@Param({ "1", "3", "6" })
+	public int depth;
+
+	private SyntheticScenario scenario;
+	private ManualScheduler scheduler;
+	/** outputs of the streams, by their flush index */
+	private NoOpOutput[] outputs;
+	private XVRItemUnitGroupConverter converter;
+
+	private int nextItem = 0;
+	private int round = 0;
+	private int nextUnit = 0;
+	private int nextConnection = 0;
+	private int nextDeletion = 1;
+
+	private long[] flushes = new long[3];
+	private long[] features = new long[3];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		GatewayProperties properties = GatewayProperties.getInstance();
+		properties.setProperty(GatewayProperties.CONVERTER_MODE, GatewayProperties.CONVERTER_MODE_LOCKING);
+		properties.setProperty(GatewayProperties.INPUT_MODE, GatewayProperties.INPUT_MODE_ADAPTER);
+		properties.setProperty(GatewayProperties.OUTPUT_MODE, GatewayProperties.OUTPUT_MODE_COLLECTION);
+		// only the benchmark triggers flushes
+		properties.setProperty(GatewayProperties.OUTPUT_FLUSH_SIZE, String.valueOf(Integer.MAX_VALUE));
+		properties.setProperty(GatewayProperties.OUTPUT_FLUSH_GAP, "0");
+		properties.setProperty(GatewayProperties.ENTITY_CAPACITY, String.valueOf(2 * entities));
+		properties.setProperty(GatewayProperties.CHECKPOINT_DIR, "");
+
+		scenario = new SyntheticScenario(entities, depth);
+		scheduler = new ManualScheduler();
+		outputs = new NoOpOutput[] { new NoOpOutput(), new NoOpOutput(), new NoOpOutput() };
+		converter = new XVRItemUnitGroupConverter(outputs[ITEM_FLUSH], outputs[UNIT_FLUSH], outputs[GROUP_FLUSH],
+				scheduler);
+		scenario.load(converter);
+		flushAll();
+	}
+
+	@TearDown(Level.Iteration)
+	public void flushAll() {
+		flush(ITEM_FLUSH, false);
+		flush(UNIT_FLUSH, false);
+		flush(GROUP_FLUSH, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void printFeaturesPerFlush() {
+		System.out.println("Features per flush: " + getFeaturesPerFlush(ITEM_FLUSH) + " items, "
+				+ getFeaturesPerFlush(UNIT_FLUSH) + " units, " + getFeaturesPerFlush(GROUP_FLUSH) + " groups");
+	}
+
+	/**
+	 * Moves every item, so the next flush of every stream reports all its
+	 * entities.
+	 */
+	@State(Scope.Benchmark)
+	public static class AllChanged {
+
+		@Setup(Level.Invocation)
+		public void moveAll(ConverterBenchmark benchmark) {
+			benchmark.moveAll();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void ingestItem() {
+		converter.messageReceived(null, scenario.getItem(nextItem, round));
+		if (++nextItem == scenario.getItemCount()) {
+			nextItem = 0;
+			round++;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void ingestUnit() {
+		converter.messageReceived(null, scenario.getUnit(nextUnit));
+		nextUnit = (nextUnit + 1) % scenario.getUnitCount();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void ingestUnitConnection() {
+		if (scenario.getConnectionCount() == 0) {
+			return;
+		}
+		converter.messageReceived(null, scenario.getConnection(nextConnection));
+		nextConnection = (nextConnection + 1) % scenario.getConnectionCount();
+	}
+
+	/**
+	 * Deletes a sub item and receives it again, so the scenario stays intact.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void ingestObjectDeleted() {
+		converter.messageReceived(null, scenario.getDeletion(nextDeletion));
+		converter.messageReceived(null, scenario.getItem(nextDeletion, round));
+		do {
+			nextDeletion = (nextDeletion + 1) % scenario.getItemCount();
+		} while (!SyntheticScenario.isSubItem(nextDeletion));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int flushItems(AllChanged allChanged) {
+		return flush(ITEM_FLUSH, true);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int flushUnits(AllChanged allChanged) {
+		return flush(UNIT_FLUSH, true);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int flushGroups(AllChanged allChanged) {
+		return flush(GROUP_FLUSH, true);
+	}
+
+	private void moveAll() {
+		round++;
+		for (int i = 0; i < scenario.getItemCount(); i++) {
+			converter.messageReceived(null, scenario.getItem(i, round));
+		}
+		// the size trigger is never reached, but keep the queue clean
+		scheduler.clearDelayed();
+	}
+
+	/**
+	 * Requests a flush of the stream through its time trigger and runs it.
+	 * 
+	 * @param measured
+	 *            true to count the features of the flush
+	 */
+	private int flush(int stream, boolean measured) {
+		long sent = outputs[stream].getFeatures();
+		scheduler.getPeriodic().get(stream).run();
+		int ran = scheduler.runDelayed();
+		if (measured) {
+			flushes[stream]++;
+			features[stream] += outputs[stream].getFeatures() - sent;
+		}
+		return ran;
+	}
+
+	private long getFeaturesPerFlush(int stream) {
+		return flushes[stream] > 0 ? features[stream] / flushes[stream] : 0;
+	}
+
+}
@@ -0,0 +1,119 @@
+package eu.driver.gateway.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler that only runs tasks when the benchmark asks for it, so flushes
+ * can be measured on their own without timers interfering.
+ *
+ * Periodic tasks are kept in the order they were scheduled, delayed tasks are
+ * queued until {@link #runDelayed()} and executed tasks run immediately on the
+ * calling thread. The returned futures are null, which the converters ignore.
+ */
+public class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final List<Runnable> periodic = new ArrayList<>();
+	private final Queue<Runnable> delayed = new ArrayDeque<>();
+
+	/**
+	 * @return the periodic tasks in the order they were scheduled
+	 */
+	public List<Runnable> getPeriodic() {
+		return periodic;
+	}
+
+	/**
+	 * Runs the delayed tasks that were queued so far, ignoring their delay.
+	 *
+	 * @return the number of tasks run
+	 */
+	public int runDelayed() {
+		int count = delayed.size();
+		for (int i = 0; i < count; i++) {
+			delayed.poll().run();
+		}
+		return count;
+	}
+
+	/**
+	 * Drops the delayed tasks, e.g. flushes requested while filling the state.
+	 */
+	public void clearDelayed() {
+		delayed.clear();
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		delayed.add(command);
+		return null;
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(final Callable<V> callable, long delay, TimeUnit unit) {
+		delayed.add(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					callable.call();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		return null;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		periodic.add(command);
+		return null;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+			TimeUnit unit) {
+		periodic.add(command);
+		return null;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		command.run();
+	}
+
+	@Override
+	public void shutdown() {
+		delayed.clear();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return false;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return false;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return true;
+	}
+
+}
@@ -0,0 +1,42 @@
+package eu.driver.gateway.benchmark;
+
+import eu.driver.gateway.geojson.FeatureOutput;
+import eu.driver.model.geojson.sim.FeatureCollection;
+
+/**
+ * Stands in for the Kafka producers of the gateway. It only counts the
+ * collections and features, so the reports cannot be optimized away.
+ */
+public class NoOpOutput implements FeatureOutput {
+
+	private long collections = 0;
+	private long features = 0;
+
+	@Override
+	public synchronized void send(String key, FeatureCollection collection) {
+		collections++;
+		features += collection.getFeatures().size();
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection, boolean keyframe, long window) {
+		send(key, collection);
+	}
+
+	@Override
+	public void delete(String key) {
+	}
+
+	@Override
+	public void forget(String guid) {
+	}
+
+	public synchronized long getCollections() {
+		return collections;
+	}
+
+	public synchronized long getFeatures() {
+		return features;
+	}
+
+}
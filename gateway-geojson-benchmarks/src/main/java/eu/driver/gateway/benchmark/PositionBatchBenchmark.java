@@ -0,0 +1,93 @@
+package eu.driver.gateway.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.driver.position.PositionBatch;
+import eu.driver.position.PositionParser;
+
+/**
+ * Benchmarks the conversion of coordinate arrays by the {@link PositionBatch}
+ * against converting them one at a time with the {@link PositionParser}.
+ * Batches from {@link PositionBatch#PARALLEL_THRESHOLD} coordinates use the
+ * common fork join pool, so the largest size shows the scaling over the
+ * cores:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar PositionBatchBenchmark -prof gc
+ * </pre>
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PositionBatchBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	private double[] latitudes;
+	private char[] text;
+	private CharSequence[] colonLatitudes;
+	private double[] parsed;
+	private String[] strings;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(42);
+		latitudes = new double[size];
+		text = new char[size * PositionBatch.DMS_STRIDE];
+		colonLatitudes = new CharSequence[size];
+		parsed = new double[size];
+		strings = new String[size];
+		for (int i = 0; i < size; i++) {
+			latitudes[i] = Math.toRadians((random.nextDouble() - 0.5) * 180);
+			// "DD MM SS.SSSH" to "DD:MM:SS.SSSH"
+			colonLatitudes[i] = PositionParser.convertLatRadToDMS(latitudes[i]).replace(' ', ':');
+		}
+	}
+
+	@Benchmark
+	public char[] formatLatRadToDMS() {
+		PositionBatch.formatLatRadToDMS(latitudes, 0, size, text, 0);
+		return text;
+	}
+
+	@Benchmark
+	public String[] convertLatRadToDMSEach() {
+		for (int i = 0; i < size; i++) {
+			strings[i] = PositionParser.convertLatRadToDMS(latitudes[i]);
+		}
+		return strings;
+	}
+
+	@Benchmark
+	public double[] parseLatDMSColon() {
+		PositionBatch.parseLatDMSColon(colonLatitudes, 0, size, parsed, 0);
+		return parsed;
+	}
+
+	@Benchmark
+	public double[] parseLatDMSColonEach() {
+		for (int i = 0; i < size; i++) {
+			parsed[i] = PositionParser.parseLatDMSColon(colonLatitudes[i].toString());
+		}
+		return parsed;
+	}
+
+}
@@ -0,0 +1,207 @@
+package eu.driver.gateway.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.util.Utf8;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.driver.position.PositionParser;
+
+/**
+ * Benchmarks the formatting and parsing of DMS positions by the
+ * {@link PositionParser}, which the MLP converter runs for every item.
+ *
+ * Every benchmark cycles through {@link #COORDINATES} random coordinates, in
+ * every format variant: degree symbols or colons with the hemisphere as
+ * suffix, prefix or sign, and the compact ddMMssNdddMMssE form. Run with the
+ * gc profiler for the allocation per call, and compare the results to the
+ * saved allocation baseline with {@link BaselineCheck}:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar PositionParserBenchmark -prof gc -rf csv -rff position-parser.csv
+ * java -cp target/benchmarks.jar eu.driver.gateway.benchmark.BaselineCheck position-parser.csv baselines/PositionParserBenchmark.csv
+ * </pre>
+ *
+ * The throughput is only comparable on the same machine, so record a local
+ * baseline before a change and check the run after it against that one:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar eu.driver.gateway.benchmark.BaselineCheck position-parser.csv local.csv --update
+ * </pre>
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PositionParserBenchmark {
+
+	/** number of coordinates per variant, a power of 2 */
+	private static final int COORDINATES = 1024;
+	private static final int MASK = COORDINATES - 1;
+
+	/**
+	 * Random latitudes and longitudes in radians.
+	 */
+	@State(Scope.Thread)
+	public static class Radians {
+
+		private final double[] latitudes = new double[COORDINATES];
+		private final double[] longitudes = new double[COORDINATES];
+		private int next = 0;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(42);
+			for (int i = 0; i < COORDINATES; i++) {
+				latitudes[i] = Math.toRadians((random.nextDouble() - 0.5) * 180);
+				longitudes[i] = Math.toRadians((random.nextDouble() - 0.5) * 360);
+			}
+		}
+	}
+
+	/**
+	 * DMS strings with degree symbols and with colons, in one hemisphere form.
+	 */
+	@State(Scope.Thread)
+	public static class DmsInputs {
+
+		/**
+		 * plain: 51°41'20.00, suffixNE: 51°41'20.00N, suffixSW: 51°41'20.00S,
+		 * prefix: N51°41'20.00, plus: +51°41'20.00, minus: -51°41'20.00
+		 */
+		@Param({ "plain", "suffixNE", "suffixSW", "prefix", "plus", "minus" })
+		public String form;
+
+		private final String[] latitudes = new String[COORDINATES];
+		private final String[] longitudes = new String[COORDINATES];
+		private final String[] colonLatitudes = new String[COORDINATES];
+		private final String[] colonLongitudes = new String[COORDINATES];
+		/**
+		 * the encoded colon latitudes, which every call wraps in a new Utf8 as
+		 * the Avro decoder does, so no String is cached in it
+		 */
+		private final byte[][] utf8ColonLatitudes = new byte[COORDINATES][];
+		private int next = 0;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(42);
+			for (int i = 0; i < COORDINATES; i++) {
+				double latitude = random.nextDouble() * 90;
+				double longitude = random.nextDouble() * 180;
+				latitudes[i] = toDms(latitude, 2, PositionParser.SYMBOL_DEGREES, PositionParser.SYMBOL_MINUTES, true);
+				longitudes[i] = toDms(longitude, 3, PositionParser.SYMBOL_DEGREES, PositionParser.SYMBOL_MINUTES,
+						false);
+				colonLatitudes[i] = toDms(latitude, 2, PositionParser.SYMBOL_COLON, PositionParser.SYMBOL_COLON, true);
+				colonLongitudes[i] = toDms(longitude, 3, PositionParser.SYMBOL_COLON, PositionParser.SYMBOL_COLON,
+						false);
+				utf8ColonLatitudes[i] = colonLatitudes[i].getBytes(StandardCharsets.UTF_8);
+			}
+		}
+
+		private String toDms(double value, int degreeDigits, char degreeSymbol, char minuteSymbol, boolean latitude) {
+			int degrees = (int) value;
+			int minutes = (int) ((value - degrees) * 60);
+			double seconds = (value - degrees - minutes / 60.0) * 3600;
+			String dms = String.format(Locale.ROOT, "%0" + degreeDigits + "d%c%02d%c%05.2f", degrees, degreeSymbol,
+					minutes, minuteSymbol, Math.min(seconds, 59.99));
+			char northOrEast = latitude ? PositionParser.SYMBOL_NORTH : PositionParser.SYMBOL_EAST;
+			char southOrWest = latitude ? PositionParser.SYMBOL_SOUTH : PositionParser.SYMBOL_WEST;
+			switch (form) {
+			case "suffixNE":
+				return dms + northOrEast;
+			case "suffixSW":
+				return dms + southOrWest;
+			case "prefix":
+				return northOrEast + dms;
+			case "plus":
+				return "+" + dms;
+			case "minus":
+				return "-" + dms;
+			default:
+				return dms;
+			}
+		}
+	}
+
+	/**
+	 * Latitude and longitude pairs in the compact ddMMssNdddMMssE form.
+	 */
+	@State(Scope.Thread)
+	public static class CompactInputs {
+
+		@Param({ "NE", "SW" })
+		public String hemispheres;
+
+		private final String[] positions = new String[COORDINATES];
+		private int next = 0;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(42);
+			for (int i = 0; i < COORDINATES; i++) {
+				positions[i] = String.format(Locale.ROOT, "%02d%02d%04d%c%03d%02d%04d%c", random.nextInt(90),
+						random.nextInt(60), random.nextInt(6000), hemispheres.charAt(0), random.nextInt(180),
+						random.nextInt(60), random.nextInt(6000), hemispheres.charAt(1));
+			}
+		}
+	}
+
+	@Benchmark
+	public String convertLatRadToDMS(Radians radians) {
+		return PositionParser.convertLatRadToDMS(radians.latitudes[radians.next++ & MASK]);
+	}
+
+	@Benchmark
+	public String convertLonRadToDMS(Radians radians) {
+		return PositionParser.convertLonRadToDMS(radians.longitudes[radians.next++ & MASK]);
+	}
+
+	@Benchmark
+	public double parseLatDMS(DmsInputs inputs) {
+		return PositionParser.parseLatDMS(inputs.latitudes[inputs.next++ & MASK]);
+	}
+
+	@Benchmark
+	public double parseLonDMS(DmsInputs inputs) {
+		return PositionParser.parseLonDMS(inputs.longitudes[inputs.next++ & MASK]);
+	}
+
+	@Benchmark
+	public double parseLatDMSColon(DmsInputs inputs) {
+		return PositionParser.parseLatDMSColon(inputs.colonLatitudes[inputs.next++ & MASK]);
+	}
+
+	@Benchmark
+	public double parseLonDMSColon(DmsInputs inputs) {
+		return PositionParser.parseLonDMSColon(inputs.colonLongitudes[inputs.next++ & MASK]);
+	}
+
+	@Benchmark
+	public double parseLatDMSColonUtf8(DmsInputs inputs) {
+		Utf8 latitude = new Utf8(inputs.utf8ColonLatitudes[inputs.next++ & MASK]);
+		// the text is ASCII, and the length of a Utf8 would convert it to a String
+		return PositionParser.parseLatDMSColon(latitude, 0, latitude.getByteLength());
+	}
+
+	@Benchmark
+	public double[] parseLatLonDMS(CompactInputs inputs) {
+		return PositionParser.parseLatLonDMS(inputs.positions[inputs.next++ & MASK]);
+	}
+
+}
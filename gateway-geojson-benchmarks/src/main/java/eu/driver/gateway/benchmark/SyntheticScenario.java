@@ -0,0 +1,153 @@
+package eu.driver.gateway.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import eu.driver.api.IAdaptorCallback;
+import eu.driver.model.sim.ObjectDeleted;
+import eu.driver.model.sim.connection.Unit;
+import eu.driver.model.sim.connection.UnitConnection;
+import eu.driver.model.sim.entity.Item;
+import eu.driver.model.sim.geo.Location;
+import eu.driver.model.sim.geo.Orientation;
+import eu.driver.model.sim.geo.Velocity;
+
+/**
+ * Synthetic XVR scenario of items in units, with the units connected to trees.
+ *
+ * Every {@link #ITEMS_PER_UNIT} items form a unit, the first being its main
+ * item. The units are connected to binary trees of the given depth, a depth of
+ * 1 leaves them unconnected. Every item has two positions a few metres apart,
+ * so alternating between them moves it in every update.
+ *
+ * All records are built up front, so the benchmarks only measure the
+ * converter.
+ */
+public class SyntheticScenario {
+
+	public static final int ITEMS_PER_UNIT = 4;
+
+	private static final String OWNER = "XVR.RM";
+	private static final double CENTER_LON = 4.9;
+	private static final double CENTER_LAT = 52.37;
+	/** spread of the items around the center in degrees */
+	private static final double SPREAD = 0.2;
+	/** distance between the two positions of an item in degrees */
+	private static final double STEP = 0.00005;
+
+	private final Item[][] itemPositions;
+	private final Unit[] units;
+	private final List<UnitConnection> connections = new ArrayList<>();
+	private final ObjectDeleted[] deletions;
+
+	public SyntheticScenario(int entities, int depth) {
+		Random random = new Random(entities * 31L + depth);
+		itemPositions = new Item[2][entities];
+		deletions = new ObjectDeleted[entities];
+		for (int i = 0; i < entities; i++) {
+			double lon = CENTER_LON + (random.nextDouble() - 0.5) * SPREAD;
+			double lat = CENTER_LAT + (random.nextDouble() - 0.5) * SPREAD;
+			itemPositions[0][i] = newItem(i, lon, lat);
+			itemPositions[1][i] = newItem(i, lon + STEP, lat + STEP);
+			deletions[i] = ObjectDeleted.newBuilder().setGuid(itemGuid(i)).setOwner(OWNER).build();
+		}
+
+		units = new Unit[entities / ITEMS_PER_UNIT];
+		for (int u = 0; u < units.length; u++) {
+			List<CharSequence> subItems = new ArrayList<>();
+			for (int i = u * ITEMS_PER_UNIT + 1; i < (u + 1) * ITEMS_PER_UNIT; i++) {
+				subItems.add(itemGuid(i));
+			}
+			units[u] = Unit.newBuilder().setGuid(unitGuid(u)).setOwner(OWNER).setName("Unit " + u)
+					.setMainItem(itemGuid(u * ITEMS_PER_UNIT)).setSubItems(subItems).build();
+		}
+
+		// binary trees of 2^depth - 1 units, unit j of a tree is connected to its parent (j - 1) / 2
+		int treeSize = (1 << depth) - 1;
+		for (int u = 0; u < units.length; u++) {
+			int root = u - u % treeSize;
+			int j = u - root;
+			if (j > 0) {
+				connections.add(UnitConnection.newBuilder().setGuid("connection-" + u).setOwner(OWNER)
+						.setMainUnit(unitGuid(root + (j - 1) / 2)).setSubUnit(unitGuid(u)).build());
+			}
+		}
+	}
+
+	/**
+	 * Sends all items, units and connections to the converter.
+	 */
+	public void load(IAdaptorCallback converter) {
+		for (Item item : itemPositions[0]) {
+			converter.messageReceived(null, item);
+		}
+		for (Unit unit : units) {
+			converter.messageReceived(null, unit);
+		}
+		for (UnitConnection connection : connections) {
+			converter.messageReceived(null, connection);
+		}
+	}
+
+	public int getItemCount() {
+		return itemPositions[0].length;
+	}
+
+	/**
+	 * @param round
+	 *            number of the update round, the position alternates every round
+	 */
+	public Item getItem(int index, int round) {
+		return itemPositions[round & 1][index];
+	}
+
+	public int getUnitCount() {
+		return units.length;
+	}
+
+	public Unit getUnit(int index) {
+		return units[index];
+	}
+
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public UnitConnection getConnection(int index) {
+		return connections.get(index);
+	}
+
+	public ObjectDeleted getDeletion(int index) {
+		return deletions[index];
+	}
+
+	/**
+	 * @return true if the item is not the main item of its unit
+	 */
+	public static boolean isSubItem(int index) {
+		return index % ITEMS_PER_UNIT != 0;
+	}
+
+	private static Item newItem(int index, double lon, double lat) {
+		Item.Builder builder = Item.newBuilder();
+		builder.setGuid(itemGuid(index));
+		builder.setOwner(OWNER);
+		builder.setName("Item " + index);
+		builder.setOrientation(new Orientation(0d, 0d, 0d));
+		builder.setVelocity(new Velocity(0d, 0d, 1d));
+		builder.setVisibleForParticipant(true);
+		builder.setMovable(true);
+		builder.setLocationBuilder(Location.newBuilder().setLongitude(lon).setLatitude(lat).setAltitude(0.0));
+		return builder.build();
+	}
+
+	private static String itemGuid(int index) {
+		return "item-" + index;
+	}
+
+	private static String unitGuid(int index) {
+		return "unit-" + index;
+	}
+
+}
@@ -1,24 +1,63 @@
 package eu.driver.gateway;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
 import org.slf4j.Logger;
 
 import eu.driver.adapter.core.CISAdapter;
-import eu.driver.adapter.core.producer.GenericProducer;
 import eu.driver.adapter.logger.CISLogger;
+import eu.driver.api.IAdaptorCallback;
+import eu.driver.gateway.geojson.FeatureOutput;
+import eu.driver.gateway.geojson.KeyedProducer;
+import eu.driver.gateway.geojson.PartitionedInput;
+import eu.driver.gateway.geojson.PrecisionOutput;
+import eu.driver.gateway.geojson.ProducerOutput;
+import eu.driver.gateway.geojson.ShardedItemUnitGroupConverter;
+import eu.driver.gateway.geojson.ShardedStationConverter;
 import eu.driver.gateway.geojson.XVRItemUnitGroupConverter;
 import eu.driver.gateway.geojson.XVRStationConverter;
 
 public class GatewayConverter {
 	
 	private CISAdapter adapter;
+	private ScheduledExecutorService reportingScheduler;
+	private KafkaProducer<String, Object> keyedProducer = null;
+	private int shards = 0;
+	private PartitionedInput partitionedInput = null;
 	
 	private static Logger logger = CISLogger.logger(GatewayConverter.class);
 	
 	public GatewayConverter() {
 		adapter = CISAdapter.getInstance();
+		int threads = Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_THREADS));
+		reportingScheduler = Executors.newScheduledThreadPool(threads);
+		if (GatewayProperties.CONVERTER_MODE_SHARDED
+				.equals(GatewayProperties.getInstance().getProperty(GatewayProperties.CONVERTER_MODE))) {
+			shards = Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.CONVERTER_SHARDS));
+			if (shards <= 0) {
+				shards = Runtime.getRuntime().availableProcessors();
+			}
+			// every shard counts windows and encodes deltas of its own, so the
+			// shards would interleave keyframes and deltas on one output topic
+			if (Integer.parseInt(GatewayProperties.getInstance()
+					.getProperty(GatewayProperties.OUTPUT_KEYFRAME_INTERVAL)) > 0) {
+				throw new IllegalStateException("The sharded converter mode does not support "
+						+ GatewayProperties.OUTPUT_KEYFRAME_INTERVAL + " > 0");
+			}
+		}
+		
+		if (GatewayProperties.INPUT_MODE_PARTITIONED
+				.equals(GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_MODE))) {
+			partitionedInput = new PartitionedInput();
+		}
 		
 		addItemUnitGroupConverter();
 		addStationConverter();
+		if (partitionedInput != null) {
+			partitionedInput.start();
+		}
 	}
 	
 	public static void main(String[] args) {
@@ -27,21 +66,88 @@ public class GatewayConverter {
 	}
 	
 	private void addItemUnitGroupConverter() {
-		GenericProducer itemProducer = adapter.createProducer(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TOPIC_ITEM));
-		GenericProducer unitProducer = adapter.createProducer(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TOPIC_UNIT));
-		GenericProducer groupProducer = adapter.createProducer(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TOPIC_UNITGROUP));
+		FeatureOutput itemOutput = createOutput(GatewayProperties.OUTPUT_TOPIC_ITEM, GatewayProperties.OUTPUT_PRECISION_ITEM);
+		FeatureOutput unitOutput = createOutput(GatewayProperties.OUTPUT_TOPIC_UNIT, GatewayProperties.OUTPUT_PRECISION_UNIT);
+		FeatureOutput groupOutput = createOutput(GatewayProperties.OUTPUT_TOPIC_UNITGROUP, GatewayProperties.OUTPUT_PRECISION_UNITGROUP);
 		
-		XVRItemUnitGroupConverter itemConverter = new XVRItemUnitGroupConverter(itemProducer, unitProducer, groupProducer);
+		IAdaptorCallback itemConverter;
+		if (shards > 0) {
+			itemConverter = new ShardedItemUnitGroupConverter(shards, itemOutput, unitOutput, groupOutput, reportingScheduler);
+		} else {
+			itemConverter = new XVRItemUnitGroupConverter(itemOutput, unitOutput, groupOutput, reportingScheduler);
+		}
 		
-		adapter.addCallback(itemConverter, GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_TOPIC_ITEM));
-		adapter.addCallback(itemConverter, GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_TOPIC_UNIT));
-		adapter.addCallback(itemConverter, GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_TOPIC_UNITGROUP));
-		adapter.addCallback(itemConverter, GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_TOPIC_DELETIONS));
+		addCallback(itemConverter, GatewayProperties.INPUT_TOPIC_ITEM, true);
+		addCallback(itemConverter, GatewayProperties.INPUT_TOPIC_UNIT, false);
+		addCallback(itemConverter, GatewayProperties.INPUT_TOPIC_UNITGROUP, false);
+		addCallback(itemConverter, GatewayProperties.INPUT_TOPIC_DELETIONS, false);
 	}
 	
 	private void addStationConverter() {
-		GenericProducer stationProducer = adapter.createProducer(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TOPIC_STATION));
-		XVRStationConverter stationConverter = new XVRStationConverter(stationProducer);
-		adapter.addCallback(stationConverter, GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_TOPIC_STATION));
+		FeatureOutput stationOutput = createOutput(GatewayProperties.OUTPUT_TOPIC_STATION, GatewayProperties.OUTPUT_PRECISION_STATION);
+		IAdaptorCallback stationConverter;
+		if (shards > 0) {
+			stationConverter = new ShardedStationConverter(shards, stationOutput, reportingScheduler);
+		} else {
+			stationConverter = new XVRStationConverter(stationOutput, reportingScheduler);
+		}
+		addCallback(stationConverter, GatewayProperties.INPUT_TOPIC_STATION, true);
+		addCallback(stationConverter, GatewayProperties.INPUT_TOPIC_DELETIONS, false);
+	}
+	
+	/**
+	 * @param partitioned
+	 *            true if the topic is split over the gateway instances in
+	 *            partitioned input mode, false if every instance consumes it
+	 *            completely
+	 */
+	private void addCallback(IAdaptorCallback callback, String topicProperty, boolean partitioned) {
+		String topic = GatewayProperties.getInstance().getProperty(topicProperty);
+		if (partitionedInput != null) {
+			partitionedInput.addCallback(callback, topic, partitioned);
+		} else {
+			adapter.addCallback(callback, topic);
+		}
+	}
+	
+	/**
+	 * @param precisionProperty
+	 *            property with the decimals of the output coordinates
+	 */
+	private FeatureOutput createOutput(String topicProperty, String precisionProperty) {
+		String topic = GatewayProperties.getInstance().getProperty(topicProperty);
+		FeatureOutput output = createProducerOutput(topic);
+		
+		int decimals = Integer.parseInt(GatewayProperties.getInstance().getProperty(precisionProperty));
+		boolean snap = Boolean
+				.parseBoolean(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_PRECISION_SNAP));
+		boolean omitAltitude = Boolean.parseBoolean(
+				GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_PRECISION_ALTITUDE_OMIT));
+		long reportInterval = Long
+				.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_PRECISION_REPORT));
+		if (decimals >= 0 || omitAltitude || reportInterval > 0) {
+			logger.info("Sending " + topic + " with " + (decimals >= 0 ? decimals + " decimals" : "full precision")
+					+ (snap && decimals >= 0 ? ", snapped" : "") + (omitAltitude ? ", without ground altitude" : ""));
+			output = new PrecisionOutput(output, topic, decimals, snap, omitAltitude, reportInterval);
+		}
+		return output;
+	}
+	
+	/**
+	 * Tile and entity output need keys of their own, and keyframe output needs
+	 * record headers, so they are sent through a separate Kafka producer shared
+	 * by all output topics.
+	 */
+	private FeatureOutput createProducerOutput(String topic) {
+		String mode = GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_MODE);
+		int keyframeInterval = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_KEYFRAME_INTERVAL));
+		if (!GatewayProperties.OUTPUT_MODE_COLLECTION.equals(mode) || keyframeInterval > 0) {
+			if (keyedProducer == null) {
+				keyedProducer = KeyedProducer.createKafkaProducer();
+			}
+			return new KeyedProducer(keyedProducer, topic);
+		}
+		return new ProducerOutput(adapter.createProducer(topic));
 	}
 }
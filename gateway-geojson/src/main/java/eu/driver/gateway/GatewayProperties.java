@@ -39,6 +39,14 @@ public class GatewayProperties extends Properties {
 	 * Input topic name for simulated deletions
 	 */
 	public static final String INPUT_TOPIC_DELETIONS = "input.topic.deletions";
+
+	/**
+	 * How the input topics are consumed: "adapter" through the test-bed adapter,
+	 * or "partitioned" by a consumer group shared with other gateway instances,
+	 * which rebuild the state of newly assigned partitions from the input. The
+	 * partitioned item and station topics must be keyed by entity guid.
+	 */
+	public static final String INPUT_MODE = "input.mode";
 	
 	/**
 	 * Output topic name for converted items
@@ -61,6 +69,227 @@ public class GatewayProperties extends Properties {
 	public static final String OUTPUT_TOPIC_STATION = "output.topic.station";
 	
 	public static final String OUTPUT_FREQUENCY = "output.frequency";
+
+	/**
+	 * Number of updates in a window that triggers a flush before the output
+	 * frequency elapsed
+	 */
+	public static final String OUTPUT_FLUSH_SIZE = "output.flush.size";
+
+	/**
+	 * Minimal time in milliseconds between two flushes of the same output
+	 */
+	public static final String OUTPUT_FLUSH_GAP = "output.flush.gap";
+
+	/**
+	 * How reports are sent: "collection" sends unkeyed FeatureCollections of
+	 * the whole world, "tile" one FeatureCollection per dirty tile keyed by
+	 * the "zoom/x/y" tile id, and "entity" one record per entity keyed by its
+	 * guid, with tombstones for removed entities
+	 */
+	public static final String OUTPUT_MODE = "output.mode";
+
+	/**
+	 * Zoom level (0-15) of the web mercator tiles in tile output mode
+	 */
+	public static final String OUTPUT_TILES_ZOOM = "output.tiles.zoom";
+
+	/**
+	 * Number of reports of XVR Items, Units and Groups between two keyframes
+	 * with all entities, the reports in between only carry what changed, 0 to
+	 * send full features in every report; not supported by the sharded
+	 * converter mode
+	 */
+	public static final String OUTPUT_KEYFRAME_INTERVAL = "output.keyframe.interval";
+
+	/**
+	 * Decimals of a degree the coordinates of the XVR Items output are rounded
+	 * to, -1 to keep full precision
+	 */
+	public static final String OUTPUT_PRECISION_ITEM = "output.precision.item";
+
+	/**
+	 * Decimals of a degree the coordinates of the XVR Units output are rounded
+	 * to, -1 to keep full precision
+	 */
+	public static final String OUTPUT_PRECISION_UNIT = "output.precision.unit";
+
+	/**
+	 * Decimals of a degree the coordinates of the XVR Unit Groups output are
+	 * rounded to, -1 to keep full precision
+	 */
+	public static final String OUTPUT_PRECISION_UNITGROUP = "output.precision.unitgroup";
+
+	/**
+	 * Decimals of a degree the coordinates of the XVR Stations output are
+	 * rounded to, -1 to keep full precision
+	 */
+	public static final String OUTPUT_PRECISION_STATION = "output.precision.station";
+
+	/**
+	 * Whether a rounded coordinate that moved less than one step keeps the value
+	 * that was last sent
+	 */
+	public static final String OUTPUT_PRECISION_SNAP = "output.precision.snap";
+
+	/**
+	 * Whether an altitude of 0 is left out of the output coordinates
+	 */
+	public static final String OUTPUT_PRECISION_ALTITUDE_OMIT = "output.precision.altitude.omit";
+
+	/**
+	 * Interval in ms of the report of the bytes per output feature before and
+	 * after the precision reduction, 0 to disable
+	 */
+	public static final String OUTPUT_PRECISION_REPORT = "output.precision.report";
+
+	/**
+	 * Number of threads of the reporting executor shared by all converters
+	 */
+	public static final String OUTPUT_THREADS = "output.threads";
+
+	/**
+	 * Time in milliseconds a unit connection waits for its units before it is
+	 * dropped
+	 */
+	public static final String CONNECTION_PENDING_TTL = "connection.pending.ttl";
+
+	/**
+	 * Maximal number of features per output FeatureCollection
+	 */
+	public static final String OUTPUT_CHUNK_FEATURES = "output.chunk.features";
+
+	/**
+	 * Maximal estimated serialized size in bytes of an output FeatureCollection
+	 */
+	public static final String OUTPUT_CHUNK_BYTES = "output.chunk.bytes";
+
+	/**
+	 * Execution mode of the item, unit and group converter: "locking" lets the
+	 * consumer and reporting threads share state through monitors, "eventloop"
+	 * applies all mutations and report snapshots on a single owner thread, and
+	 * "sharded" spreads items, units and stations by guid over several
+	 * converters with event loops of their own
+	 */
+	public static final String CONVERTER_MODE = "converter.mode";
+
+	/**
+	 * Number of converter shards in sharded mode, 0 uses one per available
+	 * processor
+	 */
+	public static final String CONVERTER_SHARDS = "converter.shards";
+
+	/**
+	 * Capacity of the ring buffer feeding the converter event loop
+	 */
+	public static final String CONVERTER_EVENTLOOP_CAPACITY = "converter.eventloop.capacity";
+
+	/**
+	 * Minimal movement in metres before an item position is reported again, 0
+	 * disables the movement suppression
+	 */
+	public static final String ITEM_SUPPRESS_DISTANCE = "item.suppress.distance";
+
+	/**
+	 * Minimal change of speed in m/s before an item position is reported again
+	 */
+	public static final String ITEM_SUPPRESS_SPEED_DELTA = "item.suppress.speed.delta";
+
+	/**
+	 * Maximal time in milliseconds an unmoved item may go unreported
+	 */
+	public static final String ITEM_SUPPRESS_HEARTBEAT = "item.suppress.heartbeat";
+
+	/**
+	 * Speed in m/s from which an item is reported every tick
+	 */
+	public static final String ITEM_RATE_FAST_SPEED = "item.rate.fast.speed";
+
+	/**
+	 * Comma separated item types that are reported every tick regardless of
+	 * their speed
+	 */
+	public static final String ITEM_RATE_FAST_TYPES = "item.rate.fast.types";
+
+	/**
+	 * Number of ticks between two reports of an item that is slower than the
+	 * fast speed
+	 */
+	public static final String ITEM_RATE_SLOW_TICKS = "item.rate.slow.ticks";
+
+	/**
+	 * Speed in m/s below which an item is only reported on change or heartbeat,
+	 * 0 disables the static tier
+	 */
+	public static final String ITEM_RATE_STATIC_SPEED = "item.rate.static.speed";
+
+	/**
+	 * Maximal time in milliseconds a static item may go unreported
+	 */
+	public static final String ITEM_RATE_STATIC_HEARTBEAT = "item.rate.static.heartbeat";
+
+	/**
+	 * Areas of interest, entities outside all of them are not reported. Areas
+	 * are separated by semicolons and consist of comma separated "lon lat"
+	 * corners: two corners span a bounding box, more form a polygon. Empty
+	 * disables the filter
+	 */
+	public static final String AOI_AREAS = "aoi.areas";
+
+	/**
+	 * Size in degrees of the grid cells indexing the areas of interest
+	 */
+	public static final String AOI_GRID_CELL = "aoi.grid.cell";
+
+	/**
+	 * Time in milliseconds after which an entity that was not updated is
+	 * evicted, 0 disables the idle eviction
+	 */
+	public static final String ENTITY_IDLE_TTL = "entity.idle.ttl";
+
+	/**
+	 * Maximal number of entities of each kind kept by a converter, the least
+	 * recently updated ones are evicted above it
+	 */
+	public static final String ENTITY_CAPACITY = "entity.capacity";
+
+	/**
+	 * Interval in milliseconds between two eviction sweeps
+	 */
+	public static final String ENTITY_EVICTION_INTERVAL = "entity.eviction.interval";
+
+	/**
+	 * Directory of the state checkpoints restored on startup, empty disables
+	 * checkpointing
+	 */
+	public static final String CHECKPOINT_DIR = "checkpoint.dir";
+
+	/**
+	 * Interval in milliseconds between two appends to the checkpoint
+	 */
+	public static final String CHECKPOINT_INTERVAL = "checkpoint.interval";
+
+	/**
+	 * Interval in milliseconds between two full snapshots of the checkpoint
+	 */
+	public static final String CHECKPOINT_SNAPSHOT_INTERVAL = "checkpoint.snapshot.interval";
+
+	/**
+	 * Initial size in bytes of a checkpoint file, which grows when a snapshot
+	 * does not fit
+	 */
+	public static final String CHECKPOINT_SIZE = "checkpoint.size";
+
+	public static final String INPUT_MODE_ADAPTER = "adapter";
+	public static final String INPUT_MODE_PARTITIONED = "partitioned";
+
+	public static final String OUTPUT_MODE_COLLECTION = "collection";
+	public static final String OUTPUT_MODE_TILE = "tile";
+	public static final String OUTPUT_MODE_ENTITY = "entity";
+
+	public static final String CONVERTER_MODE_LOCKING = "locking";
+	public static final String CONVERTER_MODE_EVENTLOOP = "eventloop";
+	public static final String CONVERTER_MODE_SHARDED = "sharded";
 	
 	private static final Logger logger = LoggerFactory.getLogger(GatewayProperties.class);
 
@@ -95,6 +324,43 @@ public class GatewayProperties extends Properties {
 
 	private void setDefaults() {
 		setProperty(OUTPUT_FREQUENCY, "1000");
+		setProperty(CONNECTION_PENDING_TTL, "600000");
+		setProperty(OUTPUT_FLUSH_SIZE, "100");
+		setProperty(OUTPUT_FLUSH_GAP, "500");
+		setProperty(INPUT_MODE, INPUT_MODE_ADAPTER);
+		setProperty(OUTPUT_THREADS, "4");
+		setProperty(OUTPUT_MODE, OUTPUT_MODE_COLLECTION);
+		setProperty(OUTPUT_TILES_ZOOM, "12");
+		setProperty(OUTPUT_KEYFRAME_INTERVAL, "0");
+		setProperty(OUTPUT_PRECISION_ITEM, "-1");
+		setProperty(OUTPUT_PRECISION_UNIT, "-1");
+		setProperty(OUTPUT_PRECISION_UNITGROUP, "-1");
+		setProperty(OUTPUT_PRECISION_STATION, "-1");
+		setProperty(OUTPUT_PRECISION_SNAP, "false");
+		setProperty(OUTPUT_PRECISION_ALTITUDE_OMIT, "false");
+		setProperty(OUTPUT_PRECISION_REPORT, "0");
+		setProperty(OUTPUT_CHUNK_FEATURES, "1000");
+		setProperty(OUTPUT_CHUNK_BYTES, "1000000");
+		setProperty(CONVERTER_MODE, CONVERTER_MODE_LOCKING);
+		setProperty(CONVERTER_EVENTLOOP_CAPACITY, "65536");
+		setProperty(CONVERTER_SHARDS, "0");
+		setProperty(ITEM_SUPPRESS_DISTANCE, "0");
+		setProperty(ITEM_SUPPRESS_SPEED_DELTA, "0.5");
+		setProperty(ITEM_SUPPRESS_HEARTBEAT, "30000");
+		setProperty(ITEM_RATE_FAST_SPEED, "10");
+		setProperty(ITEM_RATE_FAST_TYPES, "HELICOPTER,PLANE");
+		setProperty(ITEM_RATE_SLOW_TICKS, "1");
+		setProperty(ITEM_RATE_STATIC_SPEED, "0");
+		setProperty(ITEM_RATE_STATIC_HEARTBEAT, "30000");
+		setProperty(AOI_AREAS, "");
+		setProperty(AOI_GRID_CELL, "0.01");
+		setProperty(ENTITY_IDLE_TTL, "0");
+		setProperty(ENTITY_CAPACITY, "100000");
+		setProperty(ENTITY_EVICTION_INTERVAL, "60000");
+		setProperty(CHECKPOINT_DIR, "");
+		setProperty(CHECKPOINT_INTERVAL, "5000");
+		setProperty(CHECKPOINT_SNAPSHOT_INTERVAL, "300000");
+		setProperty(CHECKPOINT_SIZE, "67108864");
 	}
 
 }
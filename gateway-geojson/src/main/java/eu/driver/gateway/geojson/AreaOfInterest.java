@@ -0,0 +1,292 @@
+package eu.driver.gateway.geojson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Union of areas of interest, each a bounding box or a polygon in WGS84
+ * longitude and latitude.
+ *
+ * The union bounding box of the areas is divided into a uniform grid, and the
+ * state of every cell is computed once: outside all areas, inside an area, or
+ * on the boundary of some areas. Only points in boundary cells are tested
+ * against the areas crossing that cell, so the cost of a lookup does not
+ * depend on the number of areas.
+ */
+public class AreaOfInterest {
+
+	/** maximal number of grid cells, larger grids get coarser cells */
+	private static final int MAX_CELLS = 1 << 22;
+
+	public static final int NO_CELL = -1;
+
+	private static final byte OUTSIDE = 0;
+	private static final byte INSIDE = 1;
+	private static final byte BOUNDARY = 2;
+
+	private final List<double[]> areas;
+	private final double minLon;
+	private final double minLat;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	private final byte[] cellStates;
+	/** per boundary cell the indexes of the areas crossing it */
+	private final IntObjectMap<int[]> boundaryAreas = new IntObjectMap<>();
+
+	/**
+	 * @param areas
+	 *            polygons as interleaved longitude and latitude coordinates
+	 * @param cellSize
+	 *            requested size of a grid cell in degrees
+	 */
+	public AreaOfInterest(List<double[]> areas, double cellSize) {
+		this.areas = areas;
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (double[] area : areas) {
+			for (int i = 0; i < area.length; i += 2) {
+				minX = Math.min(minX, area[i]);
+				maxX = Math.max(maxX, area[i]);
+				minY = Math.min(minY, area[i + 1]);
+				maxY = Math.max(maxY, area[i + 1]);
+			}
+		}
+		double width = Math.max(maxX - minX, cellSize);
+		double height = Math.max(maxY - minY, cellSize);
+		while ((width / cellSize) * (height / cellSize) > MAX_CELLS) {
+			cellSize *= 2;
+		}
+		this.minLon = minX;
+		this.minLat = minY;
+		this.cellSize = cellSize;
+		this.columns = (int) Math.ceil(width / cellSize);
+		this.rows = (int) Math.ceil(height / cellSize);
+		this.cellStates = new byte[columns * rows];
+		for (int a = 0; a < areas.size(); a++) {
+			rasterize(a, areas.get(a));
+		}
+	}
+
+	/**
+	 * Parses areas of the form "lon lat, lon lat; lon lat, lon lat, lon lat".
+	 * Areas are separated by semicolons, and their corners by commas. An area
+	 * with two corners is the bounding box spanned by them, an area with more
+	 * corners is a polygon.
+	 *
+	 * @return the areas as polygons of interleaved coordinates
+	 */
+	public static List<double[]> parseAreas(String value) {
+		List<double[]> areas = new ArrayList<>();
+		for (String area : value.split(";")) {
+			if (area.trim().isEmpty()) {
+				continue;
+			}
+			String[] corners = area.split(",");
+			double[] coordinates = new double[corners.length * 2];
+			for (int i = 0; i < corners.length; i++) {
+				String[] lonLat = corners[i].trim().split("\\s+");
+				if (lonLat.length != 2) {
+					throw new IllegalArgumentException("Invalid corner '" + corners[i] + "' in area '" + area + "'");
+				}
+				coordinates[2 * i] = Double.parseDouble(lonLat[0]);
+				coordinates[2 * i + 1] = Double.parseDouble(lonLat[1]);
+			}
+			if (corners.length == 2) {
+				double x0 = Math.min(coordinates[0], coordinates[2]);
+				double x1 = Math.max(coordinates[0], coordinates[2]);
+				double y0 = Math.min(coordinates[1], coordinates[3]);
+				double y1 = Math.max(coordinates[1], coordinates[3]);
+				coordinates = new double[] { x0, y0, x1, y0, x1, y1, x0, y1 };
+			} else if (corners.length < 2) {
+				throw new IllegalArgumentException("Area '" + area + "' needs at least two corners");
+			}
+			areas.add(coordinates);
+		}
+		return areas;
+	}
+
+	/**
+	 * @return the grid cell of the position, or -1 if it lies outside the grid
+	 */
+	public int getCell(double lon, double lat) {
+		int column = (int) Math.floor((lon - minLon) / cellSize);
+		int row = (int) Math.floor((lat - minLat) / cellSize);
+		if (column < 0 || row < 0 || column >= columns || row >= rows) {
+			return NO_CELL;
+		}
+		return row * columns + column;
+	}
+
+	/**
+	 * @return true if the whole cell has the same state, so the result of
+	 *         {@link #contains(int, double, double)} only depends on the cell
+	 */
+	public boolean isUniform(int cell) {
+		return cell == NO_CELL || cellStates[cell] != BOUNDARY;
+	}
+
+	public boolean contains(double lon, double lat) {
+		return contains(getCell(lon, lat), lon, lat);
+	}
+
+	/**
+	 * @param cell
+	 *            the grid cell of the position
+	 */
+	public boolean contains(int cell, double lon, double lat) {
+		if (cell == NO_CELL) {
+			return false;
+		}
+		byte state = cellStates[cell];
+		if (state != BOUNDARY) {
+			return state == INSIDE;
+		}
+		for (int a : boundaryAreas.get(cell)) {
+			if (inPolygon(areas.get(a), lon, lat)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getAreaCount() {
+		return areas.size();
+	}
+
+	public int getCellCount() {
+		return cellStates.length;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Marks the cells crossed by the edges of the area as boundary cells, and
+	 * the other cells within its bounding box by testing their centre.
+	 */
+	private void rasterize(int index, double[] area) {
+		int n = area.length / 2;
+		int minColumn = columns;
+		int minRow = rows;
+		int maxColumn = 0;
+		int maxRow = 0;
+		for (int i = 0; i < n; i++) {
+			double x0 = area[2 * i];
+			double y0 = area[2 * i + 1];
+			double x1 = area[(2 * i + 2) % area.length];
+			double y1 = area[(2 * i + 3) % area.length];
+			int c0 = column(Math.min(x0, x1));
+			int c1 = column(Math.max(x0, x1));
+			int r0 = row(Math.min(y0, y1));
+			int r1 = row(Math.max(y0, y1));
+			minColumn = Math.min(minColumn, c0);
+			maxColumn = Math.max(maxColumn, c1);
+			minRow = Math.min(minRow, r0);
+			maxRow = Math.max(maxRow, r1);
+			for (int r = r0; r <= r1; r++) {
+				for (int c = c0; c <= c1; c++) {
+					if (segmentCrossesCell(x0, y0, x1, y1, c, r)) {
+						addBoundary(r * columns + c, index);
+					}
+				}
+			}
+		}
+		for (int r = minRow; r <= maxRow; r++) {
+			for (int c = minColumn; c <= maxColumn; c++) {
+				int cell = r * columns + c;
+				if (cellStates[cell] == INSIDE || crossedBy(cell, index)) {
+					continue;
+				}
+				// not crossed by an edge, so the whole cell is on the side of its centre
+				if (inPolygon(area, minLon + (c + 0.5) * cellSize, minLat + (r + 0.5) * cellSize)) {
+					cellStates[cell] = INSIDE;
+					boundaryAreas.remove(cell);
+				}
+			}
+		}
+	}
+
+	private void addBoundary(int cell, int area) {
+		if (cellStates[cell] == INSIDE) {
+			return; // already covered completely by another area
+		}
+		cellStates[cell] = BOUNDARY;
+		int[] crossing = boundaryAreas.get(cell);
+		if (crossing == null) {
+			boundaryAreas.put(cell, new int[] { area });
+		} else if (crossing[crossing.length - 1] != area) {
+			crossing = Arrays.copyOf(crossing, crossing.length + 1);
+			crossing[crossing.length - 1] = area;
+			boundaryAreas.put(cell, crossing);
+		}
+	}
+
+	private boolean crossedBy(int cell, int area) {
+		int[] crossing = boundaryAreas.get(cell);
+		return crossing != null && crossing[crossing.length - 1] == area;
+	}
+
+	private int column(double lon) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor((lon - minLon) / cellSize)));
+	}
+
+	private int row(double lat) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellSize)));
+	}
+
+	/**
+	 * Liang-Barsky clipping of the segment against the cell.
+	 */
+	private boolean segmentCrossesCell(double x0, double y0, double x1, double y1, int column, int row) {
+		double left = minLon + column * cellSize;
+		double bottom = minLat + row * cellSize;
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { x0 - left, left + cellSize - x0, y0 - bottom, bottom + cellSize - y0 };
+		double t0 = 0;
+		double t1 = 1;
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0) {
+					return false;
+				}
+			} else {
+				double t = q[i] / p[i];
+				if (p[i] < 0) {
+					t0 = Math.max(t0, t);
+				} else {
+					t1 = Math.min(t1, t);
+				}
+				if (t0 > t1) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Even-odd ray casting test.
+	 */
+	private static boolean inPolygon(double[] area, double lon, double lat) {
+		boolean inside = false;
+		int n = area.length / 2;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double xi = area[2 * i];
+			double yi = area[2 * i + 1];
+			double xj = area[2 * j];
+			double yj = area[2 * j + 1];
+			if ((yi > lat) != (yj > lat) && lon < (xj - xi) * (lat - yi) / (yj - yi) + xi) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+}
@@ -0,0 +1,59 @@
+package eu.driver.gateway.geojson;
+
+import java.util.BitSet;
+
+/**
+ * Applies an {@link AreaOfInterest} to the reports of one output stream.
+ *
+ * The filter indexes the grid cell every entity was last seen in, together
+ * with whether it was inside the area. An entity that stays in a cell without
+ * area boundary is not tested again. An entity that leaves the area passes
+ * once more, so consumers see it leave, and is dropped from then on until it
+ * enters again.
+ */
+public class AreaOfInterestFilter {
+
+	private final AreaOfInterest area;
+
+	/** grid cell + 1 per entity, so entities outside the grid can be indexed */
+	private IntIntMap cells = new IntIntMap();
+	private BitSet inside = new BitSet();
+
+	public AreaOfInterestFilter(AreaOfInterest area) {
+		this.area = area;
+	}
+
+	/**
+	 * @return true if the entity is inside the area, or just left it
+	 */
+	public synchronized boolean accept(int id, double lon, double lat) {
+		int cell = area.getCell(lon, lat);
+		// an entity that was not indexed yet gets -2, which is never a cell
+		int previousCell = cells.put(id, cell + 1) - 1;
+		boolean wasInside = inside.get(id);
+		boolean isInside;
+		if (previousCell == cell && area.isUniform(cell)) {
+			isInside = wasInside;
+		} else {
+			isInside = area.contains(cell, lon, lat);
+			inside.set(id, isInside);
+		}
+		return isInside || wasInside;
+	}
+
+	/**
+	 * @return true if the entity was inside the area when it was last accepted
+	 */
+	public synchronized boolean isInside(int id) {
+		return inside.get(id);
+	}
+
+	/**
+	 * Forgets the entity, e.g. because it was deleted.
+	 */
+	public synchronized void forget(int id) {
+		cells.remove(id);
+		inside.clear(id);
+	}
+
+}
@@ -0,0 +1,166 @@
+package eu.driver.gateway.geojson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.FeatureCollection;
+import eu.driver.model.geojson.sim.Point;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+
+/**
+ * Sends the features of one report as a sequence of FeatureCollections that
+ * are bounded by a feature count and an estimated serialized size.
+ *
+ * A chunk is sent as soon as it is full, so the first chunk leaves while the
+ * remaining features are still being built. When a send executor is given, the
+ * chunks are sent from that executor instead of the building thread, one at a
+ * time and in the order they were built.
+ */
+public class ChunkedFeatureSender implements FeatureSender {
+
+	/**
+	 * Estimated fixed encoding overhead per feature (type, union and array
+	 * markers, speed)
+	 */
+	private static final int FEATURE_OVERHEAD = 24;
+
+	private final FeatureOutput output;
+	private final String key;
+	private final int maxFeatures;
+	private final long maxBytes;
+	private final Executor sendExecutor;
+
+	private List<Feature> chunk;
+	private long chunkBytes = 0;
+	private int featureCount = 0;
+	private int chunkCount = 0;
+
+	public ChunkedFeatureSender(FeatureOutput output, int maxFeatures, long maxBytes, Executor sendExecutor) {
+		this(output, null, maxFeatures, maxBytes, sendExecutor);
+	}
+
+	/**
+	 * @param output
+	 *            output topic
+	 * @param key
+	 *            key of the collections, or null
+	 * @param maxFeatures
+	 *            maximal number of features per collection
+	 * @param maxBytes
+	 *            maximal estimated serialized size of a collection in bytes
+	 * @param sendExecutor
+	 *            executor to send the chunks from, wrapped in a
+	 *            {@link SerialExecutor} unless it is one already, or null to
+	 *            send from the calling thread; share one serial executor
+	 *            between the reports of a stream to keep them in order too
+	 */
+	public ChunkedFeatureSender(FeatureOutput output, String key, int maxFeatures, long maxBytes,
+			Executor sendExecutor) {
+		this.output = output;
+		this.key = key;
+		this.maxFeatures = maxFeatures;
+		this.maxBytes = maxBytes;
+		this.sendExecutor = serial(sendExecutor);
+		this.chunk = new ArrayList<>(Math.min(maxFeatures, 1024));
+	}
+
+	/**
+	 * Adds the feature to the current chunk, sending the chunk first if the
+	 * feature would not fit anymore.
+	 */
+	public void add(Feature feature) {
+		long size = estimateSize(feature);
+		if (!chunk.isEmpty() && (chunk.size() >= maxFeatures || chunkBytes + size > maxBytes)) {
+			sendChunk();
+		}
+		chunk.add(feature);
+		chunkBytes += size;
+		featureCount++;
+	}
+
+	@Override
+	public void add(Feature feature, int tile) {
+		add(feature);
+	}
+
+	/**
+	 * Sends the last, partially filled chunk.
+	 *
+	 * @return the number of collections sent for this report
+	 */
+	@Override
+	public int finish() {
+		if (!chunk.isEmpty()) {
+			sendChunk();
+		}
+		return chunkCount;
+	}
+
+	@Override
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	private void sendChunk() {
+		FeatureCollection.Builder builder = FeatureCollection.newBuilder();
+		builder.setFeatures(chunk);
+		final FeatureCollection fc = builder.build();
+		if (sendExecutor != null) {
+			sendExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					output.send(key, fc);
+				}
+			});
+		} else {
+			output.send(key, fc);
+		}
+		chunkCount++;
+		chunk = new ArrayList<>(Math.min(maxFeatures, chunk.size()));
+		chunkBytes = 0;
+	}
+
+	/**
+	 * @return the executor, wrapped so that tasks run in submission order
+	 */
+	static Executor serial(Executor executor) {
+		if (executor == null || executor instanceof SerialExecutor) {
+			return executor;
+		}
+		return new SerialExecutor(executor);
+	}
+
+	/**
+	 * Estimates the binary encoded size of the feature from its coordinates and
+	 * string properties.
+	 */
+	static long estimateSize(Feature feature) {
+		long size = FEATURE_OVERHEAD;
+		Object geometry = feature.getGeometry();
+		if (geometry instanceof Point) {
+			size += 8 * ((Point) geometry).getCoordinates().size();
+		}
+		Object properties = feature.getProperties();
+		if (properties instanceof SimulatedEntityProperties) {
+			SimulatedEntityProperties entityProperties = (SimulatedEntityProperties) properties;
+			size += estimateSize(entityProperties.getGuid());
+			size += estimateSize(entityProperties.getName());
+			size += estimateSize(entityProperties.getLabel());
+			List<CharSequence> subEntities = entityProperties.getSubEntities();
+			if (subEntities != null) {
+				for (CharSequence subEntity : subEntities) {
+					size += estimateSize(subEntity);
+				}
+			}
+		}
+		return size;
+	}
+
+	private static long estimateSize(CharSequence value) {
+		// length prefix plus the characters, assuming mostly single byte UTF-8
+		return value == null ? 1 : value.length() + 2;
+	}
+
+}
@@ -0,0 +1,96 @@
+package eu.driver.gateway.geojson;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+
+/**
+ * Single-writer event loop for converter state.
+ *
+ * All mutations and report snapshots are submitted as events into a bounded
+ * ring buffer and applied in order by one owner thread, so the state they touch
+ * is never accessed concurrently. When the ring buffer is full, submitting
+ * blocks the caller, which applies back pressure to the consuming thread
+ * instead of growing the backlog without bound.
+ */
+public class ConverterEventLoop implements Executor {
+
+	private static Logger logger = CISLogger.logger(ConverterEventLoop.class);
+
+	private final BlockingQueue<Runnable> ringBuffer;
+	private final Thread owner;
+
+	public ConverterEventLoop(String name, int capacity) {
+		ringBuffer = new ArrayBlockingQueue<>(capacity);
+		owner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		}, name);
+		owner.start();
+		logger.info("Started event loop " + name + " with a ring buffer of " + capacity + " events");
+	}
+
+	/**
+	 * Queues the event for the owner thread, waiting for space if the ring buffer
+	 * is full.
+	 *
+	 * @return false if the caller was interrupted and the event was dropped
+	 */
+	public boolean submit(Runnable event) {
+		try {
+			ringBuffer.put(event);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while submitting an event to " + owner.getName() + ", event dropped!");
+			return false;
+		}
+	}
+
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the caller was interrupted and the event was dropped
+	 */
+	@Override
+	public void execute(Runnable event) {
+		if (!submit(event)) {
+			throw new RejectedExecutionException("Event dropped by " + owner.getName());
+		}
+	}
+
+	/**
+	 * @return true if called from the thread that owns the state of this loop
+	 */
+	public boolean isOwnerThread() {
+		return Thread.currentThread() == owner;
+	}
+
+	public int getBacklog() {
+		return ringBuffer.size();
+	}
+
+	private void processEvents() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Runnable event;
+			try {
+				event = ringBuffer.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				event.run();
+			} catch (RuntimeException e) {
+				// a single bad event must not stop the owner thread
+				logger.error("Event loop " + owner.getName() + " failed to process an event", e);
+			}
+		}
+	}
+
+}
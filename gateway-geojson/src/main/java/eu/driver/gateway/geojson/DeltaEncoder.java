@@ -0,0 +1,117 @@
+package eu.driver.gateway.geojson;
+
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+
+/**
+ * Keyframe and delta encoding of the reports of one output stream.
+ *
+ * Every k-th report window is a keyframe, which contains the full feature of
+ * every entity: the updated ones, and the last reported feature of the others.
+ * The windows in between only contain deltas of the updated entities: the
+ * guid, type, geometry and speed, with empty name and label and without sub
+ * entities. An entity whose name, label, type or sub entities changed is sent
+ * in full in a delta window too.
+ *
+ * Consumers tell keyframes and deltas apart by the headers of the records,
+ * see {@link KeyedProducer}.
+ */
+public class DeltaEncoder {
+
+	private final int keyframeInterval;
+
+	private long window = -1;
+	/** last full feature of every reported entity */
+	private IntObjectMap<Feature> lastFeatures = new IntObjectMap<>();
+	/** entities encoded in the current window */
+	private IntObjectMap<Feature> encoded = new IntObjectMap<>();
+
+	// reused for every delta, build() copies the values into a new record
+	private Feature.Builder featureBuilder = Feature.newBuilder();
+	private SimulatedEntityProperties.Builder propertiesBuilder = SimulatedEntityProperties.newBuilder();
+
+	/**
+	 * @param keyframeInterval
+	 *            number of windows from one keyframe to the next
+	 */
+	public DeltaEncoder(int keyframeInterval) {
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Starts the next report window.
+	 */
+	public synchronized void nextWindow() {
+		window++;
+		encoded.clear();
+	}
+
+	public synchronized long getWindow() {
+		return window;
+	}
+
+	public synchronized boolean isKeyframe() {
+		return window % keyframeInterval == 0;
+	}
+
+	/**
+	 * @return the feature itself in a keyframe or if its static properties
+	 *         changed, otherwise its delta
+	 */
+	public synchronized Feature encode(int id, Feature feature) {
+		Feature last = lastFeatures.put(id, feature);
+		encoded.put(id, feature);
+		if (isKeyframe() || last == null || !sameStaticProperties((SimulatedEntityProperties) last.getProperties(),
+				(SimulatedEntityProperties) feature.getProperties())) {
+			return feature;
+		}
+		SimulatedEntityProperties properties = (SimulatedEntityProperties) feature.getProperties();
+		propertiesBuilder.setGuid(properties.getGuid());
+		propertiesBuilder.setName("");
+		propertiesBuilder.setLabel("");
+		propertiesBuilder.setType(properties.getType());
+		if (properties.getSpeed() != null) {
+			propertiesBuilder.setSpeed(properties.getSpeed());
+		} else {
+			propertiesBuilder.clearSpeed();
+		}
+		propertiesBuilder.clearSubEntities();
+		featureBuilder.setGeometry(feature.getGeometry());
+		featureBuilder.setProperties(propertiesBuilder.build());
+		return featureBuilder.build();
+	}
+
+	/**
+	 * @return the last features of the entities that were not encoded in this
+	 *         window, to complete a keyframe
+	 */
+	public synchronized IntObjectMap<Feature> getUnchanged() {
+		IntObjectMap<Feature> unchanged = new IntObjectMap<>(Math.max(0, lastFeatures.size() - encoded.size()));
+		IntObjectMap<Feature>.Cursor cursor = lastFeatures.cursor();
+		while (cursor.next()) {
+			if (!encoded.containsKey(cursor.key())) {
+				unchanged.put(cursor.key(), cursor.value());
+			}
+		}
+		return unchanged;
+	}
+
+	/**
+	 * Forgets the entity, e.g. because it was removed.
+	 */
+	public synchronized void forget(int id) {
+		lastFeatures.remove(id);
+		encoded.remove(id);
+	}
+
+	private static boolean sameStaticProperties(SimulatedEntityProperties a, SimulatedEntityProperties b) {
+		return a.getType() == b.getType() && equal(a.getName(), b.getName()) && equal(a.getLabel(), b.getLabel())
+				&& (a.getSubEntities() == b.getSubEntities()
+						|| (a.getSubEntities() != null && a.getSubEntities().equals(b.getSubEntities())));
+	}
+
+	private static boolean equal(CharSequence a, CharSequence b) {
+		return a == b || (a != null && b != null && a.toString().equals(b.toString()));
+	}
+
+}
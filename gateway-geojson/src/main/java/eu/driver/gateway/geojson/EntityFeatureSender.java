@@ -0,0 +1,60 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Collections;
+
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.FeatureCollection;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+
+/**
+ * Sends every feature of a report as a record of its own, keyed by the guid
+ * of the entity, so the output topic can be compacted into a table of the
+ * latest state per entity.
+ *
+ * Every record holds a FeatureCollection with the single feature, so the
+ * value schema of the topic stays the same. A removal marker is followed by a
+ * tombstone for the guid, so compaction drops the entity.
+ */
+public class EntityFeatureSender implements FeatureSender {
+
+	private final FeatureOutput output;
+
+	private int featureCount = 0;
+	private int recordCount = 0;
+
+	public EntityFeatureSender(FeatureOutput output) {
+		this.output = output;
+	}
+
+	@Override
+	public void add(Feature feature, int tile) {
+		SimulatedEntityProperties properties = (SimulatedEntityProperties) feature.getProperties();
+		String guid = properties.getGuid().toString();
+		FeatureCollection.Builder builder = FeatureCollection.newBuilder();
+		builder.setFeatures(Collections.singletonList(feature));
+		output.send(guid, builder.build());
+		recordCount++;
+		if (RemovalMarker.LABEL.equals(String.valueOf(properties.getLabel()))) {
+			output.delete(guid);
+			recordCount++;
+		}
+		featureCount++;
+	}
+
+	/**
+	 * Records are sent as soon as they are added, so there is nothing left to
+	 * send.
+	 *
+	 * @return the number of records sent for this report
+	 */
+	@Override
+	public int finish() {
+		return recordCount;
+	}
+
+	@Override
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+}
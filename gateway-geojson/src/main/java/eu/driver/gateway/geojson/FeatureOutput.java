@@ -0,0 +1,40 @@
+package eu.driver.gateway.geojson;
+
+import eu.driver.model.geojson.sim.FeatureCollection;
+
+/**
+ * Output topic the FeatureCollections of a converter are sent to.
+ */
+public interface FeatureOutput {
+
+	/**
+	 * @param key
+	 *            key of the collection, or null if the collection has no key of
+	 *            its own
+	 */
+	void send(String key, FeatureCollection collection);
+
+	/**
+	 * Sends the collection as part of a keyframe or delta window, see
+	 * {@link DeltaEncoder}. Outputs that cannot tell consumers which window a
+	 * collection is part of send it as is.
+	 * 
+	 * @param window
+	 *            number of the report window of the stream
+	 */
+	void send(String key, FeatureCollection collection, boolean keyframe, long window);
+
+	/**
+	 * Sends a tombstone for the key, so compaction drops the earlier records
+	 * with that key. Outputs without keys of their own ignore it.
+	 */
+	void delete(String key);
+
+	/**
+	 * Tells the output that the entity is gone without a removal marker, e.g.
+	 * because it was evicted, so state kept per entity can be dropped. Outputs
+	 * without such state ignore it.
+	 */
+	void forget(String guid);
+
+}
@@ -0,0 +1,26 @@
+package eu.driver.gateway.geojson;
+
+import eu.driver.model.geojson.sim.Feature;
+
+/**
+ * Collects the features of one report and sends them as FeatureCollections.
+ */
+public interface FeatureSender {
+
+	/**
+	 * @param tile
+	 *            web mercator tile of the feature location as assigned by the
+	 *            {@link TileIndex}, or -1 if not known
+	 */
+	void add(Feature feature, int tile);
+
+	/**
+	 * Sends the features that were not sent yet.
+	 *
+	 * @return the number of collections sent for this report
+	 */
+	int finish();
+
+	int getFeatureCount();
+
+}
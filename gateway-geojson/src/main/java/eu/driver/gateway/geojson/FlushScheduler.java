@@ -0,0 +1,146 @@
+package eu.driver.gateway.geojson;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the flushes of one output stream.
+ *
+ * A flush is triggered every interval, and as soon as the update window of
+ * the stream reaches the size trigger. Triggers coalesce: while a flush is
+ * scheduled further triggers are ignored, and triggers that arrive while the
+ * flush runs result in a single follow-up flush. Two flushes are always at
+ * least the minimal gap apart, so a burst of updates cannot flood the
+ * executor with flushes.
+ *
+ * At most one flush of a stream is in flight at any time, so the reports of a
+ * stream are built in order and a newer snapshot is never overtaken by an
+ * older one. When flushes run on another executor than the scheduler, such as
+ * the owner thread of an event loop, the flush counts as running until it has
+ * completed there.
+ */
+public class FlushScheduler {
+
+	private final ScheduledExecutorService executor;
+	private final Executor flushExecutor;
+	private final Runnable flush;
+	private final long interval;
+	private final int sizeTrigger;
+	private final long minGap;
+
+	private boolean scheduled = false;
+	private boolean running = false;
+	private boolean requestedWhileRunning = false;
+	private long lastFlush = 0;
+
+	/**
+	 * @param interval
+	 *            time trigger in milliseconds
+	 * @param sizeTrigger
+	 *            number of updates in the window that triggers a flush
+	 * @param minGap
+	 *            minimal time in milliseconds between the end of a flush and
+	 *            the start of the next one
+	 */
+	public FlushScheduler(ScheduledExecutorService executor, Runnable flush, long interval, int sizeTrigger,
+			long minGap) {
+		this(executor, null, flush, interval, sizeTrigger, minGap);
+	}
+
+	/**
+	 * @param flushExecutor
+	 *            executor the flushes run on, or null to run them on the
+	 *            scheduling executor
+	 */
+	public FlushScheduler(ScheduledExecutorService executor, Executor flushExecutor, Runnable flush, long interval,
+			int sizeTrigger, long minGap) {
+		this.executor = executor;
+		this.flushExecutor = flushExecutor;
+		this.flush = flush;
+		this.interval = interval;
+		this.sizeTrigger = sizeTrigger;
+		this.minGap = minGap;
+	}
+
+	/**
+	 * Starts the time trigger.
+	 */
+	public void start() {
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				request();
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Size trigger, to be called with the size of the update window after an
+	 * update was added.
+	 */
+	public void updated(int windowSize) {
+		if (windowSize >= sizeTrigger) {
+			request();
+		}
+	}
+
+	/**
+	 * Requests a flush, which is coalesced with a flush that is already
+	 * scheduled or running.
+	 */
+	public synchronized void request() {
+		if (running) {
+			requestedWhileRunning = true;
+			return;
+		}
+		if (scheduled) {
+			return;
+		}
+		scheduled = true;
+		long delay = Math.max(0, lastFlush + minGap - System.currentTimeMillis());
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (flushExecutor != null) {
+					try {
+						flushExecutor.execute(new Runnable() {
+							@Override
+							public void run() {
+								runFlush();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						// the flush never runs, so the next trigger has to schedule it again
+						synchronized (FlushScheduler.this) {
+							scheduled = false;
+						}
+					}
+				} else {
+					runFlush();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void runFlush() {
+		synchronized (this) {
+			scheduled = false;
+			running = true;
+		}
+		try {
+			flush.run();
+		} finally {
+			synchronized (this) {
+				running = false;
+				lastFlush = System.currentTimeMillis();
+				if (requestedWhileRunning) {
+					requestedWhileRunning = false;
+					request();
+				}
+			}
+		}
+	}
+
+}
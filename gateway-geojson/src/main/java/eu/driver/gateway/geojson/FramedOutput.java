@@ -0,0 +1,41 @@
+package eu.driver.gateway.geojson;
+
+import eu.driver.model.geojson.sim.FeatureCollection;
+
+/**
+ * Sends the collections of one report window as keyframe or delta, see
+ * {@link DeltaEncoder}.
+ */
+public class FramedOutput implements FeatureOutput {
+
+	private final FeatureOutput output;
+	private final boolean keyframe;
+	private final long window;
+
+	public FramedOutput(FeatureOutput output, boolean keyframe, long window) {
+		this.output = output;
+		this.keyframe = keyframe;
+		this.window = window;
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection) {
+		output.send(key, collection, keyframe, window);
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection, boolean keyframe, long window) {
+		output.send(key, collection, keyframe, window);
+	}
+
+	@Override
+	public void delete(String key) {
+		output.delete(key);
+	}
+
+	@Override
+	public void forget(String guid) {
+		output.forget(guid);
+	}
+
+}
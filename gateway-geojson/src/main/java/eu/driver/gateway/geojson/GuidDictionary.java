@@ -0,0 +1,218 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Arrays;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * Dictionary that interns guids to dense int ids.
+ *
+ * Avro hands out guids as {@link org.apache.avro.util.Utf8} for some fields and
+ * as String for others, which hash and compare differently. The dictionary
+ * hashes and compares guids by their character content, so both forms map to
+ * the same id, and state can be kept in int keyed maps. ASCII Utf8 guids are
+ * hashed and compared on their bytes, so only a guid that is not known yet is
+ * turned into a String. The original guid is only needed again when building
+ * output features.
+ *
+ * Ids of entities that are gone can be released. A released id is only reused
+ * after {@link #recycleReleased()} was called, so a report that was built from
+ * a snapshot taken before the release never sees the id of another entity.
+ */
+public class GuidDictionary {
+
+	private static final int NO_ID = -1;
+
+	/** slots hold id + 1, 0 marks a free slot */
+	private int[] table = new int[64];
+	private String[] guids = new String[32];
+	private int nextId = 0;
+	private int size = 0;
+
+	private int[] released = new int[16];
+	private int releasedCount = 0;
+	private int[] free = new int[16];
+	private int freeCount = 0;
+
+	/**
+	 * Interns the guid.
+	 *
+	 * @return the id of the guid, assigning a new one if the guid is not known
+	 *         yet
+	 */
+	public synchronized int intern(CharSequence guid) {
+		guid = comparable(guid);
+		int mask = table.length - 1;
+		int i = hash(guid) & mask;
+		for (; table[i] != 0; i = (i + 1) & mask) {
+			if (sameContent(guids[table[i] - 1], guid)) {
+				return table[i] - 1;
+			}
+		}
+		int id;
+		if (freeCount > 0) {
+			id = free[--freeCount];
+		} else {
+			id = nextId++;
+			if (id == guids.length) {
+				guids = Arrays.copyOf(guids, guids.length * 2);
+			}
+		}
+		guids[id] = guid.toString();
+		table[i] = id + 1;
+		if (++size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the id of the guid, or -1 if the guid is not known
+	 */
+	public synchronized int lookup(CharSequence guid) {
+		guid = comparable(guid);
+		int mask = table.length - 1;
+		for (int i = hash(guid) & mask; table[i] != 0; i = (i + 1) & mask) {
+			if (sameContent(guids[table[i] - 1], guid)) {
+				return table[i] - 1;
+			}
+		}
+		return NO_ID;
+	}
+
+	/**
+	 * @return the guid the id was assigned to
+	 */
+	public synchronized String getGuid(int id) {
+		return guids[id];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Forgets the guid of the id. Interning the same guid again assigns a new id.
+	 */
+	public synchronized void release(int id) {
+		String key = guids[id];
+		if (key == null) {
+			return;
+		}
+		int mask = table.length - 1;
+		int i = hash(key) & mask;
+		while (table[i] != id + 1) {
+			i = (i + 1) & mask;
+		}
+		table[i] = 0;
+		// shift following entries of the probe sequence back into the gap
+		int gap = i;
+		for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			int home = hash(guids[table[j] - 1]) & mask;
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				table[gap] = table[j];
+				table[j] = 0;
+				gap = j;
+			}
+		}
+		guids[id] = null;
+		size--;
+		if (releasedCount == released.length) {
+			released = Arrays.copyOf(released, released.length * 2);
+		}
+		released[releasedCount++] = id;
+	}
+
+	/**
+	 * Makes the ids released so far available for reuse. Should only be called
+	 * once no report is being built from state that may still hold them.
+	 */
+	public synchronized void recycleReleased() {
+		if (freeCount + releasedCount > free.length) {
+			free = Arrays.copyOf(free, Math.max(free.length * 2, freeCount + releasedCount));
+		}
+		System.arraycopy(released, 0, free, freeCount, releasedCount);
+		freeCount += releasedCount;
+		releasedCount = 0;
+	}
+
+	/**
+	 * @return the highest id handed out so far plus one
+	 */
+	public synchronized int getIdLimit() {
+		return nextId;
+	}
+
+	/**
+	 * @return the guid, or its String form if it is a Utf8 with multi-byte
+	 *         characters, whose bytes are not its characters
+	 */
+	private static CharSequence comparable(CharSequence guid) {
+		if (guid instanceof Utf8) {
+			Utf8 utf8 = (Utf8) guid;
+			byte[] bytes = utf8.getBytes();
+			for (int i = 0, n = utf8.getByteLength(); i < n; i++) {
+				if (bytes[i] < 0) {
+					return guid.toString();
+				}
+			}
+		}
+		return guid;
+	}
+
+	/**
+	 * @return the hash of the content, equal to the mixed String hash code
+	 */
+	private static int hash(CharSequence key) {
+		int h;
+		if (key instanceof String) {
+			h = key.hashCode();
+		} else if (key instanceof Utf8) {
+			Utf8 utf8 = (Utf8) key;
+			byte[] bytes = utf8.getBytes();
+			h = 0;
+			for (int i = 0, n = utf8.getByteLength(); i < n; i++) {
+				h = 31 * h + bytes[i];
+			}
+		} else {
+			h = 0;
+			for (int i = 0, n = key.length(); i < n; i++) {
+				h = 31 * h + key.charAt(i);
+			}
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean sameContent(String guid, CharSequence key) {
+		if (key instanceof Utf8) {
+			Utf8 utf8 = (Utf8) key;
+			byte[] bytes = utf8.getBytes();
+			int n = utf8.getByteLength();
+			if (guid.length() != n) {
+				return false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (guid.charAt(i) != bytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return guid.contentEquals(key);
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		int mask = capacity - 1;
+		for (int id = 0; id < nextId; id++) {
+			if (guids[id] != null) {
+				int i = hash(guids[id]) & mask;
+				while (table[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				table[i] = id + 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of when entities were last seen, so entities that went idle can
+ * be evicted and the number of tracked entities stays within a capacity.
+ *
+ * Entities are identified by the dense ids of the {@link GuidDictionary}, so
+ * the last seen times are kept in a plain array indexed by id.
+ */
+public class IdleTracker {
+
+	private static final long NOT_TRACKED = 0;
+
+	private long[] lastSeen = new long[64];
+	private int count = 0;
+
+	public synchronized void touch(int id, long now) {
+		if (id >= lastSeen.length) {
+			lastSeen = Arrays.copyOf(lastSeen, Math.max(lastSeen.length * 2, id + 1));
+		}
+		if (lastSeen[id] == NOT_TRACKED) {
+			count++;
+		}
+		lastSeen[id] = now;
+	}
+
+	public synchronized void remove(int id) {
+		if (id < lastSeen.length && lastSeen[id] != NOT_TRACKED) {
+			lastSeen[id] = NOT_TRACKED;
+			count--;
+		}
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the entities to evict: all entities not seen since the deadline, and
+	 * if more than the capacity would remain, the least recently seen ones above
+	 * the capacity.
+	 *
+	 * @param deadline
+	 *            entities last seen before this time are idle, 0 to only enforce
+	 *            the capacity
+	 * @return the ids of the entities to evict, which are still tracked until
+	 *         removed
+	 */
+	public synchronized int[] findEvictable(long deadline, int capacity) {
+		int idle = 0;
+		for (int id = 0; id < lastSeen.length; id++) {
+			if (lastSeen[id] != NOT_TRACKED && lastSeen[id] < deadline) {
+				idle++;
+			}
+		}
+		int excess = count - idle - capacity;
+		long threshold = Long.MIN_VALUE;
+		if (excess > 0) {
+			// last seen time of the most recent entity that still has to go
+			long[] times = new long[count - idle];
+			int i = 0;
+			for (int id = 0; id < lastSeen.length; id++) {
+				if (lastSeen[id] != NOT_TRACKED && lastSeen[id] >= deadline) {
+					times[i++] = lastSeen[id];
+				}
+			}
+			Arrays.sort(times);
+			threshold = times[excess - 1];
+		} else {
+			excess = 0;
+		}
+		int[] evictable = new int[idle + excess];
+		int n = 0;
+		for (int id = 0; id < lastSeen.length && n < evictable.length; id++) {
+			long seen = lastSeen[id];
+			if (seen == NOT_TRACKED) {
+				continue;
+			}
+			if (seen < deadline) {
+				evictable[n++] = id;
+			} else if (excess > 0 && seen <= threshold) {
+				evictable[n++] = id;
+				excess--;
+			}
+		}
+		return n == evictable.length ? evictable : Arrays.copyOf(evictable, n);
+	}
+
+}
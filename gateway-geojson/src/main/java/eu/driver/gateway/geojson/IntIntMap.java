@@ -0,0 +1,124 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive int keys to primitive int values, using open
+ * addressing with linear probing. Intended for id to id indexes, so negative
+ * values are reserved: -1 is returned for absent keys.
+ *
+ * The map is not thread-safe.
+ */
+public class IntIntMap {
+
+	public static final int NO_VALUE = -1;
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+
+	public IntIntMap() {
+		allocate(DEFAULT_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+	}
+
+	private int slot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int indexOf(int key) {
+		for (int i = slot(key); values[i] != NO_VALUE; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the value for the key, or -1 if the key is not present
+	 */
+	public int get(int key) {
+		int i = indexOf(key);
+		return i < 0 ? NO_VALUE : values[i];
+	}
+
+	/**
+	 * @return the previous value for the key, or -1 if there was none
+	 */
+	public int put(int key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("IntIntMap does not support negative values");
+		}
+		int i = slot(key);
+		for (; values[i] != NO_VALUE; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				int previous = values[i];
+				values[i] = value;
+				return previous;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * @return the removed value, or -1 if the key was not present
+	 */
+	public int remove(int key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return NO_VALUE;
+		}
+		int removed = values[i];
+		values[i] = NO_VALUE;
+		size--;
+		// shift following entries of the probe sequence back into the gap
+		int gap = i;
+		for (int j = (i + 1) & mask; values[j] != NO_VALUE; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				values[j] = NO_VALUE;
+				gap = j;
+			}
+		}
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldValues.length; j++) {
+			if (oldValues[j] != NO_VALUE) {
+				int i = slot(oldKeys[j]);
+				while (values[i] != NO_VALUE) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+}
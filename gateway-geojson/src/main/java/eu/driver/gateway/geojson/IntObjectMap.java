@@ -0,0 +1,201 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive int keys to objects, using open addressing with
+ * linear probing so neither keys nor entries are boxed. Null values are not
+ * supported, a null value marks a free slot.
+ *
+ * The map is not thread-safe.
+ *
+ * @param <V>
+ *            value type of the map
+ */
+public class IntObjectMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int mask;
+
+	public IntObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of entries the map should hold without resizing
+	 */
+	public IntObjectMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize * 2 - 1) * 2 - 1);
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(int key) {
+		// spread the bits, guids are interned to dense sequential ids
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int indexOf(int key) {
+		for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int i = indexOf(key);
+		return i < 0 ? null : (V) values[i];
+	}
+
+	public boolean containsKey(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @return the previous value for the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("IntObjectMap does not support null values");
+		}
+		int i = slot(key);
+		for (; values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				V previous = (V) values[i];
+				values[i] = value;
+				return previous;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the value only if the key has no value yet.
+	 *
+	 * @return the current value for the key, or null if the value was stored
+	 */
+	public V putIfAbsent(int key, V value) {
+		V current = get(key);
+		if (current == null) {
+			put(key, value);
+		}
+		return current;
+	}
+
+	/**
+	 * @return the removed value, or null if the key was not present
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		V removed = (V) values[i];
+		values[i] = null;
+		size--;
+		// shift following entries of the probe sequence back into the gap
+		int gap = i;
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				values[j] = null;
+				gap = j;
+			}
+		}
+		return removed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int j = 0; j < oldValues.length; j++) {
+			if (oldValues[j] != null) {
+				int i = slot(oldKeys[j]);
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * @return a cursor over all entries, which must not be used after the map was
+	 *         modified
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Iterates the entries of the map without boxing the keys.
+	 */
+	public class Cursor {
+
+		private int index = -1;
+
+		/**
+		 * Moves to the next entry.
+		 *
+		 * @return false if there are no more entries
+		 */
+		public boolean next() {
+			while (++index < values.length) {
+				if (values[index] != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int key() {
+			return keys[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V value() {
+			return (V) values[index];
+		}
+	}
+
+}
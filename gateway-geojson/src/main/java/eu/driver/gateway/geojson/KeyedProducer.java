@@ -0,0 +1,135 @@
+package eu.driver.gateway.geojson;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+import eu.driver.model.geojson.sim.FeatureCollection;
+
+/**
+ * Sends FeatureCollections with keys of their own, bypassing the adapter
+ * producers which always key messages by their sender.
+ *
+ * Keyed records are assigned to a partition by the hash of their key, so all
+ * records of a key stay in order in one partition and keys are spread over
+ * the partitions of the topic.
+ *
+ * Collections of keyframe and delta windows carry the headers "frame" (key
+ * or delta), "window" and "sequence". The sequence counts the records of every
+ * key, so consumers can detect a gap and wait for the next keyframe. Unkeyed
+ * collections of such windows are all sent to the first partition, so they
+ * stay in order.
+ *
+ * The Kafka producer is configured from the producer configuration of the
+ * adapter, with plain string keys, and can be shared by the outputs of
+ * several topics.
+ */
+public class KeyedProducer implements FeatureOutput {
+
+	private static final String PRODUCER_PROPERTIES = "config/producer.properties";
+
+	public static final String FRAME_HEADER = "frame";
+	public static final String WINDOW_HEADER = "window";
+	public static final String SEQUENCE_HEADER = "sequence";
+	private static final byte[] KEYFRAME = "key".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] DELTA = "delta".getBytes(StandardCharsets.UTF_8);
+
+	private static Logger logger = CISLogger.logger(KeyedProducer.class);
+
+	private final KafkaProducer<String, Object> producer;
+	private final String topic;
+	private int partitionCount = 0;
+	/** last sequence number per key, the empty key for unkeyed collections */
+	private final Map<String, Long> sequences = new HashMap<>();
+
+	public KeyedProducer(KafkaProducer<String, Object> producer, String topic) {
+		this.producer = producer;
+		this.topic = topic;
+	}
+
+	/**
+	 * @return a Kafka producer with string keys, configured from the adapter
+	 *         producer configuration
+	 */
+	public static KafkaProducer<String, Object> createKafkaProducer() {
+		Properties properties = new Properties();
+		try {
+			FileInputStream fis = new FileInputStream(PRODUCER_PROPERTIES);
+			properties.load(fis);
+			fis.close();
+		} catch (IOException e) {
+			logger.error("Could not read Producer Properties file " + PRODUCER_PROPERTIES);
+		}
+		properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+		return new KafkaProducer<>(properties);
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection) {
+		producer.send(new ProducerRecord<String, Object>(topic, getPartition(key), key, collection));
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection, boolean keyframe, long window) {
+		ProducerRecord<String, Object> record = new ProducerRecord<String, Object>(topic,
+				key != null ? getPartition(key) : 0, key, collection);
+		record.headers().add(FRAME_HEADER, keyframe ? KEYFRAME : DELTA);
+		record.headers().add(WINDOW_HEADER, Long.toString(window).getBytes(StandardCharsets.UTF_8));
+		// numbered and sent under the lock, so the sequence is also the send order
+		synchronized (sequences) {
+			String stream = key != null ? key : "";
+			Long last = sequences.get(stream);
+			long sequence = last != null ? last + 1 : 0;
+			sequences.put(stream, sequence);
+			record.headers().add(SEQUENCE_HEADER, Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+			producer.send(record);
+		}
+	}
+
+	@Override
+	public void delete(String key) {
+		synchronized (sequences) {
+			sequences.remove(key);
+		}
+		producer.send(new ProducerRecord<String, Object>(topic, getPartition(key), key, null));
+	}
+
+	@Override
+	public void forget(String guid) {
+		// an evicted entity restarts its sequence when it is sent again, as after
+		// a tombstone, and its entry does not stay behind
+		synchronized (sequences) {
+			sequences.remove(guid);
+		}
+	}
+
+	/**
+	 * @return the partition of the key, or null to let the producer choose one
+	 *         for records without key
+	 */
+	private Integer getPartition(String key) {
+		if (key == null) {
+			return null;
+		}
+		if (partitionCount == 0) {
+			// fetched once, the producer blocks until the metadata is known
+			partitionCount = producer.partitionsFor(topic).size();
+		}
+		return Partitioner.partition(key, partitionCount);
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+}
@@ -0,0 +1,96 @@
+package eu.driver.gateway.geojson;
+
+/**
+ * Suppresses position reports of entities that did not move.
+ *
+ * The filter remembers the last reported position and speed per entity id. A new
+ * report only passes when the entity moved more than the distance threshold,
+ * changed speed by more than the speed delta, or was silent for longer than
+ * the heartbeat interval.
+ */
+public class MovementFilter {
+
+	private static final double EARTH_RADIUS = 6371000.0;
+
+	private final double distanceThresholdSquared;
+	private final double speedDelta;
+	private final long heartbeatInterval;
+
+	private IntObjectMap<Report> lastReported = new IntObjectMap<>();
+
+	/**
+	 * @param distanceThreshold
+	 *            minimal movement in metres before an entity is reported again
+	 * @param speedDelta
+	 *            minimal change of speed in m/s before an entity is reported again
+	 * @param heartbeatInterval
+	 *            maximal time in milliseconds an entity may go unreported
+	 */
+	public MovementFilter(double distanceThreshold, double speedDelta, long heartbeatInterval) {
+		this.distanceThresholdSquared = distanceThreshold * distanceThreshold;
+		this.speedDelta = speedDelta;
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * Decides if the entity should be reported and if so, remembers the reported
+	 * values.
+	 *
+	 * @return true if the entity should be reported
+	 */
+	public synchronized boolean shouldReport(int id, double lon, double lat, double alt, double speed,
+			long now) {
+		Report last = lastReported.get(id);
+		if (last == null) {
+			lastReported.put(id, new Report(lon, lat, alt, speed, now));
+			return true;
+		}
+		if (now - last.time < heartbeatInterval && Math.abs(speed - last.speed) <= speedDelta
+				&& distanceSquared(last, lon, lat, alt) <= distanceThresholdSquared) {
+			return false;
+		}
+		last.set(lon, lat, alt, speed, now);
+		return true;
+	}
+
+	/**
+	 * Forgets the last report of the entity, e.g. because it was deleted.
+	 */
+	public synchronized void forget(int id) {
+		lastReported.remove(id);
+	}
+
+	/**
+	 * Squared distance in metres, using an equirectangular approximation which is
+	 * accurate enough for the small distances the thresholds are about.
+	 */
+	private static double distanceSquared(Report last, double lon, double lat, double alt) {
+		double meanLat = Math.toRadians((lat + last.lat) / 2);
+		double dx = Math.toRadians(lon - last.lon) * Math.cos(meanLat) * EARTH_RADIUS;
+		double dy = Math.toRadians(lat - last.lat) * EARTH_RADIUS;
+		double dz = alt - last.alt;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static class Report {
+
+		private double lon;
+		private double lat;
+		private double alt;
+		private double speed;
+		private long time;
+
+		public Report(double lon, double lat, double alt, double speed, long time) {
+			set(lon, lat, alt, speed, time);
+		}
+
+		public void set(double lon, double lat, double alt, double speed, long time) {
+			this.lon = lon;
+			this.lat = lat;
+			this.alt = alt;
+			this.speed = speed;
+			this.time = time;
+		}
+	}
+
+}
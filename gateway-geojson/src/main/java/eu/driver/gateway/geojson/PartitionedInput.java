@@ -0,0 +1,324 @@
+package eu.driver.gateway.geojson;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+import eu.driver.api.IAdaptorCallback;
+import eu.driver.model.sim.ObjectDeleted;
+import eu.driver.model.sim.entity.Item;
+import eu.driver.model.sim.entity.Station;
+
+/**
+ * Consumes the input topics with consumers of its own, so several gateway
+ * instances can share the load in one consumer group.
+ *
+ * Partitioned topics, the items and stations, are split over the instances by
+ * the consumer group. The entities are owned by the instance of the partition
+ * their records are consumed from, so these topics must be keyed by entity
+ * guid: the test-bed adapter keys messages by sender, which puts every entity
+ * of a sender on one partition and lets an entity sent by several senders be
+ * owned by several instances. A guid that shows up on a second partition is
+ * logged as an error and moves to that partition. A partition that is newly assigned to this instance is
+ * replayed from the beginning to rebuild the state of its entities, which
+ * needs those topics to be compacted or short lived, and reporting is paused
+ * until the replay reached the end offsets at the time of the assignment. The
+ * entities of a partition that moved to another instance are evicted without
+ * removal markers.
+ *
+ * Broadcast topics, the units, unit connections and deletions, are consumed
+ * completely by every instance outside the consumer group, so every instance
+ * knows the complete unit hierarchies even when their main items live on
+ * partitions of other instances. A unit or group is only reported by the
+ * instance that owns the main item it takes its position from.
+ */
+public class PartitionedInput {
+
+	private static final String CONSUMER_PROPERTIES = "config/consumer.properties";
+	private static final long POLL_TIMEOUT = 100;
+
+	private static Logger logger = CISLogger.logger(PartitionedInput.class);
+
+	private final Map<String, List<IAdaptorCallback>> callbacks = new HashMap<>();
+	private final Set<String> partitionedTopics = new HashSet<>();
+	private final Set<String> broadcastTopics = new HashSet<>();
+	private final List<PartitionedState> states = new ArrayList<>();
+	private PartitionedConsumer partitionedConsumer;
+
+	/** number of partitions that are being replayed, reporting is paused while above 0 */
+	private final AtomicInteger rebuilding = new AtomicInteger();
+
+	/**
+	 * Registers the callback for the topic, and its state if it is
+	 * {@link PartitionedState}.
+	 *
+	 * @param partitioned
+	 *            true to split the topic over the instances, false to consume it
+	 *            completely
+	 */
+	public synchronized void addCallback(IAdaptorCallback callback, String topic, boolean partitioned) {
+		List<IAdaptorCallback> topicCallbacks = callbacks.get(topic);
+		if (topicCallbacks == null) {
+			topicCallbacks = new ArrayList<>();
+			callbacks.put(topic, topicCallbacks);
+		}
+		topicCallbacks.add(callback);
+		if (partitioned) {
+			partitionedTopics.add(topic);
+		} else {
+			broadcastTopics.add(topic);
+		}
+		if (callback instanceof PartitionedState && !states.contains(callback)) {
+			states.add((PartitionedState) callback);
+		}
+	}
+
+	/**
+	 * Starts consuming, to be called after all callbacks were added.
+	 */
+	public synchronized void start() {
+		if (!partitionedTopics.isEmpty()) {
+			partitionedConsumer = new PartitionedConsumer();
+			new Thread(partitionedConsumer, "partitioned-input").start();
+		}
+		if (!broadcastTopics.isEmpty()) {
+			new Thread(new BroadcastConsumer(), "broadcast-input").start();
+		}
+		logger.info("Consuming " + partitionedTopics + " partitioned in the consumer group, and " + broadcastTopics
+				+ " completely");
+	}
+
+	private static Properties loadConsumerProperties() {
+		Properties properties = new Properties();
+		try {
+			FileInputStream fis = new FileInputStream(CONSUMER_PROPERTIES);
+			properties.load(fis);
+			fis.close();
+		} catch (IOException e) {
+			logger.error("Could not read Consumer Properties file " + CONSUMER_PROPERTIES);
+		}
+		return properties;
+	}
+
+	private void deliver(ConsumerRecord<Object, Object> record) {
+		if (!(record.value() instanceof IndexedRecord)) {
+			return; // tombstone of a compacted topic
+		}
+		if (record.value() instanceof ObjectDeleted && partitionedConsumer != null) {
+			partitionedConsumer.forget(((ObjectDeleted) record.value()).getGuid());
+		}
+		IndexedRecord key = record.key() instanceof IndexedRecord ? (IndexedRecord) record.key() : null;
+		for (IAdaptorCallback callback : callbacks.get(record.topic())) {
+			try {
+				callback.messageReceived(key, (IndexedRecord) record.value());
+			} catch (RuntimeException e) {
+				// a single bad record must not stop the consumer
+				logger.error("Failed to process a record of " + record.topic(), e);
+			}
+		}
+	}
+
+	/**
+	 * Replays the partitions from the beginning, pausing reporting until
+	 * {@link #checkRebuilt(KafkaConsumer, Map)} finds them caught up.
+	 */
+	private void startRebuild(KafkaConsumer<Object, Object> consumer, Collection<TopicPartition> partitions,
+			Map<TopicPartition, Long> targets) {
+		if (partitions.isEmpty()) {
+			return;
+		}
+		consumer.seekToBeginning(partitions);
+		targets.putAll(consumer.endOffsets(partitions));
+		if (rebuilding.getAndAdd(partitions.size()) == 0) {
+			setReporting(false);
+		}
+		logger.info("Rebuilding state from " + partitions.size() + " partitions, reporting paused");
+	}
+
+	private void checkRebuilt(KafkaConsumer<Object, Object> consumer, Map<TopicPartition, Long> targets) {
+		Iterator<Map.Entry<TopicPartition, Long>> it = targets.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<TopicPartition, Long> target = it.next();
+			if (consumer.position(target.getKey()) >= target.getValue()) {
+				it.remove();
+				stopRebuild(1);
+			}
+		}
+	}
+
+	private void stopRebuild(int partitions) {
+		if (partitions > 0 && rebuilding.addAndGet(-partitions) == 0) {
+			setReporting(true);
+			logger.info("State rebuilt, reporting resumed");
+		}
+	}
+
+	private void setReporting(boolean reporting) {
+		for (PartitionedState state : states) {
+			state.setReporting(reporting);
+		}
+	}
+
+	private class PartitionedConsumer implements Runnable, ConsumerRebalanceListener {
+
+		private KafkaConsumer<Object, Object> consumer;
+		private Set<TopicPartition> owned = new HashSet<>();
+		private Map<TopicPartition, Long> targets = new HashMap<>();
+		/**
+		 * guids of the entities last received on every owned partition, also
+		 * updated by the broadcast consumer for deletions
+		 */
+		private Map<TopicPartition, Set<String>> partitionGuids = new HashMap<>();
+		private boolean misKeyed = false;
+
+		@Override
+		public void run() {
+			consumer = new KafkaConsumer<>(loadConsumerProperties());
+			consumer.subscribe(partitionedTopics, this);
+			while (!Thread.currentThread().isInterrupted()) {
+				for (ConsumerRecord<Object, Object> record : consumer.poll(POLL_TIMEOUT)) {
+					track(record);
+					deliver(record);
+				}
+				checkRebuilt(consumer, targets);
+			}
+			consumer.close();
+		}
+
+		private void track(ConsumerRecord<Object, Object> record) {
+			CharSequence guid = null;
+			if (record.value() instanceof Item) {
+				guid = ((Item) record.value()).getGuid();
+			} else if (record.value() instanceof Station) {
+				guid = ((Station) record.value()).getGuid();
+			}
+			if (guid == null) {
+				return;
+			}
+			TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+			String key = guid.toString();
+			synchronized (partitionGuids) {
+				Set<String> guids = partitionGuids.get(partition);
+				if (guids == null) {
+					guids = new HashSet<>();
+					partitionGuids.put(partition, guids);
+				}
+				if (!guids.add(key)) {
+					return;
+				}
+				for (Map.Entry<TopicPartition, Set<String>> other : partitionGuids.entrySet()) {
+					if (other.getKey().equals(partition) || !other.getKey().topic().equals(partition.topic())
+							|| !other.getValue().remove(key)) {
+						continue;
+					}
+					if (!misKeyed) {
+						misKeyed = true;
+						logger.error("Entity with guid: " + key + " was received on partitions " + other.getKey()
+								+ " and " + partition + ", the partitioned topics must be keyed by entity guid");
+					}
+				}
+			}
+		}
+
+		/**
+		 * Stops tracking the entity, so a deleted entity is not evicted when its
+		 * partition moves to another instance.
+		 */
+		void forget(CharSequence guid) {
+			String key = guid.toString();
+			synchronized (partitionGuids) {
+				for (Set<String> guids : partitionGuids.values()) {
+					guids.remove(key);
+				}
+			}
+		}
+
+		@Override
+		public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+			// decided on assignment, partitions that stay with this instance keep
+			// their state
+		}
+
+		@Override
+		public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+			int lost = 0;
+			for (TopicPartition partition : owned) {
+				if (partitions.contains(partition)) {
+					continue;
+				}
+				Set<String> guids;
+				synchronized (partitionGuids) {
+					guids = partitionGuids.remove(partition);
+				}
+				if (guids != null) {
+					for (String guid : guids) {
+						for (PartitionedState state : states) {
+							state.evict(guid);
+						}
+					}
+				}
+				if (targets.remove(partition) != null) {
+					stopRebuild(1);
+				}
+				lost++;
+			}
+			List<TopicPartition> added = new ArrayList<>();
+			for (TopicPartition partition : partitions) {
+				if (!owned.contains(partition)) {
+					added.add(partition);
+				}
+			}
+			owned = new HashSet<>(partitions);
+			logger.info("Assigned " + partitions.size() + " partitions, " + added.size() + " new and " + lost
+					+ " moved to other instances");
+			startRebuild(consumer, added, targets);
+		}
+	}
+
+	private class BroadcastConsumer implements Runnable {
+		@Override
+		public void run() {
+			Properties properties = loadConsumerProperties();
+			// assigned manually, so it neither joins the group nor commits offsets
+			properties.remove(ConsumerConfig.GROUP_ID_CONFIG);
+			properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+			KafkaConsumer<Object, Object> consumer = new KafkaConsumer<>(properties);
+			List<TopicPartition> partitions = new ArrayList<>();
+			for (String topic : broadcastTopics) {
+				for (PartitionInfo info : consumer.partitionsFor(topic)) {
+					partitions.add(new TopicPartition(topic, info.partition()));
+				}
+			}
+			consumer.assign(partitions);
+			Map<TopicPartition, Long> targets = new HashMap<>();
+			startRebuild(consumer, partitions, targets);
+			while (!Thread.currentThread().isInterrupted()) {
+				for (ConsumerRecord<Object, Object> record : consumer.poll(POLL_TIMEOUT)) {
+					deliver(record);
+				}
+				checkRebuilt(consumer, targets);
+			}
+			consumer.close();
+		}
+	}
+
+}
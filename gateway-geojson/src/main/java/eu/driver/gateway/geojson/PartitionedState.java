@@ -0,0 +1,21 @@
+package eu.driver.gateway.geojson;
+
+/**
+ * Converter state that is split over several gateway instances by input
+ * partition, see {@link PartitionedInput}.
+ */
+public interface PartitionedState {
+
+	/**
+	 * Drops the entity without reporting its removal, because it is converted by
+	 * another instance or shard from now on.
+	 */
+	void evict(CharSequence guid);
+
+	/**
+	 * Pauses reporting while the state is rebuilt from the input, or resumes it.
+	 * Updates received meanwhile are reported when reporting resumes.
+	 */
+	void setReporting(boolean reporting);
+
+}
@@ -0,0 +1,23 @@
+package eu.driver.gateway.geojson;
+
+/**
+ * Assigns keys to a fixed number of partitions by the hash of their String
+ * content, so a guid maps to the same partition whether Avro hands it out as
+ * {@link org.apache.avro.util.Utf8} or as String.
+ */
+public final class Partitioner {
+
+	private Partitioner() {
+	}
+
+	/**
+	 * @return the partition of the key, between 0 and the partition count
+	 *         (exclusive)
+	 */
+	public static int partition(CharSequence key, int partitionCount) {
+		int h = key.toString().hashCode();
+		// mix the high bits into the low ones before taking the remainder
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % partitionCount;
+	}
+
+}
@@ -0,0 +1,253 @@
+package eu.driver.gateway.geojson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit connections that cannot be added to the graph yet because one of their
+ * units is not known.
+ *
+ * Pending connections are indexed by the id of the missing unit, so they can be
+ * resolved as soon as that unit arrives instead of being retried periodically.
+ * Connections that keep waiting longer than the time to live are expired.
+ * The number of pending connections referring to each unit is counted, so the
+ * id of a unit that never arrived can be released once nothing waits for it.
+ *
+ * The class is not thread-safe.
+ */
+public class PendingConnections {
+
+	private IntObjectMap<List<Pending>> byMissingUnit = new IntObjectMap<>();
+	private IntObjectMap<Pending> byConnection = new IntObjectMap<>();
+	/** number of pending connections from or to each unit */
+	private IntIntMap unitReferences = new IntIntMap();
+
+	/** entries in the missing unit index that were cancelled or expired */
+	private int staleCount = 0;
+	private long resolvedCount = 0;
+	private long expiredCount = 0;
+
+	/**
+	 * Parks the connection until the missing unit arrives. A connection that was
+	 * already pending under the same id is replaced.
+	 *
+	 * @param received
+	 *            time the connection was first received, which is kept when a
+	 *            connection is parked again for its other unit
+	 */
+	public void add(int missingUnitId, int connectionId, int mainUnitId, int subUnitId, long received) {
+		cancel(connectionId);
+		Pending pending = new Pending(connectionId, mainUnitId, subUnitId, received);
+		byConnection.put(connectionId, pending);
+		reference(mainUnitId, 1);
+		reference(subUnitId, 1);
+		List<Pending> waiting = byMissingUnit.get(missingUnitId);
+		if (waiting == null) {
+			waiting = new ArrayList<>(2);
+			byMissingUnit.put(missingUnitId, waiting);
+		}
+		waiting.add(pending);
+	}
+
+	/**
+	 * Takes all connections that were waiting for the unit.
+	 *
+	 * @return the connections, which may still be waiting for their other unit
+	 */
+	public List<Pending> resolve(int unitId) {
+		List<Pending> waiting = byMissingUnit.remove(unitId);
+		if (waiting == null) {
+			return Collections.emptyList();
+		}
+		List<Pending> resolved = new ArrayList<>(waiting.size());
+		for (Pending pending : waiting) {
+			if (byConnection.get(pending.connectionId) == pending) {
+				drop(pending);
+				resolved.add(pending);
+			}
+		}
+		resolvedCount += resolved.size();
+		return resolved;
+	}
+
+	/**
+	 * Drops the connection if it is pending, e.g. because it was deleted before
+	 * its units arrived.
+	 *
+	 * @return true if the connection was pending
+	 */
+	public boolean cancel(int connectionId) {
+		Pending pending = byConnection.get(connectionId);
+		if (pending == null) {
+			return false;
+		}
+		// the stale entry in the missing unit index is skipped when resolving
+		drop(pending);
+		staleCount++;
+		return true;
+	}
+
+	/**
+	 * @return the connection if it is pending, otherwise null
+	 */
+	public Pending get(int connectionId) {
+		return byConnection.get(connectionId);
+	}
+
+	/**
+	 * @return true if a pending connection is from or to the unit
+	 */
+	public boolean isReferenced(int unitId) {
+		return unitReferences.get(unitId) != IntIntMap.NO_VALUE;
+	}
+
+	/**
+	 * Drops all connections from or to the unit, e.g. because the unit was
+	 * deleted.
+	 *
+	 * @return the dropped connections
+	 */
+	public List<Pending> cancelForUnit(int unitId) {
+		List<Pending> cancelled = new ArrayList<>();
+		IntObjectMap<Pending>.Cursor cursor = byConnection.cursor();
+		while (cursor.next()) {
+			Pending pending = cursor.value();
+			if (pending.mainUnitId == unitId || pending.subUnitId == unitId) {
+				cancelled.add(pending);
+			}
+		}
+		for (Pending pending : cancelled) {
+			cancel(pending.connectionId);
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Drops all connections that were received before the deadline, and cleans
+	 * up the missing unit index.
+	 *
+	 * @return the expired connections
+	 */
+	public List<Pending> expire(long deadline) {
+		IntObjectMap<Pending>.Cursor cursor = byConnection.cursor();
+		List<Pending> expiredConnections = new ArrayList<>();
+		while (cursor.next()) {
+			if (cursor.value().received < deadline) {
+				expiredConnections.add(cursor.value());
+			}
+		}
+		for (Pending pending : expiredConnections) {
+			drop(pending);
+		}
+		staleCount += expiredConnections.size();
+		if (staleCount > 0) {
+			compact();
+		}
+		expiredCount += expiredConnections.size();
+		return expiredConnections;
+	}
+
+	private void drop(Pending pending) {
+		byConnection.remove(pending.connectionId);
+		reference(pending.mainUnitId, -1);
+		reference(pending.subUnitId, -1);
+	}
+
+	private void reference(int unitId, int delta) {
+		int count = unitReferences.get(unitId);
+		count = (count == IntIntMap.NO_VALUE ? 0 : count) + delta;
+		if (count > 0) {
+			unitReferences.put(unitId, count);
+		} else {
+			unitReferences.remove(unitId);
+		}
+	}
+
+	/**
+	 * Removes cancelled and expired entries from the missing unit index.
+	 */
+	private void compact() {
+		IntObjectMap<List<Pending>> compacted = new IntObjectMap<>(byMissingUnit.size());
+		IntObjectMap<List<Pending>>.Cursor cursor = byMissingUnit.cursor();
+		while (cursor.next()) {
+			List<Pending> waiting = new ArrayList<>(cursor.value().size());
+			for (Pending pending : cursor.value()) {
+				if (byConnection.get(pending.connectionId) == pending) {
+					waiting.add(pending);
+				}
+			}
+			if (!waiting.isEmpty()) {
+				compacted.put(cursor.key(), waiting);
+			}
+		}
+		byMissingUnit = compacted;
+		staleCount = 0;
+	}
+
+	/**
+	 * @return the number of connections currently waiting for a unit
+	 */
+	public int size() {
+		return byConnection.size();
+	}
+
+	/**
+	 * @return all connections currently waiting for a unit
+	 */
+	public List<Pending> getPending() {
+		List<Pending> pending = new ArrayList<>(byConnection.size());
+		IntObjectMap<Pending>.Cursor cursor = byConnection.cursor();
+		while (cursor.next()) {
+			pending.add(cursor.value());
+		}
+		return pending;
+	}
+
+	/**
+	 * @return the number of units other connections are waiting for
+	 */
+	public int getMissingUnitCount() {
+		return byMissingUnit.size();
+	}
+
+	public long getResolvedCount() {
+		return resolvedCount;
+	}
+
+	public long getExpiredCount() {
+		return expiredCount;
+	}
+
+	public static class Pending {
+
+		private final int connectionId;
+		private final int mainUnitId;
+		private final int subUnitId;
+		private final long received;
+
+		public Pending(int connectionId, int mainUnitId, int subUnitId, long received) {
+			this.connectionId = connectionId;
+			this.mainUnitId = mainUnitId;
+			this.subUnitId = subUnitId;
+			this.received = received;
+		}
+
+		public int getConnectionId() {
+			return connectionId;
+		}
+
+		public int getMainUnitId() {
+			return mainUnitId;
+		}
+
+		public int getSubUnitId() {
+			return subUnitId;
+		}
+
+		public long getReceived() {
+			return received;
+		}
+	}
+
+}
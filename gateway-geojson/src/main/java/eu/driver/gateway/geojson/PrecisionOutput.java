@@ -0,0 +1,251 @@
+package eu.driver.gateway.geojson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.FeatureCollection;
+import eu.driver.model.geojson.sim.Point;
+import eu.driver.model.geojson.sim.PointType;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+
+/**
+ * Reduces the precision of the point geometries of the collections sent to an
+ * output topic before passing them on.
+ *
+ * Coordinates are rounded to a number of decimals, 7 decimals of a degree are
+ * about a centimetre. With snapping, a coordinate that moved less than one
+ * step since it was last sent keeps the sent value, so an entity that stands
+ * on a step boundary does not flicker between two values, and repeats the
+ * same bytes for the compression of the producer. The altitude can be left out
+ * of points on the ground, as GeoJSON consumers take a missing altitude as 0.
+ *
+ * The payload report measures the Avro encoded size of the collections before
+ * and after the reduction, plain and gzip compressed. Each collection is
+ * compressed on its own, so the compressed sizes are an upper bound of what the
+ * producer achieves on its batches.
+ *
+ * The geometries of the features are replaced in place. The coordinates last
+ * sent are kept per entity until its removal marker or tombstone passes, or
+ * the converter tells the output that it forgot the entity.
+ */
+public class PrecisionOutput implements FeatureOutput {
+
+	private static Logger logger = CISLogger.logger(PrecisionOutput.class);
+
+	private final FeatureOutput output;
+	private final String topic;
+	/** 10 to the power of the decimals, 0 to keep full precision */
+	private final double scale;
+	private final boolean snap;
+	private final boolean omitGroundAltitude;
+	private final long reportInterval;
+
+	/** coordinates last sent per entity guid, to snap to */
+	private final Map<String, List<Double>> sent = new HashMap<>();
+
+	private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(64 * 1024);
+	private final CountingStream compressed = new CountingStream();
+	private final SpecificDatumWriter<FeatureCollection> writer = new SpecificDatumWriter<>(FeatureCollection.class);
+	private BinaryEncoder encoder = null;
+	private long reportStart = System.currentTimeMillis();
+	private long reportFeatures = 0;
+	private long bytesBefore = 0;
+	private long bytesAfter = 0;
+	private long gzipBefore = 0;
+	private long gzipAfter = 0;
+
+	/**
+	 * @param topic
+	 *            name of the output topic, for the payload report
+	 * @param decimals
+	 *            decimals of a degree to round coordinates to, or -1 to keep full
+	 *            precision
+	 * @param snap
+	 *            true to keep the sent value of a coordinate that moved less than
+	 *            one step
+	 * @param omitGroundAltitude
+	 *            true to leave out an altitude of 0
+	 * @param reportInterval
+	 *            interval of the payload report in milliseconds, or 0 to not
+	 *            measure the payload
+	 */
+	public PrecisionOutput(FeatureOutput output, String topic, int decimals, boolean snap, boolean omitGroundAltitude,
+			long reportInterval) {
+		this.output = output;
+		this.topic = topic;
+		this.scale = decimals >= 0 ? Math.pow(10, decimals) : 0;
+		this.snap = snap && decimals >= 0;
+		this.omitGroundAltitude = omitGroundAltitude;
+		this.reportInterval = reportInterval;
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection) {
+		reduce(collection);
+		output.send(key, collection);
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection, boolean keyframe, long window) {
+		reduce(collection);
+		output.send(key, collection, keyframe, window);
+	}
+
+	@Override
+	public void delete(String key) {
+		// keyed by guid, so the entity is gone
+		forgetSent(key);
+		output.delete(key);
+	}
+
+	@Override
+	public void forget(String guid) {
+		forgetSent(guid);
+		output.forget(guid);
+	}
+
+	private synchronized void forgetSent(String guid) {
+		if (guid != null) {
+			sent.remove(guid);
+		}
+	}
+
+	private synchronized void reduce(FeatureCollection collection) {
+		if (reportInterval > 0) {
+			measure(collection, true);
+		}
+		for (Feature feature : collection.getFeatures()) {
+			if (!(feature.getGeometry() instanceof Point)) {
+				continue;
+			}
+			List<Double> lonLatAlt = ((Point) feature.getGeometry()).getCoordinates();
+			String guid = null;
+			boolean removed = false;
+			if (snap && feature.getProperties() instanceof SimulatedEntityProperties) {
+				SimulatedEntityProperties properties = (SimulatedEntityProperties) feature.getProperties();
+				guid = properties.getGuid().toString();
+				removed = properties.getLabel() != null && RemovalMarker.LABEL.equals(properties.getLabel().toString());
+			}
+			List<Double> previous = guid != null ? sent.get(guid) : null;
+			double lon = reduce(lonLatAlt.get(0), previous != null ? previous.get(0) : null);
+			double lat = reduce(lonLatAlt.get(1), previous != null ? previous.get(1) : null);
+			double alt = lonLatAlt.size() > 2 ? lonLatAlt.get(2) : 0.0;
+			if (alt != 0.0) {
+				alt = reduce(alt, previous != null && previous.size() > 2 ? previous.get(2) : null);
+			}
+
+			List<Double> reduced;
+			if (omitGroundAltitude && alt == 0.0) {
+				reduced = Arrays.asList(lon, lat);
+			} else {
+				reduced = Arrays.asList(lon, lat, alt);
+			}
+			if (reduced.equals(previous)) {
+				// shares the values with the last report
+				reduced = previous;
+			}
+			feature.setGeometry(new Point(PointType.Point, reduced));
+			if (removed) {
+				sent.remove(guid);
+			} else if (guid != null) {
+				sent.put(guid, reduced);
+			}
+		}
+		if (reportInterval > 0) {
+			measure(collection, false);
+			report();
+		}
+	}
+
+	/**
+	 * @param previous
+	 *            value last sent, or null
+	 * @return the value rounded to the decimals, or the previous value if it
+	 *         moved less than one step from it
+	 */
+	private double reduce(double value, Double previous) {
+		if (scale == 0) {
+			return value;
+		}
+		if (previous != null && Math.abs(value - previous) * scale < 1) {
+			return previous;
+		}
+		return Math.round(value * scale) / scale;
+	}
+
+	private void measure(FeatureCollection collection, boolean before) {
+		try {
+			encoded.reset();
+			encoder = EncoderFactory.get().binaryEncoder(encoded, encoder);
+			writer.write(collection, encoder);
+			encoder.flush();
+			compressed.count = 0;
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			encoded.writeTo(gzip);
+			gzip.close();
+		} catch (IOException e) {
+			logger.error("Failed to measure the payload of " + topic, e);
+			return;
+		}
+		if (before) {
+			reportFeatures += collection.getFeatures().size();
+			bytesBefore += encoded.size();
+			gzipBefore += compressed.count;
+		} else {
+			bytesAfter += encoded.size();
+			gzipAfter += compressed.count;
+		}
+	}
+
+	private void report() {
+		long now = System.currentTimeMillis();
+		if (now - reportStart < reportInterval || reportFeatures == 0) {
+			return;
+		}
+		logger.info("Payload of " + topic + ": " + reportFeatures + " features, " + perFeature(bytesBefore) + " -> "
+				+ perFeature(bytesAfter) + " bytes per feature, gzip " + perFeature(gzipBefore) + " -> "
+				+ perFeature(gzipAfter) + " bytes per feature");
+		reportStart = now;
+		reportFeatures = 0;
+		bytesBefore = 0;
+		bytesAfter = 0;
+		gzipBefore = 0;
+		gzipAfter = 0;
+	}
+
+	private String perFeature(long bytes) {
+		return String.format("%.1f", (double) bytes / reportFeatures);
+	}
+
+	/**
+	 * Counts the compressed bytes without keeping them.
+	 */
+	private static class CountingStream extends OutputStream {
+
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+}
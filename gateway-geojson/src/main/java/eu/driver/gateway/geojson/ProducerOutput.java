@@ -0,0 +1,38 @@
+package eu.driver.gateway.geojson;
+
+import eu.driver.adapter.core.producer.GenericProducer;
+import eu.driver.model.geojson.sim.FeatureCollection;
+
+/**
+ * Sends FeatureCollections through a producer of the test-bed adapter, which
+ * sets its own message keys.
+ */
+public class ProducerOutput implements FeatureOutput {
+
+	private final GenericProducer producer;
+
+	public ProducerOutput(GenericProducer producer) {
+		this.producer = producer;
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection) {
+		producer.send(collection);
+	}
+
+	@Override
+	public void send(String key, FeatureCollection collection, boolean keyframe, long window) {
+		// the adapter producer has no headers to mark the frame with
+		producer.send(collection);
+	}
+
+	@Override
+	public void delete(String key) {
+		// the adapter keys messages by sender, so there is nothing to delete
+	}
+
+	@Override
+	public void forget(String guid) {
+	}
+
+}
@@ -0,0 +1,52 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Arrays;
+import java.util.List;
+
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.Point;
+import eu.driver.model.geojson.sim.PointType;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+import eu.driver.model.geojson.sim.TypeEnum;
+import eu.driver.model.sim.geo.Location;
+
+/**
+ * Builds the feature that tells consumers an entity was deleted. It carries the
+ * guid, name and type of the entity at its last known location, with the
+ * {@link #LABEL} label.
+ */
+public class RemovalMarker {
+
+	/**
+	 * Label of features that mark the removal of an entity
+	 */
+	public static final String LABEL = "REMOVED";
+
+	private RemovalMarker() {
+	}
+
+	/**
+	 * @param location
+	 *            last known location of the entity, or null if it is not known
+	 */
+	public static Feature newFeature(CharSequence guid, CharSequence name, TypeEnum type, Location location) {
+		List<Double> lonLatAlt;
+		if (location != null) {
+			lonLatAlt = Arrays.asList(location.getLongitude(), location.getLatitude(), location.getAltitude());
+		} else {
+			lonLatAlt = Arrays.asList(0.0, 0.0, 0.0);
+		}
+
+		SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
+		entityProperties.setGuid(guid);
+		entityProperties.setName(name);
+		entityProperties.setType(type);
+		entityProperties.setLabel(LABEL);
+
+		Feature.Builder featureBuilder = Feature.newBuilder();
+		featureBuilder.setGeometry(new Point(PointType.Point, lonLatAlt));
+		featureBuilder.setProperties(entityProperties.build());
+		return featureBuilder.build();
+	}
+
+}
@@ -0,0 +1,100 @@
+package eu.driver.gateway.geojson;
+
+import java.util.Set;
+
+import eu.driver.model.geojson.sim.TypeEnum;
+
+/**
+ * Decides per entity whether it is due for a report, based on its speed and
+ * type.
+ *
+ * Entities fall in one of three tiers:
+ * <ul>
+ * <li>fast: moving at least the fast speed, or of one of the fast types, are
+ * reported every tick</li>
+ * <li>slow: moving slower, are reported every k-th tick</li>
+ * <li>static: moving less than the static speed, are only reported when their
+ * position changed or the heartbeat interval elapsed</li>
+ * </ul>
+ * Ticks are measured in time rather than counted, so flushes triggered by the
+ * window size do not speed up the slow tier.
+ */
+public class ReportingRates {
+
+	private final double fastSpeed;
+	private final Set<TypeEnum> fastTypes;
+	private final double staticSpeed;
+	private final long slowInterval;
+	private final long heartbeatInterval;
+
+	private IntObjectMap<Report> lastReported = new IntObjectMap<>();
+
+	/**
+	 * @param tickInterval
+	 *            time in milliseconds between two regular reports
+	 * @param slowTicks
+	 *            number of ticks between two reports of a slow entity
+	 */
+	public ReportingRates(double fastSpeed, Set<TypeEnum> fastTypes, double staticSpeed, long tickInterval,
+			int slowTicks, long heartbeatInterval) {
+		this.fastSpeed = fastSpeed;
+		this.fastTypes = fastTypes;
+		this.staticSpeed = staticSpeed;
+		// half a tick of slack, so a report is not missed by scheduling jitter
+		this.slowInterval = slowTicks * tickInterval - tickInterval / 2;
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * Decides if the entity is due and if so, remembers the report.
+	 *
+	 * @return true if the entity should be reported now
+	 */
+	public synchronized boolean isDue(int id, double speed, TypeEnum type, double lon, double lat, double alt,
+			long now) {
+		Report last = lastReported.get(id);
+		if (last == null) {
+			lastReported.put(id, new Report(lon, lat, alt, now));
+			return true;
+		}
+		boolean due;
+		if (speed >= fastSpeed || fastTypes.contains(type)) {
+			due = true;
+		} else if (speed >= staticSpeed) {
+			due = now - last.time >= slowInterval;
+		} else {
+			due = now - last.time >= heartbeatInterval || lon != last.lon || lat != last.lat || alt != last.alt;
+		}
+		if (due) {
+			last.set(lon, lat, alt, now);
+		}
+		return due;
+	}
+
+	/**
+	 * Forgets the last report of the entity, e.g. because it was deleted.
+	 */
+	public synchronized void forget(int id) {
+		lastReported.remove(id);
+	}
+
+	private static class Report {
+
+		private double lon;
+		private double lat;
+		private double alt;
+		private long time;
+
+		public Report(double lon, double lat, double alt, long time) {
+			set(lon, lat, alt, time);
+		}
+
+		public void set(double lon, double lat, double alt, long time) {
+			this.lon = lon;
+			this.lat = lat;
+			this.alt = alt;
+			this.time = time;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package eu.driver.gateway.geojson;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared executor.
+ *
+ * Tasks are queued and drained by a single task on the underlying executor,
+ * so the sends of one output stream keep their order while the threads of the
+ * executor are still shared by all streams.
+ */
+public class SerialExecutor implements Executor {
+
+	private static Logger logger = CISLogger.logger(SerialExecutor.class);
+
+	private final Executor executor;
+	private final Queue<Runnable> tasks = new ArrayDeque<>();
+	private boolean draining = false;
+
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		synchronized (tasks) {
+			tasks.add(task);
+			if (draining) {
+				return;
+			}
+			draining = true;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		} catch (RuntimeException e) {
+			synchronized (tasks) {
+				tasks.clear();
+				draining = false;
+			}
+			throw e;
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Runnable task;
+			synchronized (tasks) {
+				task = tasks.poll();
+				if (task == null) {
+					draining = false;
+					return;
+				}
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// a failed task must not stall the tasks queued after it
+				logger.error("Failed to run a serial task", e);
+			}
+		}
+	}
+
+}
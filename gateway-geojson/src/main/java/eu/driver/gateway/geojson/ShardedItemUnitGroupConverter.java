@@ -0,0 +1,91 @@
+package eu.driver.gateway.geojson;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.avro.generic.IndexedRecord;
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+import eu.driver.api.IAdaptorCallback;
+import eu.driver.model.sim.ObjectDeleted;
+import eu.driver.model.sim.connection.Unit;
+import eu.driver.model.sim.connection.UnitConnection;
+import eu.driver.model.sim.entity.Item;
+
+/**
+ * Spreads the conversion of XVR Items and Units over shards, each with state
+ * of its own that is owned by an event loop thread, so conversion scales with
+ * the number of cores instead of being bound to the locks of one converter.
+ *
+ * Items are assigned to a shard by their guid, and units by the guid of their
+ * main item, so a unit is converted by the shard that owns the item it takes
+ * its position from. Unit groups span units of all shards and are aggregated
+ * by a separate group stage, which receives the units and unit connections,
+ * and the updates of main items from the shards. Deletions only carry a guid,
+ * so they are passed to all shards.
+ */
+public class ShardedItemUnitGroupConverter implements IAdaptorCallback, PartitionedState {
+
+	private static Logger logger = CISLogger.logger(ShardedItemUnitGroupConverter.class);
+
+	private final XVRItemUnitGroupConverter[] shards;
+	private final XVRItemUnitGroupConverter groupStage;
+
+	/** shard of every unit, to move it when it gets a main item of another shard */
+	private final ConcurrentHashMap<String, Integer> unitShards = new ConcurrentHashMap<>();
+
+	public ShardedItemUnitGroupConverter(int shardCount, FeatureOutput itemOutput, FeatureOutput unitOutput,
+			FeatureOutput groupOutput, ScheduledExecutorService reportingScheduler) {
+		groupStage = new XVRItemUnitGroupConverter("xvr-group-stage", null, null, groupOutput, reportingScheduler,
+				true, null);
+		shards = new XVRItemUnitGroupConverter[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new XVRItemUnitGroupConverter("xvr-item-unit-shard-" + i, itemOutput, unitOutput, null,
+					reportingScheduler, true, groupStage);
+		}
+		logger.info("Converting XVR Items and Units in " + shardCount + " shards, and Groups in a separate stage");
+	}
+
+	public void messageReceived(IndexedRecord key, IndexedRecord message) {
+		if (message instanceof Item) {
+			shards[Partitioner.partition(((Item) message).getGuid(), shards.length)].messageReceived(key, message);
+		} else if (message instanceof Unit) {
+			Unit unit = (Unit) message;
+			int shard = Partitioner.partition(unit.getMainItem(), shards.length);
+			Integer previous = unitShards.put(unit.getGuid().toString(), shard);
+			if (previous != null && previous.intValue() != shard) {
+				shards[previous].evict(unit.getGuid());
+			}
+			shards[shard].messageReceived(key, message);
+			groupStage.messageReceived(key, message);
+		} else if (message instanceof UnitConnection) {
+			groupStage.messageReceived(key, message);
+		} else if (message instanceof ObjectDeleted) {
+			unitShards.remove(((ObjectDeleted) message).getGuid().toString());
+			for (XVRItemUnitGroupConverter shard : shards) {
+				shard.messageReceived(key, message);
+			}
+			groupStage.messageReceived(key, message);
+		}
+	}
+
+	@Override
+	public void evict(CharSequence guid) {
+		// the guid may be the one of a unit, which is not sharded by its own guid
+		unitShards.remove(guid.toString());
+		for (XVRItemUnitGroupConverter shard : shards) {
+			shard.evict(guid);
+		}
+		groupStage.evict(guid);
+	}
+
+	@Override
+	public void setReporting(boolean reporting) {
+		for (XVRItemUnitGroupConverter shard : shards) {
+			shard.setReporting(reporting);
+		}
+		groupStage.setReporting(reporting);
+	}
+
+}
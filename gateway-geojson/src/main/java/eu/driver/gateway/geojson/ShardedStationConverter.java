@@ -0,0 +1,50 @@
+package eu.driver.gateway.geojson;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.avro.generic.IndexedRecord;
+
+import eu.driver.api.IAdaptorCallback;
+import eu.driver.model.sim.ObjectDeleted;
+import eu.driver.model.sim.entity.Station;
+
+/**
+ * Spreads the conversion of Stations over converters with state and locks of
+ * their own, assigning every station by its guid. Deletions only carry a guid,
+ * so they are passed to all shards.
+ */
+public class ShardedStationConverter implements IAdaptorCallback, PartitionedState {
+
+	private final XVRStationConverter[] shards;
+
+	public ShardedStationConverter(int shardCount, FeatureOutput output, ScheduledExecutorService reportingScheduler) {
+		shards = new XVRStationConverter[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new XVRStationConverter(output, reportingScheduler);
+		}
+	}
+
+	public void messageReceived(IndexedRecord key, IndexedRecord message) {
+		if (message instanceof Station) {
+			shards[Partitioner.partition(((Station) message).getGuid(), shards.length)].messageReceived(key,
+					message);
+		} else if (message instanceof ObjectDeleted) {
+			for (XVRStationConverter shard : shards) {
+				shard.messageReceived(key, message);
+			}
+		}
+	}
+
+	@Override
+	public void evict(CharSequence guid) {
+		shards[Partitioner.partition(guid, shards.length)].evict(guid);
+	}
+
+	@Override
+	public void setReporting(boolean reporting) {
+		for (XVRStationConverter shard : shards) {
+			shard.setReporting(reporting);
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+package eu.driver.gateway.geojson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.slf4j.Logger;
+
+import eu.driver.adapter.logger.CISLogger;
+import eu.driver.model.sim.connection.Unit;
+import eu.driver.model.sim.entity.Item;
+
+/**
+ * Checkpoint of converter state in a memory-mapped file.
+ *
+ * The file starts with a header of a magic number, the format version and the
+ * end of the last committed record. A record is a type byte, the payload
+ * length, the payload and a CRC-32 of the type and payload: items and units in
+ * Avro binary encoding, connections, group guids and deletions as UTF strings.
+ *
+ * A full snapshot is written to a new file that replaces the checkpoint once
+ * it is committed, and batches of incremental records are appended to it until
+ * the next snapshot. The end in the header only moves when a batch is
+ * committed, after its records were forced to disk, so a crash while writing
+ * leaves the last committed state. Restoring stops at the first record that
+ * does not match its length or checksum.
+ *
+ * Not thread safe, all methods are called from the checkpoint task.
+ */
+public class StateCheckpoint {
+
+	private static final int MAGIC = 0x58564743;
+	private static final int VERSION = 2;
+	private static final int END_POSITION = 8;
+	private static final int HEADER_SIZE = 12;
+	/** type, length and checksum around the payload */
+	private static final int RECORD_OVERHEAD = 9;
+
+	private static final byte ITEM = 1;
+	private static final byte UNIT = 2;
+	private static final byte CONNECTION = 3;
+	private static final byte GROUP = 4;
+	private static final byte DELETION = 5;
+
+	private static Logger logger = CISLogger.logger(StateCheckpoint.class);
+
+	/**
+	 * Receives the records of a checkpoint in the order they were written.
+	 */
+	public interface Handler {
+
+		void item(Item item);
+
+		void unit(Unit unit);
+
+		void connection(CharSequence guid, CharSequence mainUnit, CharSequence subUnit);
+
+		/**
+		 * @param groupGuid
+		 *            guid of the group of the root unit, empty if the group was
+		 *            dropped
+		 */
+		void group(CharSequence rootUnit, CharSequence groupGuid);
+
+		void deletion(CharSequence guid);
+	}
+
+	private final File file;
+	private final File snapshotFile;
+	private int capacity;
+
+	/** mapping of the committed checkpoint, null until the first snapshot */
+	private MappedByteBuffer committed = null;
+	/** mapping records are written to, either the committed one or a snapshot */
+	private MappedByteBuffer writing = null;
+
+	private final PayloadStream payload = new PayloadStream();
+	private final DataOutputStream payloadData = new DataOutputStream(payload);
+	private BinaryEncoder encoder = null;
+	private final SpecificDatumWriter<Item> itemWriter = new SpecificDatumWriter<>(Item.class);
+	private final SpecificDatumWriter<Unit> unitWriter = new SpecificDatumWriter<>(Unit.class);
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * @param capacity
+	 *            initial size of the mapping in bytes, grown when a snapshot
+	 *            does not fit
+	 */
+	public StateCheckpoint(File file, int capacity) {
+		this.file = file;
+		this.snapshotFile = new File(file.getPath() + ".snapshot");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Passes all committed records of the checkpoint file to the handler.
+	 *
+	 * @return the number of records restored, 0 if there is no checkpoint
+	 */
+	public int restore(Handler handler) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.limit() < HEADER_SIZE || in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+				logger.warn("Ignoring checkpoint " + file + " of an unknown format");
+				return 0;
+			}
+			int end = in.getInt(END_POSITION);
+			if (end < HEADER_SIZE || end > in.limit()) {
+				logger.warn("Ignoring checkpoint " + file + " with an invalid end " + end);
+				return 0;
+			}
+			in.position(HEADER_SIZE);
+			SpecificDatumReader<Item> itemReader = new SpecificDatumReader<>(Item.class);
+			SpecificDatumReader<Unit> unitReader = new SpecificDatumReader<>(Unit.class);
+			BinaryDecoder decoder = null;
+			byte[] bytes = new byte[1024];
+			int count = 0;
+			CRC32 check = new CRC32();
+			while (in.position() < end) {
+				int start = in.position();
+				if (end - start < RECORD_OVERHEAD) {
+					logger.warn("Truncated record at " + start + " in checkpoint " + file + ", restored " + count
+							+ " records");
+					break;
+				}
+				byte type = in.get();
+				int length = in.getInt();
+				if (length < 0 || length > end - start - RECORD_OVERHEAD) {
+					logger.warn("Invalid record length " + length + " at " + start + " in checkpoint " + file
+							+ ", restored " + count + " records");
+					break;
+				}
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.get(bytes, 0, length);
+				check.reset();
+				check.update(type);
+				check.update(bytes, 0, length);
+				if (in.getInt() != (int) check.getValue()) {
+					logger.warn("Checksum mismatch of the record at " + start + " in checkpoint " + file
+							+ ", restored " + count + " records");
+					break;
+				}
+				if (type == ITEM || type == UNIT) {
+					decoder = DecoderFactory.get().binaryDecoder(bytes, 0, length, decoder);
+					if (type == ITEM) {
+						handler.item(itemReader.read(null, decoder));
+					} else {
+						handler.unit(unitReader.read(null, decoder));
+					}
+				} else {
+					DataInputStream strings = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+					if (type == CONNECTION) {
+						handler.connection(strings.readUTF(), strings.readUTF(), strings.readUTF());
+					} else if (type == GROUP) {
+						handler.group(strings.readUTF(), strings.readUTF());
+					} else if (type == DELETION) {
+						handler.deletion(strings.readUTF());
+					} else {
+						throw new IOException("Unknown record type " + type + " in checkpoint " + file);
+					}
+				}
+				count++;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * @return true if a snapshot was committed, so incremental records can be
+	 *         appended
+	 */
+	public boolean hasSnapshot() {
+		return committed != null;
+	}
+
+	/**
+	 * Starts a full snapshot in a new file.
+	 */
+	public void beginSnapshot() throws IOException {
+		writing = map(snapshotFile, capacity);
+		writing.putInt(0, MAGIC);
+		writing.putInt(4, VERSION);
+		writing.putInt(END_POSITION, HEADER_SIZE);
+		writing.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Starts a batch of incremental records, appended to the last snapshot.
+	 */
+	public void beginAppend() {
+		writing = committed;
+		writing.position(writing.getInt(END_POSITION));
+	}
+
+	/**
+	 * Makes the records written since the start of the snapshot or batch part
+	 * of the checkpoint. The records are forced to disk before the end in the
+	 * header, so the header never covers records that were not written yet.
+	 */
+	public void commit() throws IOException {
+		writing.force();
+		writing.putInt(END_POSITION, writing.position());
+		writing.force();
+		if (writing != committed) {
+			Files.move(snapshotFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			// the mapping stays valid after the move, and is appended to from now on
+			committed = writing;
+		}
+		writing = null;
+	}
+
+	/**
+	 * Drops the records written since the start of the snapshot or batch, e.g.
+	 * because they did not fit.
+	 */
+	public void abort() {
+		writing = null;
+	}
+
+	/**
+	 * Doubles the size of the mapping for the next snapshot.
+	 */
+	public void grow() {
+		if (capacity > Integer.MAX_VALUE / 2) {
+			throw new IllegalStateException("Checkpoint " + file + " exceeds the maximal mapping size");
+		}
+		capacity *= 2;
+		logger.info("Growing checkpoint " + file + " to " + capacity + " bytes");
+	}
+
+	/**
+	 * @return the size of the committed checkpoint in bytes
+	 */
+	public int getSize() {
+		return committed != null ? committed.getInt(END_POSITION) : 0;
+	}
+
+	/**
+	 * @throws BufferOverflowException
+	 *             if the record does not fit in the mapping
+	 */
+	public void writeItem(Item item) throws IOException {
+		payload.reset();
+		encoder = EncoderFactory.get().binaryEncoder(payload, encoder);
+		itemWriter.write(item, encoder);
+		encoder.flush();
+		writeRecord(ITEM);
+	}
+
+	public void writeUnit(Unit unit) throws IOException {
+		payload.reset();
+		encoder = EncoderFactory.get().binaryEncoder(payload, encoder);
+		unitWriter.write(unit, encoder);
+		encoder.flush();
+		writeRecord(UNIT);
+	}
+
+	public void writeConnection(CharSequence guid, CharSequence mainUnit, CharSequence subUnit) throws IOException {
+		payload.reset();
+		payloadData.writeUTF(guid.toString());
+		payloadData.writeUTF(mainUnit.toString());
+		payloadData.writeUTF(subUnit.toString());
+		writeRecord(CONNECTION);
+	}
+
+	public void writeGroup(CharSequence rootUnit, CharSequence groupGuid) throws IOException {
+		payload.reset();
+		payloadData.writeUTF(rootUnit.toString());
+		payloadData.writeUTF(groupGuid.toString());
+		writeRecord(GROUP);
+	}
+
+	public void writeDeletion(CharSequence guid) throws IOException {
+		payload.reset();
+		payloadData.writeUTF(guid.toString());
+		writeRecord(DELETION);
+	}
+
+	private void writeRecord(byte type) {
+		int length = payload.size();
+		if (writing.remaining() < RECORD_OVERHEAD + length) {
+			throw new BufferOverflowException();
+		}
+		crc.reset();
+		crc.update(type);
+		crc.update(payload.array(), 0, length);
+		writing.put(type);
+		writing.putInt(length);
+		writing.put(payload.array(), 0, length);
+		writing.putInt((int) crc.getValue());
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null) {
+			directory.mkdirs();
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(size);
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/**
+	 * Byte array stream that exposes its buffer, so payloads are not copied.
+	 */
+	private static class PayloadStream extends ByteArrayOutputStream {
+
+		public PayloadStream() {
+			super(1024);
+		}
+
+		public byte[] array() {
+			return buf;
+		}
+	}
+
+}
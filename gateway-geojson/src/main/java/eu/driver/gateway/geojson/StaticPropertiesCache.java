@@ -0,0 +1,130 @@
+package eu.driver.gateway.geojson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+import eu.driver.model.geojson.sim.TypeEnum;
+
+/**
+ * Cache of the parts of entity features that rarely change between reports:
+ * guid, name, label, type and sub entities.
+ *
+ * A report passes the current values of the source record, and the cached
+ * parts are only rebuilt when one of them differs. The sub entity list is kept
+ * as an immutable copy, so features of consecutive reports share it and only
+ * the geometry and speed are new per report.
+ */
+public class StaticPropertiesCache {
+
+	private final String nameSuffix;
+	private IntObjectMap<StaticProperties> entries = new IntObjectMap<>();
+
+	public StaticPropertiesCache() {
+		this("");
+	}
+
+	/**
+	 * @param nameSuffix
+	 *            appended to the name of the source record in the feature name
+	 */
+	public StaticPropertiesCache(String nameSuffix) {
+		this.nameSuffix = nameSuffix;
+	}
+
+	/**
+	 * @param firstSubEntity
+	 *            sub entity reported ahead of the others, or null
+	 * @param subEntities
+	 *            the other sub entities, or null if the feature has none
+	 * @return the static parts for the entity, rebuilt if the source changed
+	 */
+	public synchronized StaticProperties get(int id, CharSequence guid, CharSequence name, String label,
+			TypeEnum type, CharSequence firstSubEntity, List<CharSequence> subEntities) {
+		StaticProperties cached = entries.get(id);
+		if (cached == null || !cached.matches(guid, name, label, type, firstSubEntity, subEntities)) {
+			cached = new StaticProperties(guid, name, label, type, firstSubEntity, subEntities);
+			entries.put(id, cached);
+		}
+		return cached;
+	}
+
+	public synchronized void remove(int id) {
+		entries.remove(id);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public class StaticProperties {
+
+		private final CharSequence guid;
+		private final CharSequence sourceName;
+		private final String name;
+		private final String label;
+		private final TypeEnum type;
+		private final CharSequence firstSubEntity;
+		private final List<CharSequence> sourceSubEntities;
+		private final List<CharSequence> subEntities;
+
+		private StaticProperties(CharSequence guid, CharSequence name, String label, TypeEnum type,
+				CharSequence firstSubEntity, List<CharSequence> subEntities) {
+			this.guid = guid;
+			this.sourceName = name;
+			this.name = name + nameSuffix;
+			this.label = label;
+			this.type = type;
+			this.firstSubEntity = firstSubEntity;
+			this.sourceSubEntities = subEntities;
+			if (subEntities == null) {
+				this.subEntities = null;
+			} else {
+				List<CharSequence> copy = new ArrayList<>(subEntities.size() + 1);
+				if (firstSubEntity != null) {
+					copy.add(firstSubEntity);
+				}
+				copy.addAll(subEntities);
+				this.subEntities = Collections.unmodifiableList(copy);
+			}
+		}
+
+		private boolean matches(CharSequence guid, CharSequence name, String label, TypeEnum type,
+				CharSequence firstSubEntity, List<CharSequence> subEntities) {
+			return type == this.type && label.equals(this.label) && equal(guid, this.guid)
+					&& equal(name, sourceName) && equal(firstSubEntity, this.firstSubEntity)
+					&& (subEntities == sourceSubEntities
+							|| (subEntities != null && subEntities.equals(sourceSubEntities)));
+		}
+
+		private boolean equal(CharSequence a, CharSequence b) {
+			return a == b || (a != null && a.equals(b));
+		}
+
+		/**
+		 * Sets the static parts on the builder, which may be reused between
+		 * features.
+		 */
+		public void applyTo(SimulatedEntityProperties.Builder builder) {
+			builder.setGuid(guid);
+			builder.setName(name);
+			builder.setLabel(label);
+			builder.setType(type);
+			if (subEntities != null) {
+				builder.setSubEntities(subEntities);
+			} else {
+				builder.clearSubEntities();
+			}
+		}
+
+		public CharSequence getGuid() {
+			return guid;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+}
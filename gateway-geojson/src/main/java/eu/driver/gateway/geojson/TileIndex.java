@@ -0,0 +1,75 @@
+package eu.driver.gateway.geojson;
+
+/**
+ * Web mercator tiles of the current entity locations at one zoom level.
+ *
+ * Tiles are assigned when the location of an entity changes, so reports only
+ * look up the tile of an entity instead of projecting every location on every
+ * flush. A tile is packed in an int as x * 2^zoom + y.
+ */
+public class TileIndex {
+
+	/** highest zoom level whose packed tiles fit in an int */
+	public static final int MAX_ZOOM = 15;
+
+	public static final int NO_TILE = -1;
+
+	private final int zoom;
+	private IntIntMap tiles = new IntIntMap();
+
+	public TileIndex(int zoom) {
+		if (zoom < 0 || zoom > MAX_ZOOM) {
+			throw new IllegalArgumentException("Tile zoom level must be between 0 and " + MAX_ZOOM);
+		}
+		this.zoom = zoom;
+	}
+
+	/**
+	 * Assigns the tile of the new location to the entity.
+	 *
+	 * @return the tile
+	 */
+	public synchronized int update(int id, double lon, double lat) {
+		int tile = getTile(lon, lat);
+		tiles.put(id, tile);
+		return tile;
+	}
+
+	/**
+	 * @return the tile of the entity, or -1 if its location is not known
+	 */
+	public synchronized int get(int id) {
+		return tiles.get(id);
+	}
+
+	public synchronized void remove(int id) {
+		tiles.remove(id);
+	}
+
+	/**
+	 * @return the tile containing the location
+	 */
+	public int getTile(double lon, double lat) {
+		int n = 1 << zoom;
+		// web mercator is bounded at about 85.05 degrees latitude
+		double latRad = Math.toRadians(Math.max(-85.0511, Math.min(85.0511, lat)));
+		int x = (int) Math.floor((lon + 180.0) / 360.0 * n);
+		int y = (int) Math.floor((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n);
+		x = Math.max(0, Math.min(n - 1, x));
+		y = Math.max(0, Math.min(n - 1, y));
+		return x * n + y;
+	}
+
+	/**
+	 * @return the tile id in the usual "zoom/x/y" form
+	 */
+	public String getKey(int tile) {
+		int n = 1 << zoom;
+		return zoom + "/" + (tile / n) + "/" + (tile % n);
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+}
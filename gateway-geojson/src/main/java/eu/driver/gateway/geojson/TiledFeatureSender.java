@@ -0,0 +1,69 @@
+package eu.driver.gateway.geojson;
+
+import java.util.concurrent.Executor;
+
+import eu.driver.model.geojson.sim.Feature;
+
+/**
+ * Sends the features of one report as one sequence of FeatureCollections per
+ * dirty tile, keyed by the tile id. Features without a known tile are sent
+ * without key.
+ *
+ * The senders of all tiles share one serial send executor, so the collections
+ * of a report leave in the order they were built.
+ */
+public class TiledFeatureSender implements FeatureSender {
+
+	private final FeatureOutput output;
+	private final TileIndex tileIndex;
+	private final int maxFeatures;
+	private final long maxBytes;
+	private final Executor sendExecutor;
+
+	private IntObjectMap<ChunkedFeatureSender> tiles = new IntObjectMap<>();
+	private int featureCount = 0;
+
+	public TiledFeatureSender(FeatureOutput output, TileIndex tileIndex, int maxFeatures, long maxBytes,
+			Executor sendExecutor) {
+		this.output = output;
+		this.tileIndex = tileIndex;
+		this.maxFeatures = maxFeatures;
+		this.maxBytes = maxBytes;
+		this.sendExecutor = ChunkedFeatureSender.serial(sendExecutor);
+	}
+
+	@Override
+	public void add(Feature feature, int tile) {
+		ChunkedFeatureSender sender = tiles.get(tile);
+		if (sender == null) {
+			String key = tile == TileIndex.NO_TILE ? null : tileIndex.getKey(tile);
+			sender = new ChunkedFeatureSender(output, key, maxFeatures, maxBytes, sendExecutor);
+			tiles.put(tile, sender);
+		}
+		sender.add(feature);
+		featureCount++;
+	}
+
+	@Override
+	public int finish() {
+		int chunks = 0;
+		IntObjectMap<ChunkedFeatureSender>.Cursor cursor = tiles.cursor();
+		while (cursor.next()) {
+			chunks += cursor.value().finish();
+		}
+		return chunks;
+	}
+
+	@Override
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	/**
+	 * @return the number of tiles features were sent for
+	 */
+	public int getTileCount() {
+		return tiles.size();
+	}
+
+}
@@ -1,102 +1,303 @@
 package eu.driver.gateway.geojson;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 
 import eu.driver.adapter.logger.CISLogger;
 
+/**
+ * Hierarchy of units built from unit connections.
+ *
+ * Units and connections are identified by the ids their guids were interned to
+ * in the {@link GuidDictionary}. Besides the direct parent, every unit keeps
+ * the root of its hierarchy and the set of all its descendants. Both indexes
+ * are maintained incrementally when connections are added or removed, walking
+ * the ancestors iteratively so deep hierarchies do not grow the stack. Group
+ * member lists are cached as immutable lists of guids and only rebuilt after
+ * the subtree changed.
+ *
+ * The descendant sets are bit sets over a dense index of the units in this
+ * graph rather than over the guid ids, which also count items and
+ * connections. A unit with descendants takes at most one bit per unit in the
+ * graph, and a leaf none; attaching or detaching a subtree combines sets of
+ * that size with every ancestor. Indexes of removed units are reused, lowest
+ * first, to keep the sets short. Group members follow the unit itself in the
+ * order of that index, which is not the order of the hierarchy.
+ *
+ * The graph owns the connection ids: ids of connections that are removed,
+ * replaced or rejected are released to the dictionary.
+ */
 public class UnitConnectionGraph {
 
 	private static Logger logger = CISLogger.logger(UnitConnectionGraph.class);
 
-	private Map<CharSequence, Unit> unitMap;
-	private Map<CharSequence, UnitConnection> connectionMap;
+	private GuidDictionary guids;
+	private IntObjectMap<Unit> unitMap;
+	private IntObjectMap<UnitConnection> connectionMap;
+	/** units by their dense index */
+	private Unit[] units = new Unit[16];
+	private BitSet usedIndexes = new BitSet();
 
-	public UnitConnectionGraph() {
-		unitMap = new HashMap<>();
-		connectionMap = new HashMap<>();
+	public UnitConnectionGraph(GuidDictionary guids) {
+		this.guids = guids;
+		unitMap = new IntObjectMap<>();
+		connectionMap = new IntObjectMap<>();
 	}
 
-	public void addUnit(CharSequence guid) {
-		if (unitMap.get(guid) == null) {
-			Unit u = new Unit();
-			unitMap.put(guid, u);
+	public void addUnit(int id) {
+		if (unitMap.get(id) == null) {
+			int index = usedIndexes.nextClearBit(0);
+			usedIndexes.set(index);
+			if (index == units.length) {
+				units = Arrays.copyOf(units, units.length * 2);
+			}
+			Unit u = new Unit(id, index);
+			units[index] = u;
+			unitMap.put(id, u);
 		}
 	}
 
-	public Unit getUnit(CharSequence guid) {
-		return unitMap.get(guid);
+	public Unit getUnit(int id) {
+		return unitMap.get(id);
 	}
-	
-	public List<CharSequence> getDescendantsForUnit(CharSequence guid) {
-		Unit u = unitMap.get(guid);
-		List<CharSequence> descendants = new LinkedList<>();
-		descendants.addAll(u.children);
-		for(CharSequence child : u.children) {
-			descendants.addAll(getDescendantsForUnit(child));
+
+	/**
+	 * @return immutable list of the guids of all descendants of the unit
+	 */
+	public List<CharSequence> getDescendantsForUnit(int id) {
+		Unit u = unitMap.get(id);
+		List<CharSequence> members = getGroupMembers(u);
+		return members.subList(1, members.size());
+	}
+
+	/**
+	 * @return immutable list of the guid of the unit itself followed by the guids
+	 *         of all its descendants, in the order of their index in this graph
+	 */
+	public List<CharSequence> getGroupMembers(int id) {
+		return getGroupMembers(unitMap.get(id));
+	}
+
+	private List<CharSequence> getGroupMembers(Unit u) {
+		if (u.members == null) {
+			List<CharSequence> members = new ArrayList<>(u.descendants.cardinality() + 1);
+			members.add(guids.getGuid(u.id));
+			for (int d = u.descendants.nextSetBit(0); d >= 0; d = u.descendants.nextSetBit(d + 1)) {
+				members.add(guids.getGuid(units[d].id));
+			}
+			u.members = Collections.unmodifiableList(members);
 		}
-		return descendants;
+		return u.members;
 	}
-	
-	public boolean hasUnit(CharSequence guid) {
-		return unitMap.get(guid) != null;
+
+	/**
+	 * @return id of the root of the hierarchy the unit belongs to, which is the
+	 *         unit itself if it has no parent, or -1 if the unit is not known
+	 */
+	public int getRoot(int id) {
+		Unit u = unitMap.get(id);
+		return u == null ? -1 : u.root;
 	}
 
-	public void removeUnit(CharSequence guid) {
-		unitMap.remove(guid);
+	public boolean hasUnit(int id) {
+		return unitMap.get(id) != null;
 	}
 
-	public void addConnection(CharSequence connectionGuid, CharSequence parentGuid, CharSequence childGuid) {
-		UnitConnection connection = new UnitConnection(connectionGuid, parentGuid, childGuid);
-		connectionMap.put(connectionGuid, connection);
-		Unit parent = unitMap.get(parentGuid);
-		Unit child = unitMap.get(childGuid);
-		parent.children.add(childGuid);
-		child.parent = parentGuid;
+	/**
+	 * Removes the unit together with the connections to its parent and its
+	 * children. The children become the roots of their own hierarchies.
+	 *
+	 * @return the ids of the former children of the unit
+	 */
+	public int[] removeUnit(int id) {
+		Unit u = unitMap.get(id);
+		if (u == null) {
+			return new int[0];
+		}
+		if (u.parent != null) {
+			dropParentConnection(u);
+			detach(u);
+		}
+		int[] children = new int[u.childCount];
+		int n = 0;
+		for (int d = u.descendants.nextSetBit(0); d >= 0 && n < children.length; d = u.descendants.nextSetBit(d + 1)) {
+			if (units[d].parent == u) {
+				children[n++] = units[d].id;
+			}
+		}
+		for (int child : children) {
+			Unit c = unitMap.get(child);
+			dropParentConnection(c);
+			detach(c);
+		}
+		unitMap.remove(id);
+		units[u.index] = null;
+		usedIndexes.clear(u.index);
+		return children;
 	}
-	
-	public boolean hasConnection(CharSequence connectionGuid) {
-		return connectionMap.get(connectionGuid) != null;
+
+	public void addConnection(int connectionId, int parentId, int childId) {
+		Unit parent = unitMap.get(parentId);
+		Unit child = unitMap.get(childId);
+		if (parent == child || child.descendants.get(parent.index)) {
+			logger.error("Cant add connection with guid: " + guids.getGuid(connectionId)
+					+ " because it would make Unit with guid: " + guids.getGuid(childId) + " its own ancestor!");
+			if (!hasConnection(connectionId)) {
+				guids.release(connectionId);
+			}
+			return;
+		}
+		if (child.parentConnection == connectionId) {
+			return;
+		}
+		UnitConnection connection = new UnitConnection(parentId, childId);
+		connectionMap.put(connectionId, connection);
+		// a unit has a single parent connection, so it replaces the former one
+		dropParentConnection(child);
+		child.parentConnection = connectionId;
+		if (child.parent == parent) {
+			return;
+		}
+		if (child.parent != null) {
+			// a unit has a single parent, so it moves to the new one
+			detach(child);
+		}
+		attach(parent, child);
+	}
+
+	public boolean hasConnection(int connectionId) {
+		return connectionMap.get(connectionId) != null;
+	}
+
+	public UnitConnection getConnection(int connectionId) {
+		return connectionMap.get(connectionId);
 	}
-	
-	public UnitConnection getConnection(CharSequence connectionGuid) {
-		return connectionMap.get(connectionGuid);
+
+	/**
+	 * @return the ids of all connections in the graph
+	 */
+	public int[] getConnectionIds() {
+		int[] ids = new int[connectionMap.size()];
+		int i = 0;
+		IntObjectMap<UnitConnection>.Cursor cursor = connectionMap.cursor();
+		while (cursor.next()) {
+			ids[i++] = cursor.key();
+		}
+		return ids;
 	}
 
-	public void removeConnection(CharSequence connectionGuid) {
-		UnitConnection connection = connectionMap.get(connectionGuid);
+	/**
+	 * @return the ids of the connections of the unit to its parent and to its
+	 *         children
+	 */
+	public int[] getConnectionIds(int id) {
+		Unit u = unitMap.get(id);
+		if (u == null) {
+			return new int[0];
+		}
+		int[] ids = new int[u.childCount + 1];
+		int n = 0;
+		if (u.parentConnection >= 0) {
+			ids[n++] = u.parentConnection;
+		}
+		for (int d = u.descendants.nextSetBit(0); d >= 0; d = u.descendants.nextSetBit(d + 1)) {
+			if (units[d].parent == u && units[d].parentConnection >= 0) {
+				ids[n++] = units[d].parentConnection;
+			}
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	public void removeConnection(int connectionId) {
+		UnitConnection connection = connectionMap.remove(connectionId);
 		if (connection == null) {
-			logger.error(
-					"Cant remove connection with guid: " + connectionGuid + " because that connection is not known!");
+			logger.error("Cant remove connection with guid: " + guids.getGuid(connectionId)
+					+ " because that connection is not known!");
 			return;
 		}
 		Unit parent = unitMap.get(connection.parent);
 		Unit child = unitMap.get(connection.child);
 		if (parent == null) {
-			logger.error("Cant remove connection with guid: " + connectionGuid + " because Parent Unit with guid: "
-					+ connection.parent + " is not known!");
-			return;
+			logger.error("Removing connection with guid: " + guids.getGuid(connectionId)
+					+ " whose Parent Unit with guid: " + guids.getGuid(connection.parent) + " is not known!");
+		} else if (child == null) {
+			logger.error("Removing connection with guid: " + guids.getGuid(connectionId)
+					+ " whose Child Unit with guid: " + guids.getGuid(connection.child) + " is not known!");
 		}
-		if (child == null) {
-			logger.error("Cant remove connection with guid: " + connectionGuid + " because Child Unit with guid: "
-					+ connection.child + " is not known!");
-			return;
+		// the connection is gone from the map either way, so its id and the link
+		// of a known child go with it
+		guids.release(connectionId);
+		if (child != null && child.parentConnection == connectionId) {
+			child.parentConnection = -1;
+			if (parent != null && child.parent == parent) {
+				detach(child);
+			}
+		}
+	}
+
+	private void dropParentConnection(Unit child) {
+		if (child.parentConnection >= 0) {
+			connectionMap.remove(child.parentConnection);
+			guids.release(child.parentConnection);
+			child.parentConnection = -1;
+		}
+	}
+
+	private void attach(Unit parent, Unit child) {
+		BitSet subtree = subtree(child);
+		parent.childCount++;
+		child.parent = parent;
+		for (Unit ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+			ancestor.descendants.or(subtree);
+			ancestor.members = null;
 		}
+		setRoot(subtree, parent.root);
+	}
+
+	private void detach(Unit child) {
+		BitSet subtree = subtree(child);
+		Unit parent = child.parent;
+		parent.childCount--;
 		child.parent = null;
-		parent.children.remove(connection.child);
+		for (Unit ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+			ancestor.descendants.andNot(subtree);
+			ancestor.members = null;
+		}
+		setRoot(subtree, child.id);
+	}
+
+	private BitSet subtree(Unit u) {
+		BitSet subtree = (BitSet) u.descendants.clone();
+		subtree.set(u.index);
+		return subtree;
+	}
+
+	private void setRoot(BitSet subtree, int root) {
+		for (int i = subtree.nextSetBit(0); i >= 0; i = subtree.nextSetBit(i + 1)) {
+			units[i].root = root;
+		}
 	}
 
 	public class Unit {
 
-		private CharSequence parent;
-		private List<CharSequence> children = new ArrayList<>();
+		private int id;
+		private int index;
+		private int root;
+		private Unit parent;
+		private int parentConnection = -1;
+		private int childCount = 0;
+		private BitSet descendants = new BitSet();
+		private List<CharSequence> members;
 
-		public Unit() {
+		public Unit(int id, int index) {
+			this.id = id;
+			this.index = index;
+			this.root = id;
 		}
 
 		public boolean hasParent() {
@@ -104,19 +305,27 @@ public class UnitConnectionGraph {
 		}
 
 		public boolean hasChildren() {
-			return !children.isEmpty();
+			return childCount > 0;
 		}
 	}
 
 	public class UnitConnection {
 
-		private CharSequence parent;
-		private CharSequence child;
+		private int parent;
+		private int child;
 
-		public UnitConnection(CharSequence guid, CharSequence parent, CharSequence child) {
+		public UnitConnection(int parent, int child) {
 			this.parent = parent;
 			this.child = child;
 		}
+
+		public int getParent() {
+			return parent;
+		}
+
+		public int getChild() {
+			return child;
+		}
 	}
 
 }
@@ -0,0 +1,79 @@
+package eu.driver.gateway.geojson;
+
+/**
+ * Double-buffered reporting window that keeps the latest update per entity id.
+ *
+ * Ingestion writes into the active buffer, a reporting task swaps it out and
+ * builds its output from the returned snapshot without holding any lock. The
+ * only contention between both sides is the pointer swap itself. Once the
+ * snapshot is processed it should be handed back with
+ * {@link #recycle(IntObjectMap)} so it can serve as the next active buffer.
+ *
+ * @param <V>
+ *            update type of the window
+ */
+public class UpdateWindow<V> {
+
+	private IntObjectMap<V> active = new IntObjectMap<>();
+	private IntObjectMap<V> spare = null;
+
+	/**
+	 * Stores the update for the given id in the active buffer, replacing any
+	 * earlier update for that id.
+	 *
+	 * @return the number of updates in the active buffer
+	 */
+	public synchronized int put(int id, V value) {
+		active.put(id, value);
+		return active.size();
+	}
+
+	/**
+	 * Stores the update only if the active buffer has no newer update for the id,
+	 * used to carry over updates that could not be reported yet.
+	 */
+	public synchronized void putIfAbsent(int id, V value) {
+		active.putIfAbsent(id, value);
+	}
+
+	/**
+	 * Drops the pending update for the id, e.g. because the entity was deleted.
+	 */
+	public synchronized void remove(int id) {
+		active.remove(id);
+	}
+
+	public synchronized int size() {
+		return active.size();
+	}
+
+	/**
+	 * Swaps out the active buffer.
+	 *
+	 * @return the private snapshot of all updates received since the last swap,
+	 *         or null if there were none
+	 */
+	public IntObjectMap<V> swap() {
+		IntObjectMap<V> snapshot;
+		synchronized (this) {
+			if (active.isEmpty()) {
+				return null;
+			}
+			snapshot = active;
+			active = spare != null ? spare : new IntObjectMap<V>();
+			spare = null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Hands a processed snapshot back so its buffer can be reused.
+	 */
+	public void recycle(IntObjectMap<V> snapshot) {
+		snapshot.clear();
+		synchronized (this) {
+			spare = snapshot;
+		}
+	}
+
+}
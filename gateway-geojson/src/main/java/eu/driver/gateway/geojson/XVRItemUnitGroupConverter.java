@@ -1,24 +1,27 @@
 package eu.driver.gateway.geojson;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.generic.IndexedRecord;
 import org.slf4j.Logger;
 
-import eu.driver.adapter.core.producer.GenericProducer;
 import eu.driver.adapter.logger.CISLogger;
 import eu.driver.api.IAdaptorCallback;
 import eu.driver.gateway.GatewayProperties;
 import eu.driver.model.geojson.sim.Feature;
-import eu.driver.model.geojson.sim.FeatureCollection;
 import eu.driver.model.geojson.sim.Point;
 import eu.driver.model.geojson.sim.PointType;
 import eu.driver.model.geojson.sim.SimulatedEntityProperties;
@@ -32,50 +35,283 @@ import eu.driver.model.sim.entity.item.PersonType;
 import eu.driver.model.sim.entity.item.RescueLabel;
 import eu.driver.model.sim.entity.item.VehicleSubType;
 import eu.driver.model.sim.entity.item.VehicleType;
+import eu.driver.model.sim.geo.Location;
 
-public class XVRItemUnitGroupConverter implements IAdaptorCallback {
+public class XVRItemUnitGroupConverter implements IAdaptorCallback, PartitionedState {
 
-	private GenericProducer itemProducer;
-	private GenericProducer unitProducer;
-	private GenericProducer groupProducer;
+	private FeatureOutput itemOutput;
+	private FeatureOutput unitOutput;
+	private FeatureOutput groupOutput;
 
-	private Map<CharSequence, Item> items = new HashMap<>();
-	private Map<CharSequence, Item> itemUpdates = new HashMap<>();
+	private GuidDictionary guids = new GuidDictionary();
 
-	private Map<CharSequence, Unit> units = new HashMap<>();
-	private Map<CharSequence, Unit> unitUpdates = new HashMap<>();
-	private Map<CharSequence, Unit> unitMainItemMap = new HashMap<>();
-	private UnitConnectionGraph unitConnectionGraph = new UnitConnectionGraph();
+	private IntObjectMap<Item> items = new IntObjectMap<>();
+	private UpdateWindow<Item> itemUpdates = new UpdateWindow<>();
 
-	private Queue<UnitConnection> connectionUpdates = new LinkedList<>();
-	private Map<CharSequence, Unit> groupUpdates = new HashMap<>();
-	private Map<CharSequence, CharSequence> groupGuids = new HashMap<>();
+	private IntObjectMap<Unit> units = new IntObjectMap<>();
+	private UpdateWindow<Unit> unitUpdates = new UpdateWindow<>();
+	private IntIntMap mainItemUnits = new IntIntMap();
+	private IntIntMap unitMainItems = new IntIntMap();
+	private UnitConnectionGraph unitConnectionGraph = new UnitConnectionGraph(guids);
 
-	private ScheduledExecutorService reportingScheduler;
+	private PendingConnections pendingConnections = new PendingConnections();
+	private long pendingConnectionTtl;
+	private UpdateWindow<Unit> groupUpdates = new UpdateWindow<>();
+	private IntObjectMap<CharSequence> groupGuids = new IntObjectMap<>();
+
+	private StaticPropertiesCache itemProperties = new StaticPropertiesCache();
+	private StaticPropertiesCache unitProperties = new StaticPropertiesCache();
+	private StaticPropertiesCache groupProperties = new StaticPropertiesCache("-group");
+
+	private List<Feature> itemRemovals = new ArrayList<>();
+	private List<Feature> unitRemovals = new ArrayList<>();
+	private List<Feature> groupRemovals = new ArrayList<>();
+	private IdleTracker itemActivity = new IdleTracker();
+	private IdleTracker unitActivity = new IdleTracker();
+	private long idleTtl;
+	private int entityCapacity;
 
-	private final Object groupUpdateLock = new Object();
+	private ScheduledExecutorService reportingScheduler;
+	private FlushScheduler itemFlush;
+	private FlushScheduler unitFlush;
+	private FlushScheduler groupFlush;
+	/**
+	 * In event loop mode all state is only touched by the owner thread, but the
+	 * monitors guarding it are kept: the same code runs in locking mode, and
+	 * uncontended they cost no more than an atomic update.
+	 */
+	private ConverterEventLoop eventLoop = null;
+	/** serial executors sending the reports of each stream in event loop mode */
+	private Executor itemSendExecutor = null;
+	private Executor unitSendExecutor = null;
+	private Executor groupSendExecutor = null;
+	private XVRItemUnitGroupConverter groupStage;
+	/** true if the items are split over several gateway instances */
+	private boolean partitioned;
+	private volatile boolean reporting = true;
+	private StateCheckpoint checkpoint = null;
+	/** true while the checkpoint is replayed, which is not journaled again */
+	private volatile boolean restoring = false;
+	private long snapshotInterval;
+	/** latest items, units and connections since the last checkpoint */
+	private UpdateWindow<Object> journal = new UpdateWindow<>();
+	/** root unit and group guid, empty if dropped, since the last checkpoint */
+	private UpdateWindow<CharSequence[]> groupJournal = new UpdateWindow<>();
+	private List<CharSequence> deletionJournal = new ArrayList<>();
+	private MovementFilter movementFilter = null;
+	private ReportingRates reportingRates = null;
+	private AreaOfInterestFilter itemArea = null;
+	private AreaOfInterestFilter unitArea = null;
+	private AreaOfInterestFilter groupArea = null;
+	private String outputMode;
+	private TileIndex itemTiles = null;
+	private DeltaEncoder itemDeltas = null;
+	private DeltaEncoder unitDeltas = null;
+	private DeltaEncoder groupDeltas = null;
+	private int chunkFeatures;
+	private long chunkBytes;
 
 	private static Logger logger = CISLogger.logger(XVRItemUnitGroupConverter.class);
 
-	public XVRItemUnitGroupConverter(GenericProducer itemProducer, GenericProducer unitProducer,
-			GenericProducer groupProducer) {
-		this.itemProducer = itemProducer;
-		this.unitProducer = unitProducer;
-		this.groupProducer = groupProducer;
+	/**
+	 * @param reportingScheduler
+	 *            executor shared by the converters for flushing and sending
+	 *            reports
+	 */
+	public XVRItemUnitGroupConverter(FeatureOutput itemOutput, FeatureOutput unitOutput, FeatureOutput groupOutput,
+			ScheduledExecutorService reportingScheduler) {
+		this("xvr-item-unit-group-converter", itemOutput, unitOutput, groupOutput, reportingScheduler,
+				GatewayProperties.CONVERTER_MODE_EVENTLOOP
+						.equals(GatewayProperties.getInstance().getProperty(GatewayProperties.CONVERTER_MODE)),
+				null);
+	}
+
+	/**
+	 * Creates a converter that reports part of the streams, as a shard or group
+	 * stage of the {@link ShardedItemUnitGroupConverter}. Updates of streams
+	 * without output are not tracked.
+	 * 
+	 * @param name
+	 *            name of the converter and its event loop
+	 * @param useEventLoop
+	 *            true to apply all mutations on an event loop of its own
+	 * @param groupStage
+	 *            converter aggregating the unit groups, to forward the updates
+	 *            of main items to, or null
+	 */
+	XVRItemUnitGroupConverter(String name, FeatureOutput itemOutput, FeatureOutput unitOutput,
+			FeatureOutput groupOutput, ScheduledExecutorService reportingScheduler, boolean useEventLoop,
+			XVRItemUnitGroupConverter groupStage) {
+		this.itemOutput = itemOutput;
+		this.unitOutput = unitOutput;
+		this.groupOutput = groupOutput;
+		this.reportingScheduler = reportingScheduler;
+		this.groupStage = groupStage;
 
-		reportingScheduler = Executors.newScheduledThreadPool(3);
 		long freq = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FREQUENCY));
 
-		reportingScheduler.scheduleAtFixedRate(new ItemReportingTask(), 0, freq, TimeUnit.MILLISECONDS);
-		reportingScheduler.scheduleAtFixedRate(new UnitReportingTask(), 0, freq, TimeUnit.MILLISECONDS);
-		reportingScheduler.scheduleAtFixedRate(new GroupReportingTask(), 0, freq, TimeUnit.MILLISECONDS);
-		reportingScheduler.scheduleAtFixedRate(new UnitConnectionTask(), 0, freq, TimeUnit.MILLISECONDS);
+		pendingConnectionTtl = Long
+				.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.CONNECTION_PENDING_TTL));
+		chunkFeatures = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_CHUNK_FEATURES));
+		chunkBytes = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_CHUNK_BYTES));
+		idleTtl = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_IDLE_TTL));
+		entityCapacity = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_CAPACITY));
+		long evictionInterval = Long
+				.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_EVICTION_INTERVAL));
+		int flushSize = Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FLUSH_SIZE));
+		long flushGap = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FLUSH_GAP));
+
+		partitioned = GatewayProperties.INPUT_MODE_PARTITIONED
+				.equals(GatewayProperties.getInstance().getProperty(GatewayProperties.INPUT_MODE));
+		if (useEventLoop) {
+			int capacity = Integer.parseInt(
+					GatewayProperties.getInstance().getProperty(GatewayProperties.CONVERTER_EVENTLOOP_CAPACITY));
+			eventLoop = new ConverterEventLoop(name, capacity);
+			// the owner thread only builds the reports, each stream is sent in
+			// order by a serial executor on the shared reporting threads
+			itemSendExecutor = new SerialExecutor(reportingScheduler);
+			unitSendExecutor = new SerialExecutor(reportingScheduler);
+			groupSendExecutor = new SerialExecutor(reportingScheduler);
+		}
+
+		double suppressDistance = Double
+				.parseDouble(GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_SUPPRESS_DISTANCE));
+		if (suppressDistance > 0) {
+			double speedDelta = Double.parseDouble(
+					GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_SUPPRESS_SPEED_DELTA));
+			long heartbeat = Long
+					.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_SUPPRESS_HEARTBEAT));
+			movementFilter = new MovementFilter(suppressDistance, speedDelta, heartbeat);
+			logger.info("Suppressing XVR Items that moved less than " + suppressDistance + " m, unless speed changed by "
+					+ speedDelta + " m/s or not reported for " + heartbeat + " milliseconds");
+		}
+
+		double staticSpeed = Double
+				.parseDouble(GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_RATE_STATIC_SPEED));
+		int slowTicks = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_RATE_SLOW_TICKS));
+		if (staticSpeed > 0 || slowTicks > 1) {
+			double fastSpeed = Double
+					.parseDouble(GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_RATE_FAST_SPEED));
+			Set<TypeEnum> fastTypes = parseTypes(
+					GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_RATE_FAST_TYPES));
+			long staticHeartbeat = Long.parseLong(
+					GatewayProperties.getInstance().getProperty(GatewayProperties.ITEM_RATE_STATIC_HEARTBEAT));
+			reportingRates = new ReportingRates(fastSpeed, fastTypes, staticSpeed, freq, slowTicks, staticHeartbeat);
+			logger.info("Reporting XVR Items of types " + fastTypes + " or faster than " + fastSpeed
+					+ " m/s every tick, slower ones every " + slowTicks + " ticks, and the ones slower than "
+					+ staticSpeed + " m/s on change or every " + staticHeartbeat + " milliseconds");
+		}
+
+		String areas = GatewayProperties.getInstance().getProperty(GatewayProperties.AOI_AREAS);
+		if (!areas.trim().isEmpty()) {
+			double cellSize = Double
+					.parseDouble(GatewayProperties.getInstance().getProperty(GatewayProperties.AOI_GRID_CELL));
+			AreaOfInterest area = new AreaOfInterest(AreaOfInterest.parseAreas(areas), cellSize);
+			itemArea = new AreaOfInterestFilter(area);
+			unitArea = new AreaOfInterestFilter(area);
+			groupArea = new AreaOfInterestFilter(area);
+			logger.info("Only reporting XVR Items, Units and Groups within " + area.getAreaCount()
+					+ " areas of interest, indexed in " + area.getCellCount() + " cells of " + area.getCellSize()
+					+ " degrees");
+		}
+
+		outputMode = GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_MODE);
+		if (GatewayProperties.OUTPUT_MODE_TILE.equals(outputMode)) {
+			int tileZoom = Integer
+					.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TILES_ZOOM));
+			itemTiles = new TileIndex(tileZoom);
+			logger.info("Sending XVR Items, Units and Groups in one collection per dirty tile of zoom level "
+					+ tileZoom);
+		} else if (GatewayProperties.OUTPUT_MODE_ENTITY.equals(outputMode)) {
+			logger.info("Sending XVR Items, Units and Groups as one record per entity, keyed by guid");
+		}
+
+		int keyframeInterval = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_KEYFRAME_INTERVAL));
+		if (keyframeInterval > 0) {
+			itemDeltas = new DeltaEncoder(keyframeInterval);
+			unitDeltas = new DeltaEncoder(keyframeInterval);
+			groupDeltas = new DeltaEncoder(keyframeInterval);
+			logger.info("Sending a keyframe of XVR Items, Units and Groups every " + keyframeInterval
+					+ " windows, and deltas in between");
+		}
+
+		// in event loop mode the flushes run on the owner thread, where they stay
+		// in flight until the report is built, so the flushes of a stream never
+		// overlap and their snapshots are sent in order
+		if (itemOutput != null) {
+			itemFlush = new FlushScheduler(reportingScheduler, eventLoop, new ItemReportingTask(), freq, flushSize,
+					flushGap);
+			itemFlush.start();
+		}
+		if (unitOutput != null) {
+			unitFlush = new FlushScheduler(reportingScheduler, eventLoop, new UnitReportingTask(), freq, flushSize,
+					flushGap);
+			unitFlush.start();
+		}
+		if (groupOutput != null) {
+			groupFlush = new FlushScheduler(reportingScheduler, eventLoop, new GroupReportingTask(), freq, flushSize,
+					flushGap);
+			groupFlush.start();
+		}
+		String checkpointDir = GatewayProperties.getInstance().getProperty(GatewayProperties.CHECKPOINT_DIR);
+		if (!checkpointDir.trim().isEmpty()) {
+			int checkpointSize = Integer
+					.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.CHECKPOINT_SIZE));
+			long checkpointInterval = Long
+					.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.CHECKPOINT_INTERVAL));
+			snapshotInterval = Long.parseLong(
+					GatewayProperties.getInstance().getProperty(GatewayProperties.CHECKPOINT_SNAPSHOT_INTERVAL));
+			checkpoint = new StateCheckpoint(new File(checkpointDir, name + ".checkpoint"), checkpointSize);
+			RestoreTask restore = new RestoreTask();
+			if (eventLoop != null) {
+				// ahead of all messages, which are only received after construction
+				eventLoop.submit(restore);
+			} else {
+				restore.run();
+			}
+			reportingScheduler.scheduleAtFixedRate(new CheckpointTask(), checkpointInterval, checkpointInterval,
+					TimeUnit.MILLISECONDS);
+		}
+		reportingScheduler.scheduleAtFixedRate(new PendingConnectionTask(), freq, freq, TimeUnit.MILLISECONDS);
+		reportingScheduler.scheduleAtFixedRate(new EvictionTask(), evictionInterval, evictionInterval,
+				TimeUnit.MILLISECONDS);
+
+		List<String> streams = new ArrayList<>();
+		if (itemOutput != null) {
+			streams.add("Items");
+		}
+		if (unitOutput != null) {
+			streams.add("Units");
+		}
+		if (groupOutput != null) {
+			streams.add("Groups");
+		}
+		logger.info("Start Converting XVR " + streams + " to GeoJSON in " + name + " every " + freq
+				+ " milliseconds or " + flushSize + " updates, at most every " + flushGap + " milliseconds (windowed, "
+				+ (eventLoop != null ? GatewayProperties.CONVERTER_MODE_EVENTLOOP
+						: GatewayProperties.CONVERTER_MODE_LOCKING)
+				+ " mode)");
+	}
 
-		logger.info(
-				"Start Converting XVR Items, Units and Groups to GeoJSON every " + freq + " milliseconds (windowed)");
+	public void messageReceived(IndexedRecord key, final IndexedRecord message) {
+		if (eventLoop != null) {
+			// all state mutations are applied by the owner thread of the event loop
+			eventLoop.submit(new Runnable() {
+				@Override
+				public void run() {
+					processMessage(message);
+				}
+			});
+		} else {
+			processMessage(message);
+		}
 	}
 
-	public void messageReceived(IndexedRecord key, IndexedRecord message) {
+	private void processMessage(IndexedRecord message) {
 		if (message instanceof Item) {
 			processItem((Item) message);
 		}
@@ -87,305 +323,1292 @@ public class XVRItemUnitGroupConverter implements IAdaptorCallback {
 			logger.info("Received Unit Connection: " + message);
 		}
 		if (message instanceof ObjectDeleted) {
-			processObjectDeletion((ObjectDeleted) message);
+			processObjectDeletion(((ObjectDeleted) message).getGuid());
 		}
 	}
 
 	private void processItem(Item item) {
+		int itemId = guids.intern(item.getGuid());
+		long now = System.currentTimeMillis();
+		Item previous;
 		synchronized (items) {
-			items.put(item.getGuid(), item);
+			previous = items.put(itemId, item);
+		}
+		if (itemTiles != null && (previous == null || previous.getLocation().getLongitude() != item.getLocation()
+				.getLongitude() || previous.getLocation().getLatitude() != item.getLocation().getLatitude())) {
+			// the tile only needs to be assigned again when the item moved
+			itemTiles.update(itemId, item.getLocation().getLongitude(), item.getLocation().getLatitude());
+		}
+		itemActivity.touch(itemId, now);
+		journal(itemId, item);
+
+		if (itemFlush != null && item.getVisibleForParticipant() && item.getScenarioLabel() instanceof RescueLabel) {
+			itemFlush.updated(itemUpdates.put(itemId, item));
 		}
 
-		synchronized (itemUpdates) {
-			if (item.getVisibleForParticipant() && item.getScenarioLabel() instanceof RescueLabel) {
-				itemUpdates.put(item.getGuid(), item);
+		int unitId;
+		synchronized (mainItemUnits) {
+			unitId = mainItemUnits.get(itemId);
+		}
+		if (unitId != IntIntMap.NO_VALUE) {
+			if (unitFlush != null) {
+				Unit unit;
+				synchronized (units) {
+					unit = units.get(unitId);
+				}
+				// the unit may have been removed since its main item was looked up
+				if (unit != null) {
+					unitFlush.updated(unitUpdates.put(unitId, unit));
+				}
 			}
-			if (itemUpdates.size() >= 100) {
-				reportingScheduler.schedule(new ItemReportingTask(), 0, TimeUnit.MILLISECONDS);
+			unitActivity.touch(unitId, now);
+			// item -> unit -> root, so sub-units refresh the group they belong to
+			markGroupDirty(unitId);
+			if (groupStage != null) {
+				// the group stage only sees the items that are the main item of a unit
+				groupStage.messageReceived(null, item);
 			}
 		}
+	}
 
-		Unit unit = null;
-		synchronized (unitMainItemMap) {
-			unit = unitMainItemMap.get(item.getGuid());
+	private void processUnit(Unit unit) {
+		int unitId = guids.intern(unit.getGuid());
+		int mainItemId = guids.intern(unit.getMainItem());
+		synchronized (units) {
+			units.put(unitId, unit);
 		}
-		if (unit != null) {
-			synchronized (unitUpdates) {
-				unitUpdates.put(unit.getGuid(), unit);
+		unitActivity.touch(unitId, System.currentTimeMillis());
+		journal(unitId, unit);
+		synchronized (mainItemUnits) {
+			int previousMainItemId = unitMainItems.put(unitId, mainItemId);
+			if (previousMainItemId != IntIntMap.NO_VALUE && previousMainItemId != mainItemId) {
+				mainItemUnits.remove(previousMainItemId);
 			}
-			synchronized (groupUpdateLock) {
-				synchronized (unitConnectionGraph) {
-					UnitConnectionGraph.Unit ucUnit = unitConnectionGraph.getUnit(unit.getGuid());
+			mainItemUnits.put(mainItemId, unitId);
+		}
+		List<PendingConnections.Pending> resolved;
+		synchronized (unitConnectionGraph) {
+			unitConnectionGraph.addUnit(unitId);
+			resolved = pendingConnections.resolve(unitId);
+		}
+		if (unitFlush != null) {
+			unitFlush.updated(unitUpdates.put(unitId, unit));
+		}
+		markGroupDirty(unitId);
+		if (groupStage != null) {
+			Item mainItem = getMainItem(unitId);
+			if (mainItem != null) {
+				groupStage.messageReceived(null, mainItem);
+			}
+		}
+		// connections that were only waiting for this unit
+		for (PendingConnections.Pending pending : resolved) {
+			connect(pending.getConnectionId(), pending.getMainUnitId(), pending.getSubUnitId(),
+					pending.getReceived());
+		}
+	}
 
-					// TODO: move this to the reporting task?
-					if (!ucUnit.hasParent() && ucUnit.hasChildren()) {
-						synchronized (groupUpdates) {
-							groupUpdates.put(unit.getGuid(), unit);
-						}
-					}
+	/**
+	 * Journals the latest item, unit or connection for the next checkpoint.
+	 * Nothing is journaled while the checkpoint itself is restored, as its
+	 * records are already in the file.
+	 */
+	private void journal(int id, Object record) {
+		if (checkpoint == null || restoring) {
+			return;
+		}
+		synchronized (journal) {
+			journal.put(id, record);
+		}
+	}
+
+	/**
+	 * @param groupGuid
+	 *            guid of the group of the root unit, empty if it was dropped
+	 */
+	private void journalGroup(int rootId, CharSequence rootUnit, CharSequence groupGuid) {
+		if (checkpoint == null || restoring) {
+			return;
+		}
+		synchronized (journal) {
+			groupJournal.put(rootId, new CharSequence[] { rootUnit, groupGuid });
+		}
+	}
+
+	/**
+	 * Journals the deletion in place of the last update of the entity. Both
+	 * happen under the journal lock the checkpoint task takes its batch under,
+	 * so a deletion and a later re-creation are never split over two batches
+	 * in the wrong order.
+	 */
+	private void journalDeletion(int id, CharSequence guid) {
+		if (checkpoint == null || restoring) {
+			return;
+		}
+		synchronized (journal) {
+			journal.remove(id);
+			addRemoval(deletionJournal, guid);
+		}
+	}
+
+	/**
+	 * Marks the group of the hierarchy the unit belongs to for reporting. The
+	 * root is looked up in the root index of the connection graph, so this is
+	 * cheap enough to be done for every item update.
+	 */
+	private void markGroupDirty(int unitId) {
+		if (groupFlush == null) {
+			return;
+		}
+		int rootId;
+		synchronized (unitConnectionGraph) {
+			rootId = unitConnectionGraph.getRoot(unitId);
+			if (rootId < 0 || !unitConnectionGraph.getUnit(rootId).hasChildren()) {
+				return;
+			}
+		}
+		Unit root;
+		synchronized (units) {
+			root = units.get(rootId);
+		}
+		if (root != null) {
+			groupFlush.updated(groupUpdates.put(rootId, root));
+		}
+	}
+
+	private void processUnitConnection(UnitConnection unitConnection) {
+		int connectionId = guids.intern(unitConnection.getGuid());
+		journal(connectionId, new CharSequence[] { unitConnection.getGuid(), unitConnection.getMainUnit(),
+				unitConnection.getSubUnit() });
+		connect(connectionId, guids.intern(unitConnection.getMainUnit()), guids.intern(unitConnection.getSubUnit()),
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * Adds the connection to the graph, or parks it until its missing unit
+	 * arrives.
+	 */
+	private void connect(int connectionId, int mainUnitId, int subUnitId, long received) {
+		int formerRoot;
+		synchronized (unitConnectionGraph) {
+			if (!unitConnectionGraph.hasUnit(mainUnitId)) {
+				pendingConnections.add(mainUnitId, connectionId, mainUnitId, subUnitId, received);
+				return;
+			}
+			if (!unitConnectionGraph.hasUnit(subUnitId)) {
+				pendingConnections.add(subUnitId, connectionId, mainUnitId, subUnitId, received);
+				return;
+			}
+			pendingConnections.cancel(connectionId);
+			formerRoot = unitConnectionGraph.getRoot(subUnitId);
+			unitConnectionGraph.addConnection(connectionId, mainUnitId, subUnitId);
+		}
+		// the group the sub unit moved into, and the one it may have left or
+		// merged into the new group
+		markGroupDirty(mainUnitId);
+		markGroupDirty(formerRoot);
+		checkGroupDissolved(formerRoot, true);
+	}
+
+	/**
+	 * Drops the group of the unit if the unit no longer is the root of a
+	 * hierarchy with children.
+	 */
+	private void checkGroupDissolved(int rootId, boolean marker) {
+		synchronized (unitConnectionGraph) {
+			UnitConnectionGraph.Unit graphUnit = unitConnectionGraph.getUnit(rootId);
+			if (graphUnit == null || (graphUnit.hasChildren() && !graphUnit.hasParent())) {
+				return;
+			}
+		}
+		Unit root;
+		synchronized (units) {
+			root = units.get(rootId);
+		}
+		if (root != null) {
+			dropGroup(rootId, root, getMainItem(rootId), marker);
+		}
+	}
+
+	private void dropGroup(int rootId, Unit root, Item mainItem, boolean marker) {
+		CharSequence groupGuid;
+		synchronized (groupGuids) {
+			groupGuid = groupGuids.remove(rootId);
+		}
+		if (groupGuid != null) {
+			journalGroup(rootId, root.getGuid(), "");
+		}
+		groupUpdates.remove(rootId);
+		groupProperties.remove(rootId);
+		if (groupDeltas != null) {
+			groupDeltas.forget(rootId);
+		}
+		if (groupArea != null) {
+			groupArea.forget(rootId);
+		}
+		if (marker && groupFlush != null && groupGuid != null) {
+			addRemoval(groupRemovals, RemovalMarker.newFeature(groupGuid, root.getName() + "-group",
+					TypeEnum.UNITGROUP, mainItem != null ? mainItem.getLocation() : null));
+		} else if (groupOutput != null && groupGuid != null) {
+			forgetSent(groupOutput, groupSendExecutor, groupGuid);
+		}
+	}
+
+	@Override
+	public void evict(final CharSequence guid) {
+		Runnable eviction = new Runnable() {
+			@Override
+			public void run() {
+				int id = guids.lookup(guid);
+				if (id < 0) {
+					return;
+				}
+				boolean item;
+				synchronized (items) {
+					item = items.containsKey(id);
+				}
+				// the entity is owned by another instance now, so it must not come
+				// back with a restore either
+				if (item) {
+					journalDeletion(id, guid);
+					removeItem(id, false);
+				} else {
+					evictUnit(id);
 				}
 			}
+		};
+		if (eventLoop != null) {
+			eventLoop.submit(eviction);
+		} else {
+			eviction.run();
 		}
 	}
 
-	private void processUnit(Unit unit) {
+	@Override
+	public void setReporting(boolean reporting) {
+		this.reporting = reporting;
+	}
+
+	/**
+	 * @return the number of unit connections waiting for one of their units
+	 */
+	public int getPendingConnectionCount() {
+		synchronized (unitConnectionGraph) {
+			return pendingConnections.size();
+		}
+	}
+
+	private void processObjectDeletion(CharSequence guid) {
+		int id = guids.lookup(guid);
+		if (id < 0) {
+			return; // never seen, so nothing to delete
+		}
+		journalDeletion(id, guid);
+		// the checkpoint journals evictions as deletions too, and the markers of
+		// deletions before the restart were reported by the former run
+		boolean marker = !restoring;
+		boolean known;
+		synchronized (items) {
+			known = items.containsKey(id);
+		}
+		if (known) {
+			removeItem(id, marker);
+			return;
+		}
 		synchronized (units) {
-			units.put(unit.getGuid(), unit);
+			known = units.containsKey(id);
 		}
-		synchronized (unitMainItemMap) {
-			unitMainItemMap.put(unit.getMainItem(), unit);
+		if (known) {
+			removeUnit(id, marker);
+			return;
 		}
+		int formerRoot = -1;
+		int child = -1;
+		PendingConnections.Pending cancelled;
 		synchronized (unitConnectionGraph) {
-			unitConnectionGraph.addUnit(unit.getGuid());
+			cancelled = pendingConnections.get(id);
+			if (cancelled != null) {
+				pendingConnections.cancel(id);
+			}
+			if (unitConnectionGraph.hasConnection(id)) {
+				child = unitConnectionGraph.getConnection(id).getChild();
+				formerRoot = unitConnectionGraph.getRoot(child);
+				unitConnectionGraph.removeConnection(id);
+			}
+		}
+		if (cancelled != null) {
+			releaseDropped(Collections.singletonList(cancelled));
 		}
-		synchronized (unitUpdates) {
-			unitUpdates.put(unit.getGuid(), unit);
+		if (child >= 0) {
+			// both the group that lost the subtree and the subtree itself changed
+			markGroupDirty(formerRoot);
+			markGroupDirty(child);
+			checkGroupDissolved(formerRoot, marker);
 		}
 	}
 
-	private void processUnitConnection(UnitConnection unitConnection) {
-		synchronized (connectionUpdates) {
-			connectionUpdates.add(unitConnection);
+	/**
+	 * Removes the item from all indexes. Its id is kept as long as a unit refers
+	 * to it as main item.
+	 *
+	 * @param marker
+	 *            true to report the removal downstream
+	 */
+	private void removeItem(int itemId, boolean marker) {
+		Item item;
+		synchronized (items) {
+			item = items.remove(itemId);
+		}
+		itemActivity.remove(itemId);
+		if (item == null) {
+			return;
+		}
+		itemUpdates.remove(itemId);
+		itemProperties.remove(itemId);
+		if (itemDeltas != null) {
+			itemDeltas.forget(itemId);
+		}
+		if (itemTiles != null) {
+			itemTiles.remove(itemId);
+		}
+		if (movementFilter != null) {
+			movementFilter.forget(itemId);
+		}
+		if (reportingRates != null) {
+			reportingRates.forget(itemId);
+		}
+		if (itemArea != null) {
+			itemArea.forget(itemId);
+		}
+		if (marker && itemFlush != null && item.getVisibleForParticipant() && item.getScenarioLabel() instanceof RescueLabel) {
+			addRemoval(itemRemovals,
+					RemovalMarker.newFeature(item.getGuid(), item.getName(), getItemType(item), item.getLocation()));
+		} else if (itemOutput != null) {
+			forgetSent(itemOutput, itemSendExecutor, item.getGuid());
+		}
+		int unitId;
+		synchronized (mainItemUnits) {
+			unitId = mainItemUnits.get(itemId);
+		}
+		if (unitId == IntIntMap.NO_VALUE) {
+			guids.release(itemId);
+		}
+	}
+
+	/**
+	 * Removes the unit from all indexes and the connection graph. Its children
+	 * become the roots of their own groups, and the group it was the root of is
+	 * dropped.
+	 *
+	 * @param marker
+	 *            true to report the removal downstream
+	 */
+	private void removeUnit(int unitId, boolean marker) {
+		Unit unit;
+		synchronized (units) {
+			unit = units.remove(unitId);
+		}
+		unitActivity.remove(unitId);
+		if (unit == null) {
+			return;
+		}
+		unitUpdates.remove(unitId);
+		unitProperties.remove(unitId);
+		if (unitDeltas != null) {
+			unitDeltas.forget(unitId);
+		}
+		if (unitArea != null) {
+			unitArea.forget(unitId);
+		}
+		Item mainItem = getMainItem(unitId);
+		int mainItemId;
+		synchronized (mainItemUnits) {
+			mainItemId = unitMainItems.remove(unitId);
+			if (mainItemUnits.get(mainItemId) == unitId) {
+				mainItemUnits.remove(mainItemId);
+			}
+		}
+		int formerRoot;
+		int[] children;
+		List<PendingConnections.Pending> cancelled;
+		synchronized (unitConnectionGraph) {
+			formerRoot = unitConnectionGraph.getRoot(unitId);
+			children = unitConnectionGraph.removeUnit(unitId);
+			cancelled = pendingConnections.cancelForUnit(unitId);
+		}
+		dropGroup(unitId, unit, mainItem, marker);
+		if (formerRoot != unitId) {
+			markGroupDirty(formerRoot);
+			checkGroupDissolved(formerRoot, marker);
+		}
+		for (int child : children) {
+			markGroupDirty(child);
+		}
+		// with partitioned items only the instance of the main item reported the unit
+		if (marker && unitFlush != null && (!partitioned || mainItem != null)) {
+			addRemoval(unitRemovals, RemovalMarker.newFeature(unit.getGuid(), unit.getName(), TypeEnum.UNIT,
+					mainItem != null ? mainItem.getLocation() : null));
+		} else if (unitOutput != null) {
+			forgetSent(unitOutput, unitSendExecutor, unit.getGuid());
+		}
+		guids.release(unitId);
+		releaseDropped(cancelled);
+		if (mainItem == null && mainItemId != IntIntMap.NO_VALUE) {
+			synchronized (mainItemUnits) {
+				if (mainItemUnits.get(mainItemId) != IntIntMap.NO_VALUE) {
+					return;
+				}
+			}
+			// the main item is gone or never arrived, so nothing else refers to its id
+			guids.release(mainItemId);
+		}
+	}
+
+	/**
+	 * Removes the unit like {@link #removeUnit(int, boolean)} without a marker,
+	 * but parks its connections until it arrives again instead of dropping them,
+	 * as XVR only sends connections when they change. The eviction is journaled
+	 * as a deletion followed by the parked connections, so a restore does not
+	 * bring the unit back.
+	 */
+	private void evictUnit(int unitId) {
+		synchronized (units) {
+			if (!units.containsKey(unitId)) {
+				return;
+			}
+		}
+		CharSequence guid = guids.getGuid(unitId);
+		List<CharSequence[]> connections = new ArrayList<>();
+		long[] received;
+		long now = System.currentTimeMillis();
+		synchronized (unitConnectionGraph) {
+			int[] connectionIds = unitConnectionGraph.getConnectionIds(unitId);
+			for (int connectionId : connectionIds) {
+				connections.add(new CharSequence[] { guids.getGuid(connectionId),
+						guids.getGuid(unitConnectionGraph.getConnection(connectionId).getParent()),
+						guids.getGuid(unitConnectionGraph.getConnection(connectionId).getChild()) });
+			}
+			List<PendingConnections.Pending> pending = pendingConnections.isReferenced(unitId)
+					? pendingConnections.getPending() : Collections.<PendingConnections.Pending> emptyList();
+			received = new long[connectionIds.length + pending.size()];
+			Arrays.fill(received, 0, connectionIds.length, now);
+			for (PendingConnections.Pending connection : pending) {
+				if (connection.getMainUnitId() == unitId || connection.getSubUnitId() == unitId) {
+					received[connections.size()] = connection.getReceived();
+					connections.add(new CharSequence[] { guids.getGuid(connection.getConnectionId()),
+							guids.getGuid(connection.getMainUnitId()), guids.getGuid(connection.getSubUnitId()) });
+				}
+			}
+		}
+		removeUnit(unitId, false);
+		journalDeletion(unitId, guid);
+		for (int i = 0; i < connections.size(); i++) {
+			CharSequence[] connection = connections.get(i);
+			int connectionId = guids.intern(connection[0]);
+			journal(connectionId, connection);
+			connect(connectionId, guids.intern(connection[1]), guids.intern(connection[2]), received[i]);
+		}
+	}
+
+	/**
+	 * Releases the ids of pending connections that were dropped, and those of
+	 * their units unless a unit, an item or another pending connection still
+	 * refers to them, so the ids of units that never arrived do not leak.
+	 */
+	private void releaseDropped(List<PendingConnections.Pending> dropped) {
+		for (PendingConnections.Pending pending : dropped) {
+			guids.release(pending.getConnectionId());
+			releaseIfUnreferenced(pending.getMainUnitId());
+			releaseIfUnreferenced(pending.getSubUnitId());
 		}
 	}
 
-	private void processObjectDeletion(ObjectDeleted deletion) {
-		// for now only attempt to delete connections
+	private void releaseIfUnreferenced(int id) {
+		synchronized (units) {
+			if (units.containsKey(id)) {
+				return;
+			}
+		}
+		synchronized (items) {
+			if (items.containsKey(id)) {
+				return;
+			}
+		}
+		synchronized (mainItemUnits) {
+			if (mainItemUnits.get(id) != IntIntMap.NO_VALUE) {
+				return;
+			}
+		}
 		synchronized (unitConnectionGraph) {
-			if (unitConnectionGraph.hasConnection(deletion.getGuid())) {
-				unitConnectionGraph.removeConnection(deletion.getGuid());
+			if (unitConnectionGraph.hasUnit(id) || pendingConnections.isReferenced(id)) {
+				return;
+			}
+		}
+		guids.release(id);
+	}
+
+	/**
+	 * Tells the output of a stream that an entity is gone without a removal
+	 * marker, after the reports that are still being sent.
+	 */
+	private void forgetSent(final FeatureOutput output, Executor sendExecutor, CharSequence guid) {
+		final String key = guid.toString();
+		if (sendExecutor != null) {
+			sendExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					output.forget(key);
+				}
+			});
+		} else {
+			output.forget(key);
+		}
+	}
+
+	private <T> void addRemoval(List<T> removals, T removal) {
+		synchronized (removals) {
+			removals.add(removal);
+		}
+	}
+
+	/**
+	 * @return the removals queued since the last report
+	 */
+	private <T> List<T> takeRemovals(List<T> removals) {
+		synchronized (removals) {
+			if (removals.isEmpty()) {
+				return Collections.emptyList();
 			}
+			List<T> taken = new ArrayList<>(removals);
+			removals.clear();
+			return taken;
+		}
+	}
 
-			// TODO: check parent and child if valid group -> if so report
+	/**
+	 * Sends removal markers when there are no updates to report them with.
+	 */
+	private void reportRemovals(FeatureOutput output, DeltaEncoder deltas, Executor sendExecutor,
+			List<Feature> removals, String entities) {
+		if (removals.isEmpty()) {
+			return;
 		}
-		// entities that are removed should stop being reported automatically
+		FeatureSender sender = newSender(output, deltas, sendExecutor);
+		addRemovals(sender, removals);
+		int chunks = sender.finish();
+		logger.info("Reported removal of " + removals.size() + " " + entities + " in " + chunks + " collections");
 	}
 
-	private class UnitConnectionTask implements Runnable {
+	/**
+	 * In event loop mode a task started by the scheduler is handed over to the
+	 * owner thread, so that it reads the converter state from that thread only.
+	 * 
+	 * @return true if the task was handed over and should not run on the calling
+	 *         thread
+	 */
+	private boolean handOverToEventLoop(Runnable task) {
+		if (eventLoop != null && !eventLoop.isOwnerThread()) {
+			eventLoop.submit(task);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a sender for one report. In event loop mode the owner thread only
+	 * produces the report snapshot and sending is left to the reporting threads.
+	 * 
+	 * @param deltas
+	 *            encoder of the stream, to mark the collections with its current
+	 *            window, or null
+	 * @param sendExecutor
+	 *            serial executor of the stream, or null to send from the calling
+	 *            thread
+	 */
+	private FeatureSender newSender(FeatureOutput output, DeltaEncoder deltas, Executor sendExecutor) {
+		if (deltas != null) {
+			output = new FramedOutput(output, deltas.isKeyframe(), deltas.getWindow());
+		}
+		if (GatewayProperties.OUTPUT_MODE_ENTITY.equals(outputMode)) {
+			return new EntityFeatureSender(output);
+		}
+		if (itemTiles != null) {
+			return new TiledFeatureSender(output, itemTiles, chunkFeatures, chunkBytes, sendExecutor);
+		}
+		return new ChunkedFeatureSender(output, chunkFeatures, chunkBytes, sendExecutor);
+	}
+
+	private void addRemovals(FeatureSender sender, List<Feature> removals) {
+		for (Feature marker : removals) {
+			// removed entities are no longer in the tile index
+			sender.add(marker, getFeatureTile(marker));
+		}
+	}
+
+	/**
+	 * @return the feature to send for the entity, its delta in a delta window
+	 */
+	private Feature encode(DeltaEncoder deltas, int id, Feature feature) {
+		return deltas != null ? deltas.encode(id, feature) : feature;
+	}
+
+	/**
+	 * Completes a keyframe with the last features of the entities that were not
+	 * updated in its window, leaving out the ones that left the area of
+	 * interest.
+	 */
+	private void addUnchanged(FeatureSender sender, DeltaEncoder deltas, AreaOfInterestFilter area) {
+		IntObjectMap<Feature>.Cursor cursor = deltas.getUnchanged().cursor();
+		while (cursor.next()) {
+			if (area == null || area.isInside(cursor.key())) {
+				sender.add(cursor.value(), getFeatureTile(cursor.value()));
+			}
+		}
+	}
+
+	/**
+	 * @return the tile of the geometry of the feature, or -1 if output is not
+	 *         partitioned by tile
+	 */
+	private int getFeatureTile(Feature feature) {
+		if (itemTiles == null) {
+			return TileIndex.NO_TILE;
+		}
+		List<Double> lonLatAlt = ((Point) feature.getGeometry()).getCoordinates();
+		return itemTiles.getTile(lonLatAlt.get(0), lonLatAlt.get(1));
+	}
+
+	/**
+	 * Starts the next report window of a stream.
+	 * 
+	 * @return true if the window is a keyframe
+	 */
+	private boolean startWindow(DeltaEncoder deltas) {
+		if (deltas == null) {
+			return false;
+		}
+		deltas.nextWindow();
+		return deltas.isKeyframe();
+	}
+
+	/**
+	 * @return the tile of the main item of the unit, or -1 if not known
+	 */
+	private int getUnitTile(int unitId) {
+		if (itemTiles == null) {
+			return TileIndex.NO_TILE;
+		}
+		int mainItemId;
+		synchronized (mainItemUnits) {
+			mainItemId = unitMainItems.get(unitId);
+		}
+		return mainItemId == IntIntMap.NO_VALUE ? TileIndex.NO_TILE : itemTiles.get(mainItemId);
+	}
+
+	/**
+	 * @return the current main item of the unit, or null if it is not known yet
+	 */
+	private Item getMainItem(int unitId) {
+		int mainItemId;
+		synchronized (mainItemUnits) {
+			mainItemId = unitMainItems.get(unitId);
+		}
+		synchronized (items) {
+			return items.get(mainItemId);
+		}
+	}
+
+	private class PendingConnectionTask implements Runnable {
+		@Override
+		public void run() {
+			if (handOverToEventLoop(this)) {
+				return;
+			}
+			List<PendingConnections.Pending> expired;
+			int pending;
+			synchronized (unitConnectionGraph) {
+				expired = pendingConnections.expire(System.currentTimeMillis() - pendingConnectionTtl);
+				pending = pendingConnections.size();
+			}
+			releaseDropped(expired);
+			if (!expired.isEmpty()) {
+				logger.info("Expired " + expired.size() + " Unit Connections of which a unit did not arrive within "
+						+ pendingConnectionTtl + " milliseconds, " + pending + " still pending");
+			}
+		}
+	}
+
+	private class UnitReportingTask implements Runnable {
+
+		// reused for every feature, build() copies the values into a new record
+		private Feature.Builder featureBuilder = Feature.newBuilder();
+		private SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
+		/** units waiting for their main item, which is only logged once per unit */
+		private IntIntMap waitingForMainItem = new IntIntMap();
+
+		@Override
+		public void run() {
+			if (!reporting || handOverToEventLoop(this)) {
+				return;
+			}
+			// removals are taken first and sent ahead of the updates, so an entity
+			// that is created again after its removal is not removed downstream
+			List<Feature> removals = takeRemovals(unitRemovals);
+			IntObjectMap<Unit> snapshot = unitUpdates.swap();
+			boolean keyframe = startWindow(unitDeltas);
+			if (snapshot == null && !keyframe) {
+				reportRemovals(unitOutput, unitDeltas, unitSendExecutor, removals, "XVR Units");
+				return;
+			}
+			IntObjectMap<Unit> failedUpdates = new IntObjectMap<>();
+			FeatureSender sender = newSender(unitOutput, unitDeltas, unitSendExecutor);
+			addRemovals(sender, removals);
+
+			IntObjectMap<Unit>.Cursor cursor = snapshot != null ? snapshot.cursor() : null;
+			while (cursor != null && cursor.next()) {
+				Unit unit = cursor.value();
+
+				Item mainItem = getMainItem(cursor.key());
+				if (mainItem != null && unitArea != null && !unitArea.accept(cursor.key(),
+						mainItem.getLocation().getLongitude(), mainItem.getLocation().getLatitude())) {
+					continue;
+				}
+				if (mainItem != null) {
+					featureBuilder.setGeometry(new Point(PointType.Point, getLonLatAlt(mainItem)));
+
+					String label;
+					Object scenLabel = mainItem.getScenarioLabel();
+					if (!(scenLabel instanceof RescueLabel)) {
+						label = "UNKNOWN";
+						logger.warn("Main Item of the Unit with guid " + unit.getGuid() + " is not of type Rescue!");
+					} else {
+						RescueLabel rescueLabel = (RescueLabel) scenLabel;
+						label = rescueLabel.getSubLabel().name();
+					}
+
+					// main item guid first, then the sub entities
+					unitProperties.get(cursor.key(), unit.getGuid(), unit.getName(), label, TypeEnum.UNIT,
+							mainItem.getGuid(), unit.getSubItems()).applyTo(entityProperties);
+
+					featureBuilder.setProperties(entityProperties.build());
+
+					sender.add(encode(unitDeltas, cursor.key(), featureBuilder.build()), getUnitTile(cursor.key()));
+					if (waitingForMainItem.size() > 0) {
+						waitingForMainItem.remove(cursor.key());
+					}
+				} else if (!partitioned) {
+					if (waitingForMainItem.put(cursor.key(), 1) == IntIntMap.NO_VALUE) {
+						logger.info("Unable to report Unit: " + unit.getGuid()
+								+ " because main item not known. Trying again later!");
+					}
+					failedUpdates.put(cursor.key(), unit);
+				}
+			}
+			// failed units are carried over unless a newer update arrived meanwhile
+			// or the unit was removed
+			IntObjectMap<Unit>.Cursor failed = failedUpdates.cursor();
+			while (failed.next()) {
+				synchronized (units) {
+					if (!units.containsKey(failed.key())) {
+						waitingForMainItem.remove(failed.key());
+						continue;
+					}
+				}
+				unitUpdates.putIfAbsent(failed.key(), failed.value());
+			}
+			if (snapshot != null) {
+				unitUpdates.recycle(snapshot);
+			}
+			if (keyframe) {
+				addUnchanged(sender, unitDeltas, unitArea);
+			}
+
+			int chunks = sender.finish();
+			logger.info("Reported " + sender.getFeatureCount() + " XVR Units as GeoJSON Features in " + chunks
+					+ " collections (" + removals.size() + " removed)");
+		}
+	}
+
+	private class ItemReportingTask implements Runnable {
+
+		// reused for every feature, build() copies the values into a new record
+		private Feature.Builder featureBuilder = Feature.newBuilder();
+		private SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
+
+		// items that were not due yet, carried over to the next flush
+		private IntObjectMap<Item> deferred = new IntObjectMap<>();
+
 		@Override
 		public void run() {
-			synchronized (connectionUpdates) {
-				List<UnitConnection> failedUpdates = new LinkedList<>();
-				while (connectionUpdates.size() > 0) {
-					UnitConnection connection = connectionUpdates.poll();
-					// attempt to create connection
-					synchronized (groupUpdateLock) {
-						synchronized (unitConnectionGraph) {
-							if (unitConnectionGraph.hasUnit(connection.getMainUnit())
-									&& unitConnectionGraph.hasUnit(connection.getSubUnit())) {
-								unitConnectionGraph.addConnection(connection.getGuid(), connection.getMainUnit(),
-										connection.getSubUnit());
-
-								UnitConnectionGraph.Unit ucUnit = unitConnectionGraph.getUnit(connection.getMainUnit());
-								if (!ucUnit.hasParent() && ucUnit.hasChildren()) {
-									synchronized (groupUpdates) {
-										groupUpdates.put(connection.getMainUnit(), units.get(connection.getMainUnit()));
-									}
-								}
-							} else {
-								failedUpdates.add(connection); // if unable, add to failed updates
-								logger.info("Unable to create connection: " + connection.getGuid()
-										+ " because parent or child unit not known. Trying again later!");
-							}
+			if (!reporting || handOverToEventLoop(this)) {
+				return;
+			}
+			List<Feature> removals = takeRemovals(itemRemovals);
+			IntObjectMap<Item> snapshot = itemUpdates.swap();
+			boolean keyframe = startWindow(itemDeltas);
+			if (snapshot == null && deferred.isEmpty() && !keyframe) {
+				reportRemovals(itemOutput, itemDeltas, itemSendExecutor, removals, "XVR Items");
+				return;
+			}
+			FeatureSender sender = newSender(itemOutput, itemDeltas, itemSendExecutor);
+			addRemovals(sender, removals);
+			long now = System.currentTimeMillis();
+			int suppressed = 0;
+			int outside = 0;
+
+			IntObjectMap<Item> candidates = snapshot != null ? snapshot : new IntObjectMap<Item>();
+			if (!deferred.isEmpty()) {
+				// deferred items are superseded by newer updates, and dropped if the
+				// item was removed meanwhile
+				IntObjectMap<Item>.Cursor deferredCursor = deferred.cursor();
+				synchronized (items) {
+					while (deferredCursor.next()) {
+						if (items.get(deferredCursor.key()) == deferredCursor.value()) {
+							candidates.putIfAbsent(deferredCursor.key(), deferredCursor.value());
 						}
 					}
 				}
-				connectionUpdates.addAll(failedUpdates); // reschedule failed connection attempts
+				deferred.clear();
+			}
+
+			IntObjectMap<Item>.Cursor cursor = candidates.cursor();
+			while (cursor.next()) {
+				Item item = cursor.value();
+
+				if (reportingRates != null && !reportingRates.isDue(cursor.key(), item.getVelocity().getMagnitude(),
+						getItemType(item), item.getLocation().getLongitude(), item.getLocation().getLatitude(),
+						item.getLocation().getAltitude(), now)) {
+					deferred.put(cursor.key(), item);
+					continue;
+				}
+
+				if (movementFilter != null && !movementFilter.shouldReport(cursor.key(),
+						item.getLocation().getLongitude(), item.getLocation().getLatitude(),
+						item.getLocation().getAltitude(), item.getVelocity().getMagnitude(), now)) {
+					suppressed++;
+					continue;
+				}
+
+				// last, so the single update of an item leaving the area is not deferred
+				if (itemArea != null && !itemArea.accept(cursor.key(), item.getLocation().getLongitude(),
+						item.getLocation().getLatitude())) {
+					outside++;
+					continue;
+				}
+
+				featureBuilder.setGeometry(new Point(PointType.Point, getLonLatAlt(item)));
+
+				RescueLabel rescueLabel = (RescueLabel) item.getScenarioLabel();
+				itemProperties.get(cursor.key(), item.getGuid(), item.getName(), rescueLabel.getSubLabel().name(),
+						getItemType(item), null, null).applyTo(entityProperties);
+				entityProperties.setSpeed(item.getVelocity().getMagnitude());
+
+				featureBuilder.setProperties(entityProperties.build());
+
+				sender.add(encode(itemDeltas, cursor.key(), featureBuilder.build()),
+						itemTiles != null ? itemTiles.get(cursor.key()) : TileIndex.NO_TILE);
+			}
+			if (snapshot != null) {
+				itemUpdates.recycle(snapshot);
+			}
+			if (keyframe) {
+				addUnchanged(sender, itemDeltas, itemArea);
 			}
+			int chunks = sender.finish();
+			logger.info("Reported " + sender.getFeatureCount() + " XVR Items as GeoJSON Features in " + chunks
+					+ " collections (" + suppressed + " unmoved suppressed, " + deferred.size() + " deferred, "
+					+ outside + " outside area, " + removals.size() + " removed)");
 		}
 	}
 
-	private class UnitReportingTask implements Runnable {
+	private class GroupReportingTask implements Runnable {
+
+		// reused for every feature, build() copies the values into a new record
+		private Feature.Builder featureBuilder = Feature.newBuilder();
+		private SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
+
 		@Override
 		public void run() {
-			List<Unit> failedUpdates = new LinkedList<>();
-			synchronized (unitUpdates) {
-				if (unitUpdates.size() > 0) {
-					FeatureCollection.Builder builder = FeatureCollection.newBuilder();
-					List<Feature> features = new ArrayList<>();
+			if (!reporting || handOverToEventLoop(this)) {
+				return;
+			}
+			List<Feature> removals = takeRemovals(groupRemovals);
+			IntObjectMap<Unit> snapshot = groupUpdates.swap();
+			boolean keyframe = startWindow(groupDeltas);
+			if (snapshot == null && !keyframe) {
+				reportRemovals(groupOutput, groupDeltas, groupSendExecutor, removals, "XVR Unit Groups");
+				return;
+			}
+			IntObjectMap<Unit> failedUpdates = new IntObjectMap<>();
+			FeatureSender sender = newSender(groupOutput, groupDeltas, groupSendExecutor);
+			addRemovals(sender, removals);
 
-					for (Unit unit : unitUpdates.values()) {
+			IntObjectMap<Unit>.Cursor cursor = snapshot != null ? snapshot.cursor() : null;
+			while (cursor != null && cursor.next()) {
+				int mainUnitId = cursor.key();
+				Unit mainUnit = cursor.value();
 
-						Feature.Builder featureBuilder = Feature.newBuilder();
+				List<CharSequence> groupMembers;
+				synchronized (unitConnectionGraph) {
+					if (!unitConnectionGraph.hasUnit(mainUnitId)) {
+						continue; // removed after the group was marked
+					}
+					// cached and immutable, so safe to use outside the lock
+					groupMembers = unitConnectionGraph.getGroupMembers(mainUnitId);
+				}
 
-						Item mainItem = null;
-						synchronized (items) {
-							mainItem = items.get(unit.getMainItem());
-						}
-						if (mainItem != null) {
-							List<Double> lonLatAlt = new ArrayList<>(3);
-							lonLatAlt.add(mainItem.getLocation().getLongitude());
-							lonLatAlt.add(mainItem.getLocation().getLatitude());
-							lonLatAlt.add(mainItem.getLocation().getAltitude());
-
-							featureBuilder.setGeometry(new Point(PointType.Point, lonLatAlt));
-
-							SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
-							entityProperties.setGuid(unit.getGuid());
-							entityProperties.setName(unit.getName());
-							entityProperties.setType(TypeEnum.UNIT);
-							
-							// set main item guid first, then the sub entities
-							List<CharSequence> subEntities = new LinkedList<>();
-							subEntities.add(mainItem.getGuid());
-							subEntities.addAll(unit.getSubItems());
-							entityProperties.setSubEntities(subEntities);
-							
-							Object scenLabel = mainItem.getScenarioLabel();
-							if (!(scenLabel instanceof RescueLabel)) {
-								entityProperties.setLabel("UNKNOWN");
-								logger.warn("Main Item of the Unit with guid " + unit.getGuid()
-										+ " is not of type Rescue!");
-							} else {
-								RescueLabel rescueLabel = (RescueLabel) scenLabel;
-								entityProperties.setLabel(rescueLabel.getSubLabel().name());
-							}
-
-							featureBuilder.setProperties(entityProperties.build());
-
-							featureBuilder.build();
-
-							features.add(featureBuilder.build());
-						} else {
-							logger.info("Unable to report Unit: " + unit.getGuid()
-									+ " because main item not known. Trying again later!");
-							failedUpdates.add(unit);
+				Item mainItem = getMainItem(mainUnitId);
+				if (mainItem != null && groupArea != null && !groupArea.accept(mainUnitId,
+						mainItem.getLocation().getLongitude(), mainItem.getLocation().getLatitude())) {
+					continue;
+				}
+				if (mainItem != null) {
+					featureBuilder.setGeometry(new Point(PointType.Point, getLonLatAlt(mainItem)));
+
+					CharSequence groupGuid;
+					synchronized (groupGuids) {
+						groupGuid = groupGuids.get(mainUnitId);
+						if (groupGuid == null) {
+							groupGuid = newGroupGuid(mainUnit);
+							groupGuids.put(mainUnitId, groupGuid);
+							journalGroup(mainUnitId, mainUnit.getGuid(), groupGuid);
 						}
 					}
 
-					builder.setFeatures(features);
-					FeatureCollection fc = builder.build();
-					unitProducer.send(fc);
-					logger.info("Reported " + features.size() + " XVR Units as GeoJSON Features");
-					unitUpdates.clear();
-					for (Unit u : failedUpdates) {
-						unitUpdates.put(u.getGuid(), u);
+					String label;
+					Object scenLabel = mainItem.getScenarioLabel();
+					if (!(scenLabel instanceof RescueLabel)) {
+						label = "UNKNOWN";
+						logger.warn("Main Item of the Group with guid " + groupGuid + " is not of type Rescue!");
+					} else {
+						RescueLabel rescueLabel = (RescueLabel) scenLabel;
+						label = rescueLabel.getSubLabel().name();
 					}
+
+					groupProperties.get(mainUnitId, groupGuid, mainUnit.getName(), label, TypeEnum.UNITGROUP, null,
+							groupMembers).applyTo(entityProperties);
+
+					featureBuilder.setProperties(entityProperties.build());
+
+					sender.add(encode(groupDeltas, mainUnitId, featureBuilder.build()), getUnitTile(mainUnitId));
+				} else if (!partitioned) {
+					logger.info("Unable to report Group because main unit not known. Trying again later!");
+					failedUpdates.put(mainUnitId, mainUnit);
 				}
 			}
+			// failed groups are carried over unless a newer update arrived meanwhile
+			// or the main unit was removed
+			IntObjectMap<Unit>.Cursor failed = failedUpdates.cursor();
+			while (failed.next()) {
+				synchronized (units) {
+					if (!units.containsKey(failed.key())) {
+						continue;
+					}
+				}
+				groupUpdates.putIfAbsent(failed.key(), failed.value());
+			}
+			if (snapshot != null) {
+				groupUpdates.recycle(snapshot);
+			}
+			if (keyframe) {
+				addUnchanged(sender, groupDeltas, groupArea);
+			}
+
+			int chunks = sender.finish();
+			logger.info("Reported " + sender.getFeatureCount() + " XVR Unit Groups as GeoJSON Features in " + chunks
+					+ " collections (" + removals.size() + " removed)");
 		}
 	}
 
-	private class ItemReportingTask implements Runnable {
+	/**
+	 * Restores the state from the checkpoint as if the checkpointed messages
+	 * were received again, so it is reported with the first flushes.
+	 */
+	private class RestoreTask implements Runnable, StateCheckpoint.Handler {
 		@Override
 		public void run() {
-			synchronized (itemUpdates) {
-				if (itemUpdates.size() > 0) {
-					FeatureCollection.Builder builder = FeatureCollection.newBuilder();
-					List<Feature> features = new ArrayList<>();
+			long start = System.currentTimeMillis();
+			restoring = true;
+			try {
+				int records = checkpoint.restore(this);
+				logger.info("Restored " + records + " records from the checkpoint in "
+						+ (System.currentTimeMillis() - start) + " milliseconds, " + items.size() + " Items and "
+						+ units.size() + " Units");
+			} catch (IOException | RuntimeException e) {
+				logger.error("Failed to restore the checkpoint, starting with the state restored so far", e);
+			} finally {
+				restoring = false;
+			}
+		}
 
-					for (Item item : itemUpdates.values()) {
+		@Override
+		public void item(Item item) {
+			processItem(item);
+		}
 
-						Feature.Builder featureBuilder = Feature.newBuilder();
+		@Override
+		public void unit(Unit unit) {
+			processUnit(unit);
+		}
 
-						List<Double> lonLatAlt = new ArrayList<>(3);
-						lonLatAlt.add(item.getLocation().getLongitude());
-						lonLatAlt.add(item.getLocation().getLatitude());
-						lonLatAlt.add(item.getLocation().getAltitude());
+		@Override
+		public void connection(CharSequence guid, CharSequence mainUnit, CharSequence subUnit) {
+			connect(guids.intern(guid), guids.intern(mainUnit), guids.intern(subUnit), System.currentTimeMillis());
+		}
 
-						featureBuilder.setGeometry(new Point(PointType.Point, lonLatAlt));
+		@Override
+		public void group(CharSequence rootUnit, CharSequence groupGuid) {
+			int rootId = guids.lookup(rootUnit);
+			if (rootId < 0) {
+				return;
+			}
+			synchronized (groupGuids) {
+				if (groupGuid.length() == 0) {
+					groupGuids.remove(rootId);
+				} else {
+					groupGuids.put(rootId, groupGuid);
+				}
+			}
+		}
 
-						SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties.newBuilder();
-						entityProperties.setGuid(item.getGuid());
-						entityProperties.setName(item.getName());
-						entityProperties.setType(getItemType(item));
-						RescueLabel rescueLabel = (RescueLabel) item.getScenarioLabel();
-						entityProperties.setLabel(rescueLabel.getSubLabel().name());
-						entityProperties.setSpeed(item.getVelocity().getMagnitude());
+		@Override
+		public void deletion(CharSequence guid) {
+			processObjectDeletion(guid);
+		}
+	}
 
-						featureBuilder.setProperties(entityProperties.build());
+	/**
+	 * Appends the items, units, connections, group guids and deletions received
+	 * since the last run to the checkpoint, or writes a full snapshot when the
+	 * snapshot interval elapsed or the appended records do not fit anymore.
+	 */
+	private class CheckpointTask implements Runnable {
 
-						featureBuilder.build();
+		private long lastSnapshot = 0;
 
-						features.add(featureBuilder.build());
+		@Override
+		public void run() {
+			if (handOverToEventLoop(this)) {
+				return;
+			}
+			// taken before a snapshot as well, which covers them; taken together
+			// under the journal lock, so they cover the same mutations
+			List<CharSequence> deletions;
+			IntObjectMap<Object> updates;
+			IntObjectMap<CharSequence[]> groups;
+			synchronized (journal) {
+				deletions = takeRemovals(deletionJournal);
+				updates = journal.swap();
+				groups = groupJournal.swap();
+			}
+			long start = System.currentTimeMillis();
+			try {
+				if (start - lastSnapshot < snapshotInterval && checkpoint.hasSnapshot()
+						&& append(deletions, updates, groups)) {
+					return;
+				}
+				int records = writeSnapshot();
+				lastSnapshot = start;
+				logger.info("Wrote a checkpoint snapshot of " + records + " records, " + checkpoint.getSize()
+						+ " bytes in " + (System.currentTimeMillis() - start) + " milliseconds");
+			} catch (IOException | RuntimeException e) {
+				// the batch taken above is lost, so the next run writes a full snapshot
+				lastSnapshot = 0;
+				logger.error("Failed to write the checkpoint", e);
+			} finally {
+				if (updates != null) {
+					journal.recycle(updates);
+				}
+				if (groups != null) {
+					groupJournal.recycle(groups);
+				}
+			}
+		}
+
+		/**
+		 * @return false if the records do not fit in the checkpoint
+		 */
+		private boolean append(List<CharSequence> deletions, IntObjectMap<Object> updates,
+				IntObjectMap<CharSequence[]> groups) throws IOException {
+			checkpoint.beginAppend();
+			try {
+				// deletions first, as they happened before updates of recreated entities
+				for (CharSequence guid : deletions) {
+					checkpoint.writeDeletion(guid);
+				}
+				if (updates != null) {
+					writeUpdates(updates);
+				}
+				if (groups != null) {
+					IntObjectMap<CharSequence[]>.Cursor cursor = groups.cursor();
+					while (cursor.next()) {
+						checkpoint.writeGroup(cursor.value()[0], cursor.value()[1]);
 					}
+				}
+				checkpoint.commit();
+				return true;
+			} catch (BufferOverflowException e) {
+				checkpoint.abort();
+				return false;
+			}
+		}
 
-					builder.setFeatures(features);
-					FeatureCollection fc = builder.build();
-					itemProducer.send(fc);
-					logger.info("Reported " + features.size() + " XVR Items as GeoJSON Features");
-					itemUpdates.clear();
+		/**
+		 * Writes units ahead of items and connections, so connections and group
+		 * guids find their units when restored.
+		 */
+		private void writeUpdates(IntObjectMap<Object> updates) throws IOException {
+			IntObjectMap<Object>.Cursor cursor = updates.cursor();
+			while (cursor.next()) {
+				if (cursor.value() instanceof Unit) {
+					checkpoint.writeUnit((Unit) cursor.value());
+				}
+			}
+			cursor = updates.cursor();
+			while (cursor.next()) {
+				if (cursor.value() instanceof Item) {
+					checkpoint.writeItem((Item) cursor.value());
+				} else if (cursor.value() instanceof CharSequence[]) {
+					CharSequence[] connection = (CharSequence[]) cursor.value();
+					checkpoint.writeConnection(connection[0], connection[1], connection[2]);
+				}
+			}
+		}
+
+		/**
+		 * @return the number of records written
+		 */
+		private int writeSnapshot() throws IOException {
+			IntObjectMap<Object> state = new IntObjectMap<>();
+			synchronized (units) {
+				IntObjectMap<Unit>.Cursor cursor = units.cursor();
+				while (cursor.next()) {
+					state.put(cursor.key(), cursor.value());
+				}
+			}
+			synchronized (items) {
+				IntObjectMap<Item>.Cursor cursor = items.cursor();
+				while (cursor.next()) {
+					state.put(cursor.key(), cursor.value());
+				}
+			}
+			synchronized (unitConnectionGraph) {
+				for (int connectionId : unitConnectionGraph.getConnectionIds()) {
+					UnitConnectionGraph.UnitConnection connection = unitConnectionGraph.getConnection(connectionId);
+					state.put(connectionId, new CharSequence[] { guids.getGuid(connectionId),
+							guids.getGuid(connection.getParent()), guids.getGuid(connection.getChild()) });
+				}
+				for (PendingConnections.Pending pending : pendingConnections.getPending()) {
+					state.put(pending.getConnectionId(), new CharSequence[] { guids.getGuid(pending.getConnectionId()),
+							guids.getGuid(pending.getMainUnitId()), guids.getGuid(pending.getSubUnitId()) });
+				}
+			}
+			List<CharSequence[]> groups = new ArrayList<>();
+			synchronized (groupGuids) {
+				IntObjectMap<CharSequence>.Cursor cursor = groupGuids.cursor();
+				while (cursor.next()) {
+					groups.add(new CharSequence[] { guids.getGuid(cursor.key()), cursor.value() });
+				}
+			}
+			while (true) {
+				checkpoint.beginSnapshot();
+				try {
+					writeUpdates(state);
+					for (CharSequence[] group : groups) {
+						checkpoint.writeGroup(group[0], group[1]);
+					}
+					checkpoint.commit();
+					return state.size() + groups.size();
+				} catch (BufferOverflowException e) {
+					checkpoint.abort();
+					checkpoint.grow();
 				}
 			}
 		}
 	}
 
-	private class GroupReportingTask implements Runnable {
+	/**
+	 * Evicts items and units that were not updated within the idle time to live,
+	 * and the least recently updated ones above the capacity. Evicted entities
+	 * are not reported as removed, they reappear when they are updated again.
+	 */
+	private class EvictionTask implements Runnable {
 		@Override
 		public void run() {
-			List<Unit> failedUpdates = new LinkedList<>();
-			synchronized (groupUpdateLock) {
-				synchronized (groupUpdates) {
-					if (groupUpdates.size() > 0) {
-						FeatureCollection.Builder builder = FeatureCollection.newBuilder();
-						List<Feature> features = new ArrayList<>();
-
-						for (Unit mainUnit : groupUpdates.values()) {
-
-							Feature.Builder featureBuilder = Feature.newBuilder();
-
-							Item mainItem = items.get(mainUnit.getMainItem());
-							if (mainItem != null) {
-								List<Double> lonLatAlt = new ArrayList<>(3);
-								lonLatAlt.add(mainItem.getLocation().getLongitude());
-								lonLatAlt.add(mainItem.getLocation().getLatitude());
-								lonLatAlt.add(mainItem.getLocation().getAltitude());
-
-								featureBuilder.setGeometry(new Point(PointType.Point, lonLatAlt));
-
-								SimulatedEntityProperties.Builder entityProperties = SimulatedEntityProperties
-										.newBuilder();
-
-								CharSequence groupGuid = groupGuids.get(mainUnit.getGuid());
-								if (groupGuid == null) {
-									groupGuid = java.util.UUID.randomUUID().toString();
-									groupGuids.put(mainUnit.getGuid(), groupGuid);
-								}
-
-								entityProperties.setGuid(groupGuid);
-								entityProperties.setName(mainUnit.getName() + "-group");
-								entityProperties.setType(TypeEnum.UNITGROUP);
-
-								List<CharSequence> groupMembers = new LinkedList<>();
-								groupMembers.add(mainUnit.getGuid());
-								synchronized (unitConnectionGraph) {
-									groupMembers.addAll(unitConnectionGraph.getDescendantsForUnit(mainUnit.getGuid()));
-								}
-								entityProperties.setSubEntities(groupMembers);
-
-								Object scenLabel = mainItem.getScenarioLabel();
-								if (!(scenLabel instanceof RescueLabel)) {
-									entityProperties.setLabel("UNKNOWN");
-									logger.warn("Main Item of the Group with guid " + groupGuid
-											+ " is not of type Rescue!");
-								} else {
-									RescueLabel rescueLabel = (RescueLabel) scenLabel;
-									entityProperties.setLabel(rescueLabel.getSubLabel().name());
-								}
-
-								featureBuilder.setProperties(entityProperties.build());
-
-								featureBuilder.build();
-
-								features.add(featureBuilder.build());
-							} else {
-								logger.info("Unable to report Group because main unit not known. Trying again later!");
-								failedUpdates.add(mainUnit);
-							}
-						}
+			if (handOverToEventLoop(this)) {
+				return;
+			}
+			// ids released during the previous sweep interval are no longer part of
+			// any report that is being built
+			guids.recycleReleased();
 
-						builder.setFeatures(features);
-						FeatureCollection fc = builder.build();
-						groupProducer.send(fc);
-						logger.info("Reported " + features.size() + " XVR Unit Groups as GeoJSON Features");
-						groupUpdates.clear();
-						for (Unit u : failedUpdates) {
-							groupUpdates.put(u.getGuid(), u);
-						}
-					}
+			long deadline = idleTtl > 0 ? System.currentTimeMillis() - idleTtl : 0;
+			int[] evictedItems = itemActivity.findEvictable(deadline, entityCapacity);
+			int evictedUnitCount = 0;
+			for (int itemId : evictedItems) {
+				int unitId;
+				synchronized (mainItemUnits) {
+					unitId = mainItemUnits.get(itemId);
+				}
+				journalDeletion(itemId, guids.getGuid(itemId));
+				removeItem(itemId, false);
+				// a unit is positioned by its main item, so it goes along with it
+				// instead of waiting for that item until the unit is evicted itself
+				if (unitId != IntIntMap.NO_VALUE) {
+					evictUnit(unitId);
+					evictedUnitCount++;
 				}
 			}
+			int[] evictedUnits = unitActivity.findEvictable(deadline, entityCapacity);
+			for (int unitId : evictedUnits) {
+				evictUnit(unitId);
+			}
+			evictedUnitCount += evictedUnits.length;
+			if (evictedItems.length > 0 || evictedUnitCount > 0) {
+				logger.info("Evicted " + evictedItems.length + " XVR Items and " + evictedUnitCount + " XVR Units, "
+						+ itemActivity.size() + " Items, " + unitActivity.size() + " Units and " + guids.size()
+						+ " guids remain");
+			}
+		}
+	}
+
+	/**
+	 * With partitioned items a group is reported by the instance that owns the
+	 * main item of its root, which changes on rebalancing, so all instances need
+	 * to derive the same guid.
+	 */
+	private CharSequence newGroupGuid(Unit mainUnit) {
+		if (partitioned) {
+			return UUID.nameUUIDFromBytes((mainUnit.getGuid() + "-group").getBytes(StandardCharsets.UTF_8))
+					.toString();
+		}
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * @return the location of the item as GeoJSON coordinates
+	 */
+	private List<Double> getLonLatAlt(Item item) {
+		Location location = item.getLocation();
+		return Arrays.asList(location.getLongitude(), location.getLatitude(), location.getAltitude());
+	}
+
+	/**
+	 * @return the types in the comma separated list, ignoring unknown ones
+	 */
+	private static Set<TypeEnum> parseTypes(String types) {
+		Set<TypeEnum> parsed = EnumSet.noneOf(TypeEnum.class);
+		for (String type : types.split(",")) {
+			if (type.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				parsed.add(TypeEnum.valueOf(type.trim()));
+			} catch (IllegalArgumentException e) {
+				logger.warn("Ignoring unknown entity type " + type.trim());
+			}
 		}
+		return parsed;
 	}
 
 	private TypeEnum getItemType(Item item) {
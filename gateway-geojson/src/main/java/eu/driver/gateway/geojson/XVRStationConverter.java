@@ -1,99 +1,255 @@
 package eu.driver.gateway.geojson;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.generic.IndexedRecord;
 import org.slf4j.Logger;
 
-import eu.driver.adapter.core.producer.GenericProducer;
 import eu.driver.adapter.logger.CISLogger;
 import eu.driver.api.IAdaptorCallback;
 import eu.driver.gateway.GatewayProperties;
 import eu.driver.model.geojson.sim.Feature;
-import eu.driver.model.geojson.sim.FeatureCollection;
 import eu.driver.model.geojson.sim.Point;
 import eu.driver.model.geojson.sim.PointType;
 import eu.driver.model.geojson.sim.SimulatedEntityProperties;
 import eu.driver.model.geojson.sim.TypeEnum;
+import eu.driver.model.sim.ObjectDeleted;
 import eu.driver.model.sim.entity.Station;
+import eu.driver.model.sim.geo.Location;
 
-public class XVRStationConverter implements IAdaptorCallback {
+public class XVRStationConverter implements IAdaptorCallback, PartitionedState {
 
-	private GenericProducer outputProducer;
+	private FeatureOutput output;
 
-	private Map<CharSequence, Station> stations;
+	private GuidDictionary guids = new GuidDictionary();
+	private UpdateWindow<Station> stations;
+	private IntObjectMap<Station> knownStations = new IntObjectMap<>();
+	private List<Feature> removals = new ArrayList<>();
+	private StaticPropertiesCache staticProperties = new StaticPropertiesCache();
+	private AreaOfInterestFilter area = null;
+	private String outputMode;
+	private TileIndex tiles = null;
+	private IdleTracker activity = new IdleTracker();
+	private long idleTtl;
+	private int capacity;
 	private ScheduledExecutorService reportingScheduler;
+	private FlushScheduler flush;
+	private volatile boolean reporting = true;
+	private int chunkFeatures;
+	private long chunkBytes;
 
 	private static Logger logger = CISLogger.logger(XVRStationConverter.class);
 
-	public XVRStationConverter(GenericProducer producer) {
-		outputProducer = producer;
-		stations = new HashMap<>();
-		reportingScheduler = Executors.newScheduledThreadPool(1);
+	/**
+	 * @param reportingScheduler
+	 *            executor shared by the converters for flushing and sending
+	 *            reports
+	 */
+	public XVRStationConverter(FeatureOutput output, ScheduledExecutorService reportingScheduler) {
+		this.output = output;
+		stations = new UpdateWindow<>();
+		this.reportingScheduler = reportingScheduler;
 		long freq = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FREQUENCY));
-		reportingScheduler.scheduleAtFixedRate(new ReportingTask(), 0, freq, TimeUnit.MILLISECONDS);
+		chunkFeatures = Integer
+				.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_CHUNK_FEATURES));
+		chunkBytes = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_CHUNK_BYTES));
+		idleTtl = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_IDLE_TTL));
+		capacity = Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_CAPACITY));
+		long evictionInterval = Long
+				.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.ENTITY_EVICTION_INTERVAL));
+		int flushSize = Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FLUSH_SIZE));
+		long flushGap = Long.parseLong(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_FLUSH_GAP));
+		String areas = GatewayProperties.getInstance().getProperty(GatewayProperties.AOI_AREAS);
+		if (!areas.trim().isEmpty()) {
+			double cellSize = Double
+					.parseDouble(GatewayProperties.getInstance().getProperty(GatewayProperties.AOI_GRID_CELL));
+			area = new AreaOfInterestFilter(new AreaOfInterest(AreaOfInterest.parseAreas(areas), cellSize));
+		}
+		outputMode = GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_MODE);
+		if (GatewayProperties.OUTPUT_MODE_TILE.equals(outputMode)) {
+			tiles = new TileIndex(
+					Integer.parseInt(GatewayProperties.getInstance().getProperty(GatewayProperties.OUTPUT_TILES_ZOOM)));
+		}
+		flush = new FlushScheduler(reportingScheduler, new ReportingTask(), freq, flushSize, flushGap);
+		flush.start();
+		reportingScheduler.scheduleAtFixedRate(new EvictionTask(), evictionInterval, evictionInterval,
+				TimeUnit.MILLISECONDS);
 		logger.info("Start Converting Simulated Stations to GeoJSON every " + freq + " milliseconds (windowed)");
 	}
 
 	public void messageReceived(IndexedRecord key, IndexedRecord message) {
 		if (message instanceof Station) {
-			synchronized (stations) {
-				Station station = (Station) message;
-				if(station.getVisibleForParticipant()) {
-					stations.put(station.getGuid(), station);
-				}
-				if (stations.size() >= 100) {
-					reportingScheduler.schedule(new ReportingTask(), 0, TimeUnit.MILLISECONDS);
-				}
+			Station station = (Station) message;
+			int stationId = guids.intern(station.getGuid());
+			Station previous;
+			synchronized (knownStations) {
+				previous = knownStations.put(stationId, station);
+			}
+			if (tiles != null && (previous == null
+					|| previous.getLocation().getLongitude() != station.getLocation().getLongitude()
+					|| previous.getLocation().getLatitude() != station.getLocation().getLatitude())) {
+				tiles.update(stationId, station.getLocation().getLongitude(), station.getLocation().getLatitude());
+			}
+			activity.touch(stationId, System.currentTimeMillis());
+			if (station.getVisibleForParticipant()) {
+				flush.updated(stations.put(stationId, station));
+			}
+		}
+		if (message instanceof ObjectDeleted) {
+			int stationId = guids.lookup(((ObjectDeleted) message).getGuid());
+			if (stationId >= 0) {
+				removeStation(stationId, true);
+			}
+		}
+	}
+
+	@Override
+	public void evict(CharSequence guid) {
+		int stationId = guids.lookup(guid);
+		if (stationId >= 0) {
+			removeStation(stationId, false);
+		}
+	}
+
+	@Override
+	public void setReporting(boolean reporting) {
+		this.reporting = reporting;
+	}
+
+	/**
+	 * @param marker
+	 *            true to report the removal downstream
+	 */
+	private void removeStation(int stationId, boolean marker) {
+		Station station;
+		synchronized (knownStations) {
+			station = knownStations.remove(stationId);
+		}
+		activity.remove(stationId);
+		if (station == null) {
+			return;
+		}
+		stations.remove(stationId);
+		staticProperties.remove(stationId);
+		if (tiles != null) {
+			tiles.remove(stationId);
+		}
+		if (area != null) {
+			area.forget(stationId);
+		}
+		if (marker && station.getVisibleForParticipant()) {
+			Feature removal = RemovalMarker.newFeature(station.getGuid(), station.getName(), TypeEnum.STATION,
+					station.getLocation());
+			synchronized (removals) {
+				removals.add(removal);
 			}
+		} else {
+			output.forget(station.getGuid().toString());
+		}
+		guids.release(stationId);
+	}
+
+	/**
+	 * @return the removal markers queued since the last report
+	 */
+	private List<Feature> takeRemovals() {
+		synchronized (removals) {
+			if (removals.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<Feature> taken = new ArrayList<>(removals);
+			removals.clear();
+			return taken;
 		}
 	}
 
 	private class ReportingTask implements Runnable {
+
+		// reused for every feature, build() copies the values into a new record
+		private Feature.Builder featureBuilder = Feature.newBuilder();
+		private SimulatedEntityProperties.Builder propertiesBuilder = SimulatedEntityProperties.newBuilder();
+
 		@Override
 		public void run() {
-			synchronized (stations) {
-				if (stations.size() > 0) {
-					FeatureCollection.Builder builder = FeatureCollection.newBuilder();
-					List<Feature> features = new ArrayList<>();
-
-					for (Station station : stations.values()) {
+			if (!reporting) {
+				return;
+			}
+			// removals are sent ahead of the updates, so a station that is created
+			// again after its removal is not removed downstream
+			List<Feature> removed = takeRemovals();
+			IntObjectMap<Station> snapshot = stations.swap();
+			if (snapshot == null && removed.isEmpty()) {
+				return;
+			}
+			FeatureSender sender;
+			if (GatewayProperties.OUTPUT_MODE_ENTITY.equals(outputMode)) {
+				sender = new EntityFeatureSender(output);
+			} else if (tiles != null) {
+				sender = new TiledFeatureSender(output, tiles, chunkFeatures, chunkBytes, null);
+			} else {
+				sender = new ChunkedFeatureSender(output, chunkFeatures, chunkBytes, null);
+			}
+			for (Feature marker : removed) {
+				int tile = TileIndex.NO_TILE;
+				if (tiles != null) {
+					List<Double> lonLatAlt = ((Point) marker.getGeometry()).getCoordinates();
+					tile = tiles.getTile(lonLatAlt.get(0), lonLatAlt.get(1));
+				}
+				sender.add(marker, tile);
+			}
 
-						Feature.Builder featureBuilder = Feature.newBuilder();
+			IntObjectMap<Station>.Cursor cursor = snapshot != null ? snapshot.cursor() : null;
+			while (cursor != null && cursor.next()) {
+				Station station = cursor.value();
 
-						List<Double> lonLatAlt = new ArrayList<>(3);
-						lonLatAlt.add(station.getLocation().getLongitude());
-						lonLatAlt.add(station.getLocation().getLatitude());
-						lonLatAlt.add(station.getLocation().getAltitude());
+				Location location = station.getLocation();
+				if (area != null && !area.accept(cursor.key(), location.getLongitude(), location.getLatitude())) {
+					continue;
+				}
+				featureBuilder.setGeometry(new Point(PointType.Point,
+						Arrays.asList(location.getLongitude(), location.getLatitude(), location.getAltitude())));
 
-						featureBuilder.setGeometry(new Point(PointType.Point, lonLatAlt));
+				staticProperties.get(cursor.key(), station.getGuid(), station.getName(),
+						station.getScenarioLabel().toString(), TypeEnum.STATION, null, station.getItems())
+						.applyTo(propertiesBuilder);
 
-						SimulatedEntityProperties.Builder propertiesBuilder = SimulatedEntityProperties.newBuilder();
-						propertiesBuilder.setGuid(station.getGuid());
-						propertiesBuilder.setName(station.getName());
-						propertiesBuilder.setLabel(station.getScenarioLabel().toString());
-						propertiesBuilder.setType(TypeEnum.STATION);
-						propertiesBuilder.setSubEntities(station.getItems());
+				featureBuilder.setProperties(propertiesBuilder.build());
 
-						featureBuilder.setProperties(propertiesBuilder.build());
+				sender.add(featureBuilder.build(), tiles != null ? tiles.get(cursor.key()) : TileIndex.NO_TILE);
+			}
+			if (snapshot != null) {
+				stations.recycle(snapshot);
+			}
 
-						featureBuilder.build();
+			int chunks = sender.finish();
+			logger.info("Reported " + sender.getFeatureCount() + " XVR Stations as GeoJSON Features in " + chunks
+					+ " collections (" + removed.size() + " removed)");
+		}
+	}
 
-						features.add(featureBuilder.build());
-					}
+	/**
+	 * Evicts stations that were not updated within the idle time to live, and
+	 * the least recently updated ones above the capacity.
+	 */
+	private class EvictionTask implements Runnable {
+		@Override
+		public void run() {
+			// ids released during the previous sweep interval are no longer part of
+			// any report that is being built
+			guids.recycleReleased();
 
-					builder.setFeatures(features);
-					FeatureCollection fc = builder.build();
-					outputProducer.send(fc);
-					logger.info("Reported " + features.size() + " XVR Stations as GeoJSON Features");
-					stations.clear();
-				}
+			long deadline = idleTtl > 0 ? System.currentTimeMillis() - idleTtl : 0;
+			int[] evicted = activity.findEvictable(deadline, capacity);
+			for (int stationId : evicted) {
+				removeStation(stationId, false);
+			}
+			if (evicted.length > 0) {
+				logger.info("Evicted " + evicted.length + " XVR Stations, " + activity.size() + " remain");
 			}
 		}
 	}
@@ -0,0 +1,272 @@
+package eu.driver.position;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts arrays of coordinates with the {@link PositionParser}, for example
+ * when replaying a recorded exercise or converting the lists of items and
+ * stations at once.
+ * 
+ * The DMS text of the coordinates is written into one char array, every
+ * coordinate in {@link #DMS_STRIDE} characters, left aligned and padded with
+ * spaces, so coordinate i starts at offset + i * DMS_STRIDE. Batches of
+ * {@link #PARALLEL_THRESHOLD} coordinates or more are split over the common
+ * fork join pool, smaller batches are converted by the calling thread.
+ */
+public class PositionBatch {
+
+	/**
+	 * Characters per coordinate in the DMS output, which fits every coordinate
+	 * within [-9999,+9999] degrees
+	 */
+	public static final int DMS_STRIDE = 16;
+
+	/**
+	 * Number of coordinates from which a batch is split, every part converts at
+	 * least half as many
+	 */
+	public static final int PARALLEL_THRESHOLD = 16384;
+
+	private static final int LAT_DMS = 0;
+	private static final int LON_DMS = 1;
+	private static final int LAT_DMS_COLON = 2;
+	private static final int LON_DMS_COLON = 3;
+
+	private PositionBatch() {
+		super();
+	}
+
+	/**
+	 * Writes the latitudes as
+	 * {@link PositionParser#convertLatRadToDMS(double)} does, padded to
+	 * {@link #DMS_STRIDE} characters.
+	 * 
+	 * @param latitudes_rad
+	 *            latitudes in radians
+	 * @param from
+	 *            index of the first latitude
+	 * @param to
+	 *            index after the last latitude
+	 * @param out
+	 *            array with room for (to - from) * DMS_STRIDE characters from
+	 *            offset
+	 * @param offset
+	 *            index in out of the first latitude
+	 */
+	public static void formatLatRadToDMS(double[] latitudes_rad, int from, int to, char[] out, int offset) {
+		format(latitudes_rad, from, to, true, PositionParser.SYMBOL_NORTH, PositionParser.SYMBOL_SOUTH, out, offset);
+	}
+
+	/**
+	 * Writes the longitudes as
+	 * {@link PositionParser#convertLonRadToDMS(double)} does, padded to
+	 * {@link #DMS_STRIDE} characters.
+	 * 
+	 * @see #formatLatRadToDMS(double[], int, int, char[], int)
+	 */
+	public static void formatLonRadToDMS(double[] longitudes_rad, int from, int to, char[] out, int offset) {
+		format(longitudes_rad, from, to, true, PositionParser.SYMBOL_EAST, PositionParser.SYMBOL_WEST, out, offset);
+	}
+
+	/**
+	 * Writes the latitudes in degrees in the same DMS text as
+	 * {@link #formatLatRadToDMS(double[], int, int, char[], int)}.
+	 */
+	public static void formatLatDegToDMS(double[] latitudes_deg, int from, int to, char[] out, int offset) {
+		format(latitudes_deg, from, to, false, PositionParser.SYMBOL_NORTH, PositionParser.SYMBOL_SOUTH, out, offset);
+	}
+
+	/**
+	 * Writes the longitudes in degrees in the same DMS text as
+	 * {@link #formatLonRadToDMS(double[], int, int, char[], int)}.
+	 */
+	public static void formatLonDegToDMS(double[] longitudes_deg, int from, int to, char[] out, int offset) {
+		format(longitudes_deg, from, to, false, PositionParser.SYMBOL_EAST, PositionParser.SYMBOL_WEST, out, offset);
+	}
+
+	/**
+	 * Parses the latitudes as {@link PositionParser#parseLatDMS(String)} does. An
+	 * invalid text fails the whole batch with the exception of the parser.
+	 * 
+	 * @param texts
+	 *            latitudes in DMS format
+	 * @param from
+	 *            index of the first text
+	 * @param to
+	 *            index after the last text
+	 * @param out
+	 *            array for the latitudes in degrees
+	 * @param offset
+	 *            index in out of the first latitude
+	 */
+	public static void parseLatDMS(CharSequence[] texts, int from, int to, double[] out, int offset) {
+		parse(texts, from, to, LAT_DMS, out, offset);
+	}
+
+	/**
+	 * Parses the longitudes as {@link PositionParser#parseLonDMS(String)} does.
+	 * 
+	 * @see #parseLatDMS(CharSequence[], int, int, double[], int)
+	 */
+	public static void parseLonDMS(CharSequence[] texts, int from, int to, double[] out, int offset) {
+		parse(texts, from, to, LON_DMS, out, offset);
+	}
+
+	/**
+	 * Parses the latitudes as {@link PositionParser#parseLatDMSColon(String)}
+	 * does.
+	 * 
+	 * @see #parseLatDMS(CharSequence[], int, int, double[], int)
+	 */
+	public static void parseLatDMSColon(CharSequence[] texts, int from, int to, double[] out, int offset) {
+		parse(texts, from, to, LAT_DMS_COLON, out, offset);
+	}
+
+	/**
+	 * Parses the longitudes as {@link PositionParser#parseLonDMSColon(String)}
+	 * does.
+	 * 
+	 * @see #parseLatDMS(CharSequence[], int, int, double[], int)
+	 */
+	public static void parseLonDMSColon(CharSequence[] texts, int from, int to, double[] out, int offset) {
+		parse(texts, from, to, LON_DMS_COLON, out, offset);
+	}
+
+	private static void format(final double[] values, int from, int to, final boolean radians, final char positive,
+			final char negative, final char[] out, final int offset) {
+		checkRange(values.length, from, to);
+		checkRange(out.length, offset, offset + (to - from) * DMS_STRIDE);
+		final int shift = offset - from * DMS_STRIDE;
+		run(new BatchAction(from, to) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void convert(int start, int end) {
+				for (int i = start; i < end; i++) {
+					double deg = radians ? Math.toDegrees(values[i]) : values[i];
+					PositionParser.formatDMS(deg, positive, negative, out, shift + i * DMS_STRIDE, DMS_STRIDE);
+				}
+			}
+		});
+	}
+
+	private static void parse(final CharSequence[] texts, int from, int to, final int format, final double[] out,
+			int offset) {
+		checkRange(texts.length, from, to);
+		checkRange(out.length, offset, offset + (to - from));
+		final int shift = offset - from;
+		run(new BatchAction(from, to) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void convert(int start, int end) {
+				for (int i = start; i < end; i++) {
+					CharSequence text = texts[i];
+					int length = PositionParser.length(text);
+					switch (format) {
+					case LAT_DMS:
+						out[shift + i] = PositionParser.parseLatDMS(text, 0, length);
+						break;
+					case LON_DMS:
+						out[shift + i] = PositionParser.parseLonDMS(text, 0, length);
+						break;
+					case LAT_DMS_COLON:
+						out[shift + i] = PositionParser.parseLatDMSColon(text, 0, length);
+						break;
+					default:
+						out[shift + i] = PositionParser.parseLonDMSColon(text, 0, length);
+						break;
+					}
+				}
+			}
+		});
+	}
+
+	private static void run(BatchAction action) {
+		if (action.to - action.from < PARALLEL_THRESHOLD) {
+			action.convert(action.from, action.to);
+			return;
+		}
+		try {
+			ForkJoinPool.commonPool().invoke(action);
+		} catch (RuntimeException e) {
+			// the pool rethrows a copy of an exception of another thread, throw the one of the parser
+			Throwable cause = e.getCause();
+			if (cause != null && cause.getClass() == e.getClass()) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+
+	private static void checkRange(int length, int from, int to) {
+		if (from < 0 || to < from || to > length) {
+			throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + length);
+		}
+	}
+
+	/**
+	 * Converts a range of a batch, splitting it in halves while it is at least
+	 * {@link PositionBatch#PARALLEL_THRESHOLD} long.
+	 */
+	private abstract static class BatchAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		BatchAction(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected abstract void convert(int start, int end);
+
+		/**
+		 * @return the action of the whole batch
+		 */
+		protected BatchAction getBatch() {
+			return this;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from < PARALLEL_THRESHOLD) {
+				convert(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Part(getBatch(), from, middle), new Part(getBatch(), middle, to));
+		}
+	}
+
+	/**
+	 * Part of a batch that was split.
+	 */
+	private static class Part extends BatchAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BatchAction batch;
+
+		Part(BatchAction batch, int from, int to) {
+			super(from, to);
+			this.batch = batch;
+		}
+
+		@Override
+		protected void convert(int start, int end) {
+			batch.convert(start, end);
+		}
+
+		@Override
+		protected BatchAction getBatch() {
+			return batch;
+		}
+	}
+
+}
@@ -1,67 +1,350 @@
 package eu.driver.position;
 
+import java.nio.CharBuffer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 
+import org.apache.avro.util.Utf8;
+
 /**
  * Parser for reading positions.
  */
 public class PositionParser {
 
+	/**
+	 * Coordinates from this many degrees are formatted by the DecimalFormat
+	 * fallback, which covers values that do not fit the packed fields.
+	 */
+	private static final double FAST_DEGREES_LIMIT = 1e6;
+
+	/** largest mantissa that the DMS parsing converts exactly */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** powers of ten that are exact doubles */
+	private static final double[] EXACT_POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+			1000000000 };
+
 	public static String convertLonRadToDMS(double longitude_rad) {
-		double londeg = Math.toDegrees(longitude_rad);
+		return appendLonRadToDMS(longitude_rad, new StringBuilder(16)).toString();
+	}
+
+	public static String convertLatRadToDMS(double latitude_rad) {
+		return appendLatRadToDMS(latitude_rad, new StringBuilder(16)).toString();
+	}
 
-		char eastOrWest = PositionParser.SYMBOL_EAST;
-		if (londeg < 0) {
-			eastOrWest = PositionParser.SYMBOL_WEST;
-			londeg = -londeg;
+	/**
+	 * Appends the longitude as "DD MM SS.SSSE" (or W), the same text as
+	 * {@link #convertLonRadToDMS(double)} without allocating.
+	 * 
+	 * @return the builder
+	 */
+	public static StringBuilder appendLonRadToDMS(double longitude_rad, StringBuilder out) {
+		return appendDMS(Math.toDegrees(longitude_rad), SYMBOL_EAST, SYMBOL_WEST, out);
+	}
+
+	/**
+	 * Appends the latitude as "DD MM SS.SSSN" (or S), the same text as
+	 * {@link #convertLatRadToDMS(double)} without allocating.
+	 * 
+	 * @return the builder
+	 */
+	public static StringBuilder appendLatRadToDMS(double latitude_rad, StringBuilder out) {
+		return appendDMS(Math.toDegrees(latitude_rad), SYMBOL_NORTH, SYMBOL_SOUTH, out);
+	}
+
+	/**
+	 * Writes the longitude as {@link #appendLonRadToDMS(double, StringBuilder)}
+	 * into the array, which needs room for 15 characters for longitudes within
+	 * [-180,+180].
+	 * 
+	 * @return the number of characters written
+	 */
+	public static int formatLonRadToDMS(double longitude_rad, char[] out, int offset) {
+		return formatDMS(Math.toDegrees(longitude_rad), SYMBOL_EAST, SYMBOL_WEST, out, offset);
+	}
+
+	/**
+	 * Writes the latitude as {@link #appendLatRadToDMS(double, StringBuilder)}
+	 * into the array, which needs room for 14 characters for latitudes within
+	 * [-90,+90].
+	 * 
+	 * @return the number of characters written
+	 */
+	public static int formatLatRadToDMS(double latitude_rad, char[] out, int offset) {
+		return formatDMS(Math.toDegrees(latitude_rad), SYMBOL_NORTH, SYMBOL_SOUTH, out, offset);
+	}
+
+	/**
+	 * Puts the longitude as {@link #appendLonRadToDMS(double, StringBuilder)}
+	 * at the position of the buffer.
+	 * 
+	 * @return the buffer
+	 */
+	public static CharBuffer putLonRadToDMS(double longitude_rad, CharBuffer out) {
+		return putDMS(Math.toDegrees(longitude_rad), SYMBOL_EAST, SYMBOL_WEST, out);
+	}
+
+	/**
+	 * Puts the latitude as {@link #appendLatRadToDMS(double, StringBuilder)} at
+	 * the position of the buffer.
+	 * 
+	 * @return the buffer
+	 */
+	public static CharBuffer putLatRadToDMS(double latitude_rad, CharBuffer out) {
+		return putDMS(Math.toDegrees(latitude_rad), SYMBOL_NORTH, SYMBOL_SOUTH, out);
+	}
+
+	private static StringBuilder appendDMS(double deg, char positive, char negative, StringBuilder out) {
+		long fields = toDMSFields(deg);
+		if (fields == -1) {
+			return out.append(formatDMSFallback(deg, positive, negative));
+		}
+		char hemisphere = deg < 0 ? negative : positive;
+		int length = getDMSLength(fields);
+		for (int i = 0; i < length; i++) {
+			out.append(getDMSChar(fields, hemisphere, i));
 		}
+		return out;
+	}
 
-		// Calculate degrees, minutes and seconds
-		int degrees = (int) Math.floor(londeg);
-		int minutes = (int) Math.floor((londeg - degrees) / (1 / 60.0));
-		double seconds = ((londeg - degrees - (minutes * (1 / 60.0))) / (1 / 3600.0));
-		DecimalFormat df = new DecimalFormat("##.###");
-		df.setMinimumFractionDigits(3);
-		df.setMaximumFractionDigits(3);
-		df.setMinimumIntegerDigits(2);
-		df.setMaximumIntegerDigits(2);
+	private static int formatDMS(double deg, char positive, char negative, char[] out, int offset) {
+		long fields = toDMSFields(deg);
+		if (fields == -1) {
+			String dms = formatDMSFallback(deg, positive, negative);
+			dms.getChars(0, dms.length(), out, offset);
+			return dms.length();
+		}
+		return writeDMS(fields, deg < 0 ? negative : positive, out, offset);
+	}
 
-		DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
-		symbols.setDecimalSeparator('.');
-		df.setDecimalFormatSymbols(symbols);
+	/**
+	 * Writes the coordinate in degrees left aligned in width characters of the
+	 * array, padded with spaces, for the fixed width output of
+	 * {@link PositionBatch}. Nothing is written if the text does not fit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the text is longer than width
+	 */
+	static void formatDMS(double deg, char positive, char negative, char[] out, int offset, int width) {
+		long fields = toDMSFields(deg);
+		int length;
+		if (fields == -1) {
+			String dms = formatDMSFallback(deg, positive, negative);
+			length = dms.length();
+			if (length > width) {
+				throw new IllegalArgumentException("The coordinate " + deg + " does not fit in " + width + " characters");
+			}
+			dms.getChars(0, length, out, offset);
+		} else {
+			length = getDMSLength(fields);
+			if (length > width) {
+				throw new IllegalArgumentException("The coordinate " + deg + " does not fit in " + width + " characters");
+			}
+			writeDMS(fields, deg < 0 ? negative : positive, out, offset);
+		}
+		for (int i = length; i < width; i++) {
+			out[offset + i] = ' ';
+		}
+	}
 
-		if (df.format(seconds).equals(df.format(60.00))) {
-			seconds = 0.0;
+	private static CharBuffer putDMS(double deg, char positive, char negative, CharBuffer out) {
+		long fields = toDMSFields(deg);
+		if (fields == -1) {
+			return out.put(formatDMSFallback(deg, positive, negative));
+		}
+		char hemisphere = deg < 0 ? negative : positive;
+		int length = getDMSLength(fields);
+		for (int i = 0; i < length; i++) {
+			out.put(getDMSChar(fields, hemisphere, i));
+		}
+		return out;
+	}
+
+	/**
+	 * Splits the coordinate in degrees, minutes and seconds rounded half even
+	 * to milliseconds, like DecimalFormat does, including the rollover of
+	 * seconds that round to 60.000 and the sign of seconds that are negative by
+	 * a rounding error.
+	 * 
+	 * @return the degrees in the upper 32 bits, then 8 bits minutes, 16 bits
+	 *         milliseconds and a flag for negative seconds, or -1 if the
+	 *         coordinate is not finite or too large
+	 */
+	private static long toDMSFields(double deg) {
+		if (deg < 0) {
+			// not Math.abs, -0.0 keeps its sign and ends up in the seconds
+			deg = -deg;
+		}
+		if (!(deg < FAST_DEGREES_LIMIT)) {
+			return -1;
+		}
+
+		// Calculate degrees, minutes and seconds, in the same steps as before,
+		// the casts round down like Math.floor as the values are not negative
+		int degrees = (int) deg;
+		int minutes = (int) ((deg - degrees) / (1 / 60.0));
+		double seconds = ((deg - degrees - (minutes * (1 / 60.0))) / (1 / 3600.0));
+
+		// DecimalFormat keeps the sign of a negative value that rounds to 0
+		boolean negativeSeconds = Double.doubleToRawLongBits(seconds) < 0;
+		long millis = toMillis(Math.abs(seconds));
+
+		if (millis == 60000 && !negativeSeconds) {
+			millis = 0;
 			minutes = minutes + 1;
 		}
 		if (minutes == 60) {
 			minutes = 0;
 			degrees = degrees + 1;
 		}
+		return ((long) degrees << 32) | (minutes << 24) | (millis << 8) | (negativeSeconds ? 1 : 0);
+	}
 
-		// Convert values to strings
-		String degrees2 = String.format("%02d", degrees);
-		String minutes2 = String.format("%02d", minutes);
-		String seconds2 = df.format(seconds);
+	/**
+	 * Rounds the seconds half even to milliseconds with integer arithmetic on
+	 * the bits of the double, which is exact where the product of the seconds
+	 * and 1000 may have been rounded to or away from a tie.
+	 * 
+	 * @param seconds
+	 *            not negative and below 2^52
+	 */
+	private static long toMillis(double seconds) {
+		long bits = Double.doubleToRawLongBits(seconds);
+		int exponent = (int) (bits >>> 52);
+		long mantissa = bits & 0xfffffffffffffL;
+		if (exponent == 0) {
+			exponent = 1; // subnormal
+		} else {
+			mantissa |= 1L << 52;
+		}
+		// seconds = mantissa / 2^shift, and the scaled mantissa fits a long
+		int shift = 1075 - exponent;
+		if (shift >= 64) {
+			return 0;
+		}
+		long scaled = mantissa * 1000;
+		long millis = scaled >>> shift;
+		long remainder = scaled & ((1L << shift) - 1);
+		long half = 1L << (shift - 1);
+		if (remainder > half || (remainder == half && (millis & 1) != 0)) {
+			millis++;
+		}
+		return millis;
+	}
 
-		return degrees2 + ' ' + minutes2 + ' ' + seconds2
-				+ eastOrWest;
+	/**
+	 * @return the length of "DD MM SS.SSSH", with more degree digits if needed
+	 *         and a minus sign for negative seconds
+	 */
+	private static int getDMSLength(long fields) {
+		return getDegreeDigits(fields) + 11 + (int) (fields & 1);
 	}
 
-	public static String convertLatRadToDMS(double latitude_rad) {
-		double latdeg = Math.toDegrees(latitude_rad);
+	private static int getDegreeDigits(long fields) {
+		int degrees = (int) (fields >>> 32);
+		int digits = 2;
+		while (digits < POWERS_OF_TEN.length && degrees >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+		return digits;
+	}
 
-		char northOrSouth = PositionParser.SYMBOL_NORTH;
-		if (latdeg < 0) {
-			northOrSouth = PositionParser.SYMBOL_SOUTH;
-			latdeg = -latdeg;
+	/**
+	 * @return the character at the index of the DMS text of the fields
+	 */
+	private static char getDMSChar(long fields, char hemisphere, int index) {
+		int degreeDigits = getDegreeDigits(fields);
+		if (index < degreeDigits) {
+			return getDigit((int) (fields >>> 32), degreeDigits - 1 - index);
+		}
+		index -= degreeDigits;
+		switch (index) {
+		case 0:
+		case 3:
+			return ' ';
+		case 1:
+		case 2:
+			return getDigit((int) (fields >>> 24) & 0xff, 2 - index);
+		default:
+			break;
+		}
+		index -= 4;
+		if ((fields & 1) != 0) {
+			if (index == 0) {
+				return '-';
+			}
+			index--;
+		}
+		int millis = (int) (fields >>> 8) & 0xffff;
+		switch (index) {
+		case 0:
+		case 1:
+			return getDigit(millis / 1000, 1 - index);
+		case 2:
+			return '.';
+		case 3:
+		case 4:
+		case 5:
+			return getDigit(millis % 1000, 5 - index);
+		default:
+			return hemisphere;
+		}
+	}
+
+	/**
+	 * Writes the DMS text of the fields in one pass, the same characters as
+	 * {@link #getDMSChar(long, char, int)} returns.
+	 * 
+	 * @return the number of characters written
+	 */
+	private static int writeDMS(long fields, char hemisphere, char[] out, int offset) {
+		int index = offset + getDegreeDigits(fields);
+		int degrees = (int) (fields >>> 32);
+		for (int i = index - 1; i >= offset; i--) {
+			out[i] = (char) ('0' + degrees % 10);
+			degrees /= 10;
+		}
+		int minutes = (int) (fields >>> 24) & 0xff;
+		out[index++] = ' ';
+		out[index++] = (char) ('0' + minutes / 10);
+		out[index++] = (char) ('0' + minutes % 10);
+		out[index++] = ' ';
+		if ((fields & 1) != 0) {
+			out[index++] = '-';
+		}
+		int millis = (int) (fields >>> 8) & 0xffff;
+		out[index++] = (char) ('0' + millis / 10000);
+		out[index++] = (char) ('0' + millis / 1000 % 10);
+		out[index++] = '.';
+		out[index++] = (char) ('0' + millis / 100 % 10);
+		out[index++] = (char) ('0' + millis / 10 % 10);
+		out[index++] = (char) ('0' + millis % 10);
+		out[index++] = hemisphere;
+		return index - offset;
+	}
+
+	private static char getDigit(int value, int position) {
+		return (char) ('0' + value / POWERS_OF_TEN[position] % 10);
+	}
+
+	/**
+	 * Formats coordinates that are not finite or too large for the packed
+	 * fields, as the DMS conversion always did.
+	 */
+	private static String formatDMSFallback(double deg, char positive, char negative) {
+		char hemisphere = positive;
+		if (deg < 0) {
+			hemisphere = negative;
+			deg = -deg;
 		}
 
 		// Calculate degrees, minutes and seconds
-		int degrees = (int) Math.floor(latdeg);
-		int minutes = (int) Math.floor((latdeg - degrees) / (1 / 60.0));
-		double seconds = ((latdeg - degrees - (minutes * (1 / 60.0))) / (1 / 3600.0));
+		int degrees = (int) Math.floor(deg);
+		int minutes = (int) Math.floor((deg - degrees) / (1 / 60.0));
+		double seconds = ((deg - degrees - (minutes * (1 / 60.0))) / (1 / 3600.0));
 		DecimalFormat df = new DecimalFormat("##.###");
 		df.setMinimumFractionDigits(3);
 		df.setMaximumFractionDigits(3);
@@ -86,8 +369,7 @@ public class PositionParser {
 		String minutes2 = String.format("%02d", minutes);
 		String seconds2 = df.format(seconds);
 
-		return degrees2 + ' ' + minutes2 + ' ' + seconds2
-				+ northOrSouth;
+		return degrees2 + ' ' + minutes2 + ' ' + seconds2 + hemisphere;
 	}
 
 	/** DMS South notation */
@@ -191,6 +473,180 @@ public class PositionParser {
 
 	}
 
+	/**
+	 * Parses the common DMS forms in one pass, without allocating: an optional
+	 * hemisphere prefix and sign, the degrees, minutes and seconds as plain
+	 * decimal numbers and an optional hemisphere suffix, with spaces anywhere.
+	 * The numbers are converted exactly when their digits fit a double, so the
+	 * result is the same as that of the String based parsing. ASCII text of an
+	 * Avro Utf8 is read from its bytes, as its characters are only available
+	 * through a String it allocates.
+	 * 
+	 * @return The degrees, or NaN for text that is left to the String based
+	 *         parsing, which includes all invalid text
+	 */
+	private static double parseDMS(CharSequence text, int offset, int length, char positive, char negative,
+			char degreesSymbol, char minutesSymbol) {
+		byte[] ascii = asciiBytes(text, offset, length);
+		if (ascii == null && (offset < 0 || length < 0 || offset + length > text.length())) {
+			throw new IndexOutOfBoundsException(
+					"offset " + offset + ", length " + length + ", text length " + text.length());
+		}
+		int start = skipSpaces(text, ascii, offset, offset + length);
+		int end = trimSpaces(text, ascii, start, offset + length);
+		if (start == end) {
+			return Double.NaN;
+		}
+
+		// a hemisphere prefix counts as suffix
+		char hemisphere = 0;
+		char first = charAt(text, ascii, start);
+		char last = charAt(text, ascii, end - 1);
+		if (first == positive || first == negative) {
+			hemisphere = first;
+			start++;
+		} else if (last == positive || last == negative) {
+			hemisphere = last;
+			end--;
+		}
+		boolean positiveSign = true;
+		start = skipSpaces(text, ascii, start, end);
+		if (start < end && charAt(text, ascii, start) == '+') {
+			start++;
+		} else if (start < end && charAt(text, ascii, start) == '-') {
+			positiveSign = false;
+			start++;
+		}
+		if (!positiveSign && hemisphere == negative) {
+			return Double.NaN;
+		}
+
+		int degreesIndex = start;
+		while (degreesIndex < end && charAt(text, ascii, degreesIndex) != degreesSymbol
+				&& (degreesSymbol != SYMBOL_DEGREES || charAt(text, ascii, degreesIndex) != SYMBOL_DEGREES_ALT)) {
+			degreesIndex++;
+		}
+		int minutesIndex = degreesIndex + 1;
+		while (minutesIndex < end && charAt(text, ascii, minutesIndex) != minutesSymbol) {
+			minutesIndex++;
+		}
+		if (minutesIndex >= end) {
+			return Double.NaN;
+		}
+		double deg = parseNumber(text, ascii, start, degreesIndex, false);
+		double min = parseNumber(text, ascii, degreesIndex + 1, minutesIndex, true);
+
+		// NaN of a number that is left to the String based parsing carries through
+		double sec = 0.0;
+		int secondsEnd = trimSpaces(text, ascii, minutesIndex + 1, end);
+		if (secondsEnd > minutesIndex + 1) {
+			if (hemisphere != 0 && charAt(text, ascii, secondsEnd - 1) == SYMBOL_SECONDS) {
+				secondsEnd--;
+			}
+			sec = parseNumber(text, ascii, minutesIndex + 1, secondsEnd, false);
+		}
+		if (positiveSign && hemisphere != negative) {
+			return (deg + min / 60.0 + sec / 3600.0);
+		}
+		return (-deg - min / 60.0 - sec / 3600.0);
+	}
+
+	/**
+	 * Parses an unsigned decimal number, with a point or, if allowed, a comma as
+	 * decimal separator and spaces anywhere. Numbers of at most 2^53 without
+	 * separator and 22 decimals are exact quotients of two doubles, so the
+	 * division rounds them as Double.parseDouble does.
+	 * 
+	 * @return The number, or NaN if it is not such a number
+	 */
+	private static double parseNumber(CharSequence text, byte[] ascii, int from, int to, boolean comma) {
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (int i = from; i < to; i++) {
+			char c = charAt(text, ascii, i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa > MAX_EXACT_MANTISSA) {
+					return Double.NaN;
+				}
+				digits++;
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else if ((c == '.' || (comma && c == ',')) && decimals < 0) {
+				decimals = 0;
+			} else if (c != ' ') {
+				return Double.NaN;
+			}
+		}
+		if (digits == 0 || decimals >= EXACT_POWERS_OF_TEN.length) {
+			return Double.NaN;
+		}
+		if (decimals > 0) {
+			return mantissa / EXACT_POWERS_OF_TEN[decimals];
+		}
+		return mantissa;
+	}
+
+	private static int skipSpaces(CharSequence text, byte[] ascii, int from, int to) {
+		while (from < to && charAt(text, ascii, from) == ' ') {
+			from++;
+		}
+		return from;
+	}
+
+	/**
+	 * @return The end of the text without the trailing spaces
+	 */
+	private static int trimSpaces(CharSequence text, byte[] ascii, int from, int to) {
+		while (to > from && charAt(text, ascii, to - 1) == ' ') {
+			to--;
+		}
+		return to;
+	}
+
+	/**
+	 * @return The bytes of the text if it is an Avro Utf8 that is ASCII up to
+	 *         the end of the range, so its characters are its bytes, otherwise
+	 *         null
+	 */
+	private static byte[] asciiBytes(CharSequence text, int offset, int length) {
+		if (!(text instanceof Utf8) || offset < 0 || length < 0
+				|| offset + length > ((Utf8) text).getByteLength()) {
+			return null;
+		}
+		byte[] bytes = ((Utf8) text).getBytes();
+		for (int i = 0; i < offset + length; i++) {
+			if (bytes[i] < 0) {
+				return null;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The number of characters of the text, which for an ASCII Avro Utf8
+	 *         is its number of bytes, without converting it to a String
+	 */
+	static int length(CharSequence text) {
+		if (text instanceof Utf8) {
+			int length = ((Utf8) text).getByteLength();
+			if (asciiBytes(text, 0, length) != null) {
+				return length;
+			}
+		}
+		return text.length();
+	}
+
+	private static char charAt(CharSequence text, byte[] ascii, int index) {
+		return ascii != null ? (char) ascii[index] : text.charAt(index);
+	}
+
+	private static String toString(CharSequence text, int offset, int length) {
+		return text.subSequence(offset, offset + length).toString();
+	}
+
 	/**
 	 * Valid latitude values are: Northern Hemisphere: Latitude_DMS: "51°41'20.00"
 	 * Latitude_DMS: "51°41'20.00N" Latitude_DMS: "+51°41'20.00" Southern
@@ -201,7 +657,33 @@ public class PositionParser {
 	 * @return The latitude in degrees
 	 */
 	public static double parseLatDMS(String pLatitude_DMS) {
-		StringWrapper latitudeDMS = new StringWrapper(pLatitude_DMS.replace(" ", ""));
+		return parseLatDMS(pLatitude_DMS, 0, pLatitude_DMS.length());
+	}
+
+	/**
+	 * Parses a latitude like {@link #parseLatDMS(String)} from length characters
+	 * of the text at offset, without copying them to a String. An Avro Utf8
+	 * is only read without a String while it is ASCII up to the end of the
+	 * latitude, which text with a degree sign is not.
+	 * 
+	 * @param text
+	 *            text containing the latitude
+	 * @param offset
+	 *            index of the first character of the latitude
+	 * @param length
+	 *            number of characters of the latitude
+	 * @return The latitude in degrees
+	 */
+	public static double parseLatDMS(CharSequence text, int offset, int length) {
+		double result = parseDMS(text, offset, length, SYMBOL_NORTH, SYMBOL_SOUTH, SYMBOL_DEGREES, SYMBOL_MINUTES);
+		if (Double.isNaN(result)) {
+			return parseLatDMS(new StringWrapper(toString(text, offset, length)));
+		}
+		return result;
+	}
+
+	private static double parseLatDMS(StringWrapper pLatitude_DMS) {
+		StringWrapper latitudeDMS = pLatitude_DMS.replace(" ", "");
 		if (latitudeDMS.startsWith(SYMBOL_NORTH) || latitudeDMS.startsWith(SYMBOL_SOUTH)) {
 			latitudeDMS.moveFirstCharacterToEnd();
 		}
@@ -269,7 +751,31 @@ public class PositionParser {
 	 * @return The longitude in degrees
 	 */
 	public static double parseLonDMS(String pLongitude_DMS) {
-		StringWrapper longitudeDMS = new StringWrapper(pLongitude_DMS.replace(" ", ""));
+		return parseLonDMS(pLongitude_DMS, 0, pLongitude_DMS.length());
+	}
+
+	/**
+	 * Parses a longitude like {@link #parseLonDMS(String)} from length
+	 * characters of the text at offset.
+	 * 
+	 * @param text
+	 *            text containing the longitude
+	 * @param offset
+	 *            index of the first character of the longitude
+	 * @param length
+	 *            number of characters of the longitude
+	 * @return The longitude in degrees
+	 */
+	public static double parseLonDMS(CharSequence text, int offset, int length) {
+		double result = parseDMS(text, offset, length, SYMBOL_EAST, SYMBOL_WEST, SYMBOL_DEGREES, SYMBOL_MINUTES);
+		if (Double.isNaN(result)) {
+			return parseLonDMS(new StringWrapper(toString(text, offset, length)));
+		}
+		return result;
+	}
+
+	private static double parseLonDMS(StringWrapper pLongitude_DMS) {
+		StringWrapper longitudeDMS = pLongitude_DMS.replace(" ", "");
 		if (longitudeDMS.startsWith(SYMBOL_EAST) || longitudeDMS.startsWith(SYMBOL_WEST)) {
 			longitudeDMS.moveFirstCharacterToEnd();
 		}
@@ -336,7 +842,28 @@ public class PositionParser {
 	 * @return The latitude in degrees
 	 */
 	public static double parseLatDMSColon(String pLatitude_DMS) {
-		return parseLatDMSColon(new StringWrapper(pLatitude_DMS));
+		return parseLatDMSColon(pLatitude_DMS, 0, pLatitude_DMS.length());
+	}
+
+	/**
+	 * Parses a latitude like {@link #parseLatDMSColon(String)} from length
+	 * characters of the text at offset, for example of an Avro Utf8 without
+	 * converting it to a String.
+	 * 
+	 * @param text
+	 *            text containing the latitude
+	 * @param offset
+	 *            index of the first character of the latitude
+	 * @param length
+	 *            number of characters of the latitude
+	 * @return The latitude in degrees
+	 */
+	public static double parseLatDMSColon(CharSequence text, int offset, int length) {
+		double result = parseDMS(text, offset, length, SYMBOL_NORTH, SYMBOL_SOUTH, SYMBOL_COLON, SYMBOL_COLON);
+		if (Double.isNaN(result)) {
+			return parseLatDMSColon(new StringWrapper(toString(text, offset, length)));
+		}
+		return result;
 	}
 
 	private static double parseLatDMSColon(StringWrapper pLatitude_DMS) {
@@ -410,7 +937,27 @@ public class PositionParser {
 	 * @return The longitude in degrees
 	 */
 	public static double parseLonDMSColon(String pLongitude_DMS) {
-		return parseLonDMSColon(new StringWrapper(pLongitude_DMS));
+		return parseLonDMSColon(pLongitude_DMS, 0, pLongitude_DMS.length());
+	}
+
+	/**
+	 * Parses a longitude like {@link #parseLonDMSColon(String)} from length
+	 * characters of the text at offset.
+	 * 
+	 * @param text
+	 *            text containing the longitude
+	 * @param offset
+	 *            index of the first character of the longitude
+	 * @param length
+	 *            number of characters of the longitude
+	 * @return The longitude in degrees
+	 */
+	public static double parseLonDMSColon(CharSequence text, int offset, int length) {
+		double result = parseDMS(text, offset, length, SYMBOL_EAST, SYMBOL_WEST, SYMBOL_COLON, SYMBOL_COLON);
+		if (Double.isNaN(result)) {
+			return parseLonDMSColon(new StringWrapper(toString(text, offset, length)));
+		}
+		return result;
 	}
 
 	private static double parseLonDMSColon(StringWrapper pLongitude_DMS) {
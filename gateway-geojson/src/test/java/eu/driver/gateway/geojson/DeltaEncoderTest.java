@@ -0,0 +1,99 @@
+package eu.driver.gateway.geojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.driver.model.geojson.sim.Feature;
+import eu.driver.model.geojson.sim.Point;
+import eu.driver.model.geojson.sim.PointType;
+import eu.driver.model.geojson.sim.SimulatedEntityProperties;
+import eu.driver.model.geojson.sim.TypeEnum;
+
+public class DeltaEncoderTest {
+
+	private DeltaEncoder deltas = new DeltaEncoder(3);
+
+	private static Feature feature(String guid, String name, double lon) {
+		SimulatedEntityProperties.Builder properties = SimulatedEntityProperties.newBuilder();
+		properties.setGuid(guid);
+		properties.setName(name);
+		properties.setType(TypeEnum.CAR);
+		properties.setLabel("label");
+		Feature.Builder feature = Feature.newBuilder();
+		feature.setGeometry(new Point(PointType.Point, Arrays.asList(lon, 52.0, 0.0)));
+		feature.setProperties(properties.build());
+		return feature.build();
+	}
+
+	private static SimulatedEntityProperties properties(Feature feature) {
+		return (SimulatedEntityProperties) feature.getProperties();
+	}
+
+	@Test
+	public void everyKthWindowIsKeyframe() {
+		deltas.nextWindow();
+		assertTrue(deltas.isKeyframe());
+		deltas.nextWindow();
+		assertFalse(deltas.isKeyframe());
+		deltas.nextWindow();
+		assertFalse(deltas.isKeyframe());
+		deltas.nextWindow();
+		assertTrue(deltas.isKeyframe());
+		assertEquals(3, deltas.getWindow());
+	}
+
+	@Test
+	public void unchangedStaticPropertiesAreLeftOutOfDeltas() {
+		deltas.nextWindow();
+		Feature first = feature("car-1", "Car", 4.0);
+		assertSame(first, deltas.encode(1, first));
+
+		deltas.nextWindow();
+		Feature moved = feature("car-1", "Car", 4.1);
+		Feature delta = deltas.encode(1, moved);
+
+		assertSame(moved.getGeometry(), delta.getGeometry());
+		assertEquals("car-1", properties(delta).getGuid());
+		assertEquals(TypeEnum.CAR, properties(delta).getType());
+		assertEquals("", properties(delta).getName());
+		assertEquals("", properties(delta).getLabel());
+		assertNull(properties(delta).getSubEntities());
+	}
+
+	@Test
+	public void changedStaticPropertiesAreSentInFull() {
+		deltas.nextWindow();
+		deltas.encode(1, feature("car-1", "Car", 4.0));
+
+		deltas.nextWindow();
+		Feature renamed = feature("car-1", "Ambulance", 4.0);
+		assertSame(renamed, deltas.encode(1, renamed));
+	}
+
+	@Test
+	public void keyframeIsCompletedWithUnchangedEntities() {
+		deltas.nextWindow();
+		Feature car = feature("car-1", "Car", 4.0);
+		deltas.encode(1, car);
+		deltas.encode(2, feature("car-2", "Car", 5.0));
+		deltas.forget(2);
+
+		deltas.nextWindow();
+		deltas.nextWindow();
+		deltas.nextWindow();
+		assertTrue(deltas.isKeyframe());
+		deltas.encode(3, feature("car-3", "Car", 6.0));
+
+		IntObjectMap<Feature> unchanged = deltas.getUnchanged();
+		assertEquals(1, unchanged.size());
+		assertSame(car, unchanged.get(1));
+	}
+
+}
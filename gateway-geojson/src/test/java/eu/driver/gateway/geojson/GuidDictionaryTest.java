@@ -0,0 +1,86 @@
+package eu.driver.gateway.geojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+public class GuidDictionaryTest {
+
+	private GuidDictionary guids = new GuidDictionary();
+
+	@Test
+	public void equalContentMapsToSameId() {
+		int id = guids.intern("unit-1");
+
+		assertEquals(id, guids.intern(new StringBuilder("unit-1")));
+		assertEquals(id, guids.lookup(new StringBuilder("unit-1")));
+		assertEquals(-1, guids.lookup("unit-2"));
+		assertEquals("unit-1", guids.getGuid(id));
+		assertEquals(1, guids.size());
+	}
+
+	@Test
+	public void utf8MapsToSameIdAsString() {
+		int ascii = guids.intern("unit-1");
+		int multiByte = guids.intern("eenheid-\u00e9\u00e8n");
+
+		assertEquals(ascii, guids.intern(new Utf8("unit-1")));
+		assertEquals(ascii, guids.lookup(new Utf8("unit-1")));
+		assertEquals(multiByte, guids.lookup(new Utf8("eenheid-\u00e9\u00e8n")));
+		assertEquals(-1, guids.lookup(new Utf8("unit-10")));
+		int utf8 = guids.intern(new Utf8("unit-2"));
+		assertEquals(utf8, guids.lookup("unit-2"));
+		assertEquals(3, guids.size());
+	}
+
+	@Test
+	public void releasedIdIsForgotten() {
+		int id = guids.intern("unit-1");
+		guids.release(id);
+
+		assertEquals(-1, guids.lookup("unit-1"));
+		assertNull(guids.getGuid(id));
+		assertEquals(0, guids.size());
+		// releasing twice is harmless
+		guids.release(id);
+		assertEquals(0, guids.size());
+	}
+
+	@Test
+	public void releasedIdIsOnlyReusedAfterRecycling() {
+		int first = guids.intern("unit-1");
+		guids.release(first);
+
+		int second = guids.intern("unit-2");
+		assertNotEquals(first, second);
+
+		guids.recycleReleased();
+		int third = guids.intern("unit-3");
+		assertEquals(first, third);
+		assertEquals("unit-3", guids.getGuid(third));
+		assertEquals(2, guids.getIdLimit());
+	}
+
+	@Test
+	public void releaseKeepsCollidingEntriesReachable() {
+		int count = 1000;
+		for (int i = 0; i < count; i++) {
+			guids.intern("guid-" + i);
+		}
+		for (int i = 0; i < count; i += 2) {
+			guids.release(guids.lookup("guid-" + i));
+		}
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				assertEquals(-1, guids.lookup("guid-" + i));
+			} else {
+				assertEquals("guid-" + i, guids.getGuid(guids.lookup("guid-" + i)));
+			}
+		}
+		assertEquals(count / 2, guids.size());
+	}
+
+}
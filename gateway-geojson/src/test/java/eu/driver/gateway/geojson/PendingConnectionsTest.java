@@ -0,0 +1,102 @@
+package eu.driver.gateway.geojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.driver.gateway.geojson.PendingConnections.Pending;
+
+public class PendingConnectionsTest {
+
+	private PendingConnections pending = new PendingConnections();
+
+	@Test
+	public void arrivingUnitResolvesWaitingConnections() {
+		pending.add(2, 10, 1, 2, 100);
+		pending.add(2, 11, 3, 2, 100);
+		pending.add(4, 12, 1, 4, 100);
+
+		List<Pending> resolved = pending.resolve(2);
+
+		assertEquals(2, resolved.size());
+		assertEquals(10, resolved.get(0).getConnectionId());
+		assertEquals(11, resolved.get(1).getConnectionId());
+		assertEquals(1, pending.size());
+		assertEquals(1, pending.getMissingUnitCount());
+		assertEquals(2, pending.getResolvedCount());
+		assertTrue(pending.resolve(2).isEmpty());
+	}
+
+	@Test
+	public void cancelledConnectionIsNotResolved() {
+		pending.add(2, 10, 1, 2, 100);
+
+		assertTrue(pending.cancel(10));
+		assertFalse(pending.cancel(10));
+		assertTrue(pending.resolve(2).isEmpty());
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	public void parkingAgainReplacesConnection() {
+		pending.add(2, 10, 1, 2, 100);
+		// unit 2 arrived, but unit 1 is still missing
+		pending.add(1, 10, 1, 2, 100);
+
+		assertTrue(pending.resolve(2).isEmpty());
+		List<Pending> resolved = pending.resolve(1);
+		assertEquals(1, resolved.size());
+		assertEquals(100, resolved.get(0).getReceived());
+	}
+
+	@Test
+	public void cancelForUnitDropsBothDirections() {
+		pending.add(2, 10, 1, 2, 100);
+		pending.add(3, 11, 2, 3, 100);
+		pending.add(5, 12, 4, 5, 100);
+
+		List<Pending> cancelled = pending.cancelForUnit(2);
+
+		assertEquals(2, cancelled.size());
+		assertEquals(1, pending.size());
+		assertTrue(pending.resolve(3).isEmpty());
+	}
+
+	@Test
+	public void expireDropsOldConnectionsAndCompacts() {
+		pending.add(2, 10, 1, 2, 100);
+		pending.add(3, 11, 1, 3, 200);
+		pending.cancel(11);
+		pending.add(4, 12, 1, 4, 300);
+
+		List<Pending> expired = pending.expire(250);
+
+		assertEquals(1, expired.size());
+		assertEquals(10, expired.get(0).getConnectionId());
+		assertEquals(1, pending.size());
+		assertEquals(1, pending.getMissingUnitCount());
+		assertEquals(1, pending.getExpiredCount());
+		assertEquals(12, pending.getPending().get(0).getConnectionId());
+	}
+
+	@Test
+	public void unitsAreReferencedWhilePending() {
+		pending.add(2, 10, 1, 2, 100);
+		pending.add(2, 11, 3, 2, 200);
+
+		assertTrue(pending.isReferenced(1));
+		assertTrue(pending.isReferenced(2));
+		pending.cancel(10);
+		assertFalse(pending.isReferenced(1));
+		assertTrue(pending.isReferenced(2));
+		assertEquals(11, pending.get(11).getConnectionId());
+		pending.expire(300);
+		assertFalse(pending.isReferenced(2));
+		assertFalse(pending.isReferenced(3));
+	}
+
+}
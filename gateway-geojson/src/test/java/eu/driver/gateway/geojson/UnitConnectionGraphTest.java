@@ -0,0 +1,159 @@
+package eu.driver.gateway.geojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UnitConnectionGraphTest {
+
+	private GuidDictionary guids = new GuidDictionary();
+	private UnitConnectionGraph graph = new UnitConnectionGraph(guids);
+
+	private int unit(String guid) {
+		int id = guids.intern(guid);
+		graph.addUnit(id);
+		return id;
+	}
+
+	private int connect(String guid, int parent, int child) {
+		int id = guids.intern(guid);
+		graph.addConnection(id, parent, child);
+		return id;
+	}
+
+	private static List<CharSequence> guidList(String... guids) {
+		return Arrays.<CharSequence> asList(guids);
+	}
+
+	@Test
+	public void connectionsBuildRootsAndMembers() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		connect("a-b", a, b);
+		connect("b-c", b, c);
+
+		assertEquals(a, graph.getRoot(a));
+		assertEquals(a, graph.getRoot(b));
+		assertEquals(a, graph.getRoot(c));
+		assertEquals(guidList("a", "b", "c"), graph.getGroupMembers(a));
+		assertEquals(guidList("b", "c"), graph.getGroupMembers(b));
+		assertEquals(guidList("c"), graph.getDescendantsForUnit(b));
+		assertTrue(graph.getUnit(a).hasChildren());
+		assertFalse(graph.getUnit(a).hasParent());
+		assertTrue(graph.getUnit(c).hasParent());
+	}
+
+	@Test
+	public void removedConnectionSplitsHierarchy() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		connect("a-b", a, b);
+		int bc = connect("b-c", b, c);
+
+		graph.removeConnection(bc);
+
+		assertFalse(graph.hasConnection(bc));
+		assertNull(guids.getGuid(bc));
+		assertEquals(c, graph.getRoot(c));
+		assertEquals(guidList("a", "b"), graph.getGroupMembers(a));
+		assertEquals(guidList("c"), graph.getGroupMembers(c));
+	}
+
+	@Test
+	public void newParentReplacesConnection() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		int ac = connect("a-c", a, c);
+		int bc = connect("b-c", b, c);
+
+		assertFalse(graph.hasConnection(ac));
+		assertNull(guids.getGuid(ac));
+		assertTrue(graph.hasConnection(bc));
+		assertEquals(b, graph.getRoot(c));
+		assertEquals(guidList("a"), graph.getGroupMembers(a));
+		assertEquals(guidList("b", "c"), graph.getGroupMembers(b));
+		assertFalse(graph.getUnit(a).hasChildren());
+	}
+
+	@Test
+	public void cycleIsRejected() {
+		int a = unit("a");
+		int b = unit("b");
+		connect("a-b", a, b);
+		int ba = connect("b-a", b, a);
+
+		assertFalse(graph.hasConnection(ba));
+		assertNull(guids.getGuid(ba));
+		assertEquals(a, graph.getRoot(b));
+		assertEquals(guidList("a", "b"), graph.getGroupMembers(a));
+	}
+
+	@Test
+	public void removedUnitLeavesChildrenAsRoots() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		int d = unit("d");
+		connect("a-b", a, b);
+		connect("b-c", b, c);
+		connect("b-d", b, d);
+
+		int[] children = graph.removeUnit(b);
+		Arrays.sort(children);
+
+		int[] expected = { c, d };
+		Arrays.sort(expected);
+		assertArrayEquals(expected, children);
+		assertFalse(graph.hasUnit(b));
+		assertEquals(0, graph.getConnectionIds().length);
+		assertEquals(guidList("a"), graph.getGroupMembers(a));
+		assertEquals(c, graph.getRoot(c));
+		assertEquals(d, graph.getRoot(d));
+	}
+
+	@Test
+	public void connectionsOfUnitAreListed() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		int ab = connect("a-b", a, b);
+		int bc = connect("b-c", b, c);
+
+		int[] ids = graph.getConnectionIds(b);
+		Arrays.sort(ids);
+
+		int[] expected = { ab, bc };
+		Arrays.sort(expected);
+		assertArrayEquals(expected, ids);
+		assertArrayEquals(new int[] { ab }, graph.getConnectionIds(a));
+		assertEquals(0, graph.getConnectionIds(guids.intern("d")).length);
+	}
+
+	@Test
+	public void indexOfRemovedUnitIsReused() {
+		int a = unit("a");
+		int b = unit("b");
+		int c = unit("c");
+		connect("a-c", a, c);
+		graph.removeUnit(b);
+
+		int e = unit("e");
+		connect("a-e", a, e);
+
+		// members follow the unit in the order of their index in the graph, so
+		// the unit taking the index of the removed one comes first
+		assertEquals(guidList("a", "e", "c"), graph.getGroupMembers(a));
+		assertEquals(a, graph.getRoot(e));
+	}
+
+}
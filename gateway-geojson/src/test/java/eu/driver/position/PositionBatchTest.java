@@ -0,0 +1,132 @@
+package eu.driver.position;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+public class PositionBatchTest {
+
+	/** sizes below, at and above the threshold from which a batch is split */
+	private static final int[] SIZES = { 0, 1, 100, PositionBatch.PARALLEL_THRESHOLD - 1,
+			PositionBatch.PARALLEL_THRESHOLD, 3 * PositionBatch.PARALLEL_THRESHOLD + 7 };
+
+	private static double[] randomRadians(Random random, int count, double range) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = Math.toRadians((random.nextDouble() - 0.5) * range);
+		}
+		return values;
+	}
+
+	private static String padded(String dms) {
+		char[] padded = new char[PositionBatch.DMS_STRIDE];
+		Arrays.fill(padded, ' ');
+		dms.getChars(0, dms.length(), padded, 0);
+		return new String(padded);
+	}
+
+	@Test
+	public void formattedCoordinatesMatchTheParser() {
+		Random random = new Random(42);
+		for (int size : SIZES) {
+			double[] latitudes = randomRadians(random, size + 3, 180);
+			double[] longitudes = randomRadians(random, size + 3, 360);
+			// the range starts at 2 and is written from offset 5, between markers
+			char[] latOut = new char[5 + size * PositionBatch.DMS_STRIDE + 1];
+			Arrays.fill(latOut, '#');
+			char[] lonOut = new char[size * PositionBatch.DMS_STRIDE];
+			char[] degOut = new char[size * PositionBatch.DMS_STRIDE];
+			double[] lonDegrees = new double[size];
+			for (int i = 0; i < size; i++) {
+				lonDegrees[i] = Math.toDegrees(longitudes[i + 2]);
+			}
+
+			PositionBatch.formatLatRadToDMS(latitudes, 2, 2 + size, latOut, 5);
+			PositionBatch.formatLonRadToDMS(longitudes, 2, 2 + size, lonOut, 0);
+			PositionBatch.formatLonDegToDMS(lonDegrees, 0, size, degOut, 0);
+
+			assertEquals('#', latOut[4]);
+			assertEquals('#', latOut[latOut.length - 1]);
+			for (int i = 0; i < size; i++) {
+				assertEquals(padded(PositionParser.convertLatRadToDMS(latitudes[i + 2])),
+						new String(latOut, 5 + i * PositionBatch.DMS_STRIDE, PositionBatch.DMS_STRIDE));
+				String longitude = padded(PositionParser.convertLonRadToDMS(longitudes[i + 2]));
+				assertEquals(longitude, new String(lonOut, i * PositionBatch.DMS_STRIDE, PositionBatch.DMS_STRIDE));
+				assertEquals(longitude, new String(degOut, i * PositionBatch.DMS_STRIDE, PositionBatch.DMS_STRIDE));
+			}
+		}
+	}
+
+	@Test
+	public void parsedTextsMatchTheParser() {
+		Random random = new Random(42);
+		for (int size : SIZES) {
+			double[] longitudes = randomRadians(random, size, 360);
+			CharSequence[] texts = new CharSequence[size];
+			CharSequence[] colonTexts = new CharSequence[size];
+			for (int i = 0; i < size; i++) {
+				String[] fields = PositionParser.convertLonRadToDMS(longitudes[i]).split(" ");
+				texts[i] = fields[0] + PositionParser.SYMBOL_DEGREES + fields[1] + PositionParser.SYMBOL_MINUTES
+						+ fields[2];
+				String colon = fields[0] + PositionParser.SYMBOL_COLON + fields[1] + PositionParser.SYMBOL_COLON
+						+ fields[2];
+				// decoded Avro strings and other character sequences mixed
+				colonTexts[i] = i % 2 == 0 ? new Utf8(colon.getBytes(StandardCharsets.UTF_8)) : new StringBuilder(colon);
+			}
+			double[] parsed = new double[size + 1];
+			double[] colonParsed = new double[size];
+
+			PositionBatch.parseLonDMS(texts, 0, size, parsed, 1);
+			PositionBatch.parseLonDMSColon(colonTexts, 0, size, colonParsed, 0);
+
+			for (int i = 0; i < size; i++) {
+				double expected = PositionParser.parseLonDMS(texts[i].toString());
+				assertEquals(expected, parsed[i + 1], 0.0);
+				assertEquals(expected, colonParsed[i], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void invalidTextFailsTheBatchWithTheParserException() {
+		CharSequence[] texts = new CharSequence[2 * PositionBatch.PARALLEL_THRESHOLD];
+		Arrays.fill(texts, "51:41:20");
+		texts[texts.length - 3] = "51";
+		try {
+			PositionBatch.parseLatDMSColon(texts, 0, texts.length, new double[texts.length], 0);
+			fail("Parsed an invalid latitude");
+		} catch (RuntimeException e) {
+			assertEquals(RuntimeException.class, e.getClass());
+			assertEquals("The latitude 51 should be of the format DD:MM:SS.SS", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rangesAreChecked() {
+		try {
+			PositionBatch.formatLatDegToDMS(new double[] { 1 }, 0, 1, new char[PositionBatch.DMS_STRIDE - 1], 0);
+			fail("Wrote beyond the output");
+		} catch (IndexOutOfBoundsException e) {
+			// the output has no room for one coordinate
+		}
+		try {
+			PositionBatch.parseLatDMS(new CharSequence[] { "51°41'20" }, 0, 2, new double[2], 0);
+			fail("Read beyond the texts");
+		} catch (IndexOutOfBoundsException e) {
+			// only one text
+		}
+		try {
+			PositionBatch.formatLatDegToDMS(new double[] { 1e5 }, 0, 1, new char[PositionBatch.DMS_STRIDE], 0);
+			fail("Formatted a coordinate that does not fit");
+		} catch (IllegalArgumentException e) {
+			// 100000 degrees take 18 characters
+		}
+	}
+
+}
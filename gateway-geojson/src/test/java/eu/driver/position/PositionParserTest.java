@@ -0,0 +1,271 @@
+package eu.driver.position;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Random;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+public class PositionParserTest {
+
+	/** the parse methods under test */
+	private static final int LATITUDE = 0;
+	private static final int LONGITUDE = 1;
+	private static final int LATITUDE_COLON = 2;
+	private static final int LONGITUDE_COLON = 3;
+
+	/**
+	 * The DMS conversion as it was before the packed fields, with DecimalFormat
+	 * rounding the seconds.
+	 */
+	private static String decimalFormatDMS(double deg, char positive, char negative) {
+		char hemisphere = positive;
+		if (deg < 0) {
+			hemisphere = negative;
+			deg = -deg;
+		}
+		int degrees = (int) Math.floor(deg);
+		int minutes = (int) Math.floor((deg - degrees) / (1 / 60.0));
+		double seconds = ((deg - degrees - (minutes * (1 / 60.0))) / (1 / 3600.0));
+		DecimalFormat df = new DecimalFormat("##.###");
+		df.setMinimumFractionDigits(3);
+		df.setMaximumFractionDigits(3);
+		df.setMinimumIntegerDigits(2);
+		df.setMaximumIntegerDigits(2);
+		DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+		symbols.setDecimalSeparator('.');
+		df.setDecimalFormatSymbols(symbols);
+		if (df.format(seconds).equals(df.format(60.00))) {
+			seconds = 0.0;
+			minutes = minutes + 1;
+		}
+		if (minutes == 60) {
+			minutes = 0;
+			degrees = degrees + 1;
+		}
+		return String.format("%02d", degrees) + ' ' + String.format("%02d", minutes) + ' ' + df.format(seconds)
+				+ hemisphere;
+	}
+
+	private static void assertFormatted(double rad) {
+		String latitude = decimalFormatDMS(Math.toDegrees(rad), PositionParser.SYMBOL_NORTH,
+				PositionParser.SYMBOL_SOUTH);
+		String longitude = decimalFormatDMS(Math.toDegrees(rad), PositionParser.SYMBOL_EAST,
+				PositionParser.SYMBOL_WEST);
+		assertEquals(latitude, PositionParser.convertLatRadToDMS(rad));
+		assertEquals(longitude, PositionParser.convertLonRadToDMS(rad));
+
+		char[] out = new char[40];
+		int length = PositionParser.formatLatRadToDMS(rad, out, 3);
+		assertEquals(latitude, new String(out, 3, length));
+		CharBuffer buffer = CharBuffer.allocate(40);
+		PositionParser.putLonRadToDMS(rad, buffer);
+		buffer.flip();
+		assertEquals(longitude, buffer.toString());
+		assertEquals("x" + latitude, PositionParser.appendLatRadToDMS(rad, new StringBuilder("x")).toString());
+	}
+
+	@Test
+	public void formattingMatchesDecimalFormat() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			assertFormatted(Math.toRadians((random.nextDouble() - 0.5) * 360));
+		}
+	}
+
+	@Test
+	public void secondsRoundingTo60RollOver() {
+		assertEquals("52 01 00.000N", PositionParser.convertLatRadToDMS(Math.toRadians(52 + 59.9996 / 3600)));
+		assertEquals("53 00 00.000E",
+				PositionParser.convertLonRadToDMS(Math.toRadians(52 + 59 / 60.0 + 59.9999 / 3600)));
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			int degrees = random.nextInt(180);
+			int minutes = random.nextInt(60);
+			assertFormatted(Math.toRadians(degrees + minutes / 60.0 + 59.9995 / 3600.0
+					+ (random.nextDouble() - 0.5) * 1e-9));
+			assertFormatted(Math.toRadians(degrees + (minutes + 1) / 60.0) - random.nextInt(5) * Math.ulp(1.0));
+			assertFormatted(Math.toRadians(Math.nextDown((double) degrees)));
+		}
+	}
+
+	@Test
+	public void tiesRoundHalfEven() {
+		// 0.0625 seconds is exact, so 62.5 milliseconds is a true tie
+		assertEquals("00 00 00.062N", PositionParser.convertLatRadToDMS(Math.toRadians(0.0625 / 3600)));
+		assertEquals("00 00 00.188N", PositionParser.convertLatRadToDMS(Math.toRadians(0.1875 / 3600)));
+		for (int i = 0; i < 100000; i++) {
+			assertFormatted(Math.toRadians(i * 0.0625 / 3600));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			double seconds = (random.nextInt(60000) + 0.5) / 1000.0;
+			double deg = random.nextInt(181) + random.nextInt(60) / 60.0 + seconds / 3600.0;
+			assertFormatted(Math.toRadians(random.nextBoolean() ? deg : -deg));
+		}
+	}
+
+	@Test
+	public void negativeZeroAndTinyValuesKeepTheirSign() {
+		assertFormatted(0.0);
+		assertFormatted(-0.0);
+		assertFormatted(Double.MIN_VALUE);
+		assertFormatted(-Double.MIN_VALUE);
+		assertFormatted(1e-12);
+	}
+
+	@Test
+	public void nonFiniteAndLargeCoordinatesFallBack() {
+		assertFormatted(Double.NaN);
+		assertFormatted(Double.POSITIVE_INFINITY);
+		assertFormatted(Double.NEGATIVE_INFINITY);
+		assertFormatted(Math.toRadians(999999.99999));
+		assertFormatted(Math.toRadians(1e6));
+		assertFormatted(Math.toRadians(-1e6));
+		assertFormatted(1e300);
+	}
+
+	/**
+	 * The degrees as the String based parsing computes them from the fields.
+	 */
+	private static double dms(String degrees, String minutes, String seconds, boolean positive) {
+		double deg = Double.parseDouble(degrees);
+		double min = Double.parseDouble(minutes.replace(",", "."));
+		double sec = seconds.isEmpty() ? 0.0 : Double.parseDouble(seconds);
+		if (positive) {
+			return (deg + min / 60.0 + sec / 3600.0);
+		}
+		return (-deg - min / 60.0 - sec / 3600.0);
+	}
+
+	private static double parse(int kind, String text) {
+		switch (kind) {
+		case LATITUDE:
+			return PositionParser.parseLatDMS(text);
+		case LONGITUDE:
+			return PositionParser.parseLonDMS(text);
+		case LATITUDE_COLON:
+			return PositionParser.parseLatDMSColon(text);
+		default:
+			return PositionParser.parseLonDMSColon(text);
+		}
+	}
+
+	private static double parse(int kind, CharSequence text, int offset, int length) {
+		switch (kind) {
+		case LATITUDE:
+			return PositionParser.parseLatDMS(text, offset, length);
+		case LONGITUDE:
+			return PositionParser.parseLonDMS(text, offset, length);
+		case LATITUDE_COLON:
+			return PositionParser.parseLatDMSColon(text, offset, length);
+		default:
+			return PositionParser.parseLonDMSColon(text, offset, length);
+		}
+	}
+
+	/**
+	 * Parses the text as String, as part of a StringBuilder and as Avro Utf8,
+	 * with and without other text around it.
+	 */
+	private static void assertParsed(double expected, int kind, String text) {
+		assertEquals(text, expected, parse(kind, text), 0.0);
+		assertEquals(text, expected, parse(kind, new StringBuilder("ab").append(text).append('c'), 2, text.length()),
+				0.0);
+		Utf8 utf8 = new Utf8(text.getBytes(StandardCharsets.UTF_8));
+		assertEquals(text, expected, parse(kind, utf8, 0, text.length()), 0.0);
+		utf8 = new Utf8(("\u00e9" + text + "c").getBytes(StandardCharsets.UTF_8));
+		assertEquals(text, expected, parse(kind, utf8, 1, text.length()), 0.0);
+		utf8 = new Utf8(("ab" + text + "\u00e9").getBytes(StandardCharsets.UTF_8));
+		assertEquals(text, expected, parse(kind, utf8, 2, text.length()), 0.0);
+	}
+
+	private static void assertRejected(int kind, String text) {
+		try {
+			parse(kind, text);
+			fail("Parsed " + text);
+		} catch (RuntimeException e) {
+			// rejected like the String based parsing does
+		}
+		try {
+			parse(kind, new Utf8(text.getBytes(StandardCharsets.UTF_8)), 0, text.length());
+			fail("Parsed " + text);
+		} catch (RuntimeException e) {
+			// rejected like the String based parsing does
+		}
+	}
+
+	@Test
+	public void everyFormIsParsed() {
+		for (int kind = LATITUDE; kind <= LONGITUDE_COLON; kind++) {
+			boolean latitude = kind == LATITUDE || kind == LATITUDE_COLON;
+			char degreesSymbol = kind <= LONGITUDE ? PositionParser.SYMBOL_DEGREES : PositionParser.SYMBOL_COLON;
+			char minutesSymbol = kind <= LONGITUDE ? PositionParser.SYMBOL_MINUTES : PositionParser.SYMBOL_COLON;
+			char positive = latitude ? PositionParser.SYMBOL_NORTH : PositionParser.SYMBOL_EAST;
+			char negative = latitude ? PositionParser.SYMBOL_SOUTH : PositionParser.SYMBOL_WEST;
+			String degrees = latitude ? "51" : "003";
+			String text = degrees + degreesSymbol + "41" + minutesSymbol + "20.25";
+
+			double north = dms(degrees, "41", "20.25", true);
+			assertParsed(north, kind, text);
+			assertParsed(north, kind, text + positive);
+			assertParsed(north, kind, positive + text);
+			assertParsed(north, kind, "+" + text);
+			assertParsed(-north, kind, "-" + text);
+			assertParsed(-north, kind, text + negative);
+			assertParsed(-north, kind, negative + text);
+			assertParsed(north, kind, " " + positive + " " + degrees + " " + degreesSymbol + " 4 1" + minutesSymbol
+					+ " 20 .25 ");
+			assertParsed(dms(degrees, "41,5", "20.25", true), kind,
+					degrees + degreesSymbol + "41,5" + minutesSymbol + "20.25");
+			assertParsed(dms(degrees, "41", "", true), kind, degrees + degreesSymbol + "41" + minutesSymbol);
+			assertParsed(dms(degrees, "41", "20.25", false), kind, text + PositionParser.SYMBOL_SECONDS + negative);
+			assertParsed(dms(degrees, "41", "1.0000000000000000000000001", true), kind,
+					degrees + degreesSymbol + "41" + minutesSymbol + "1.0000000000000000000000001");
+
+			assertRejected(kind, "-" + text + negative);
+			assertRejected(kind, degrees + degreesSymbol + "41");
+			assertRejected(kind, degrees + degreesSymbol + "4x" + minutesSymbol + "20");
+		}
+		assertParsed(dms("51", "41", "20", true), LATITUDE, "51\ufffd41'20");
+	}
+
+	@Test
+	public void randomTextIsParsedLikeTheFields() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			int kind = random.nextInt(4);
+			String degrees = Integer.toString(random.nextInt(180));
+			String minutes = Integer.toString(random.nextInt(60));
+			String seconds = random.nextInt(60) + "." + Integer.toString(random.nextInt(1000000));
+			boolean colon = kind >= LATITUDE_COLON;
+			String text = degrees + (colon ? PositionParser.SYMBOL_COLON : PositionParser.SYMBOL_DEGREES) + minutes
+					+ (colon ? PositionParser.SYMBOL_COLON : PositionParser.SYMBOL_MINUTES) + seconds;
+			boolean positive = random.nextBoolean();
+			assertParsed(dms(degrees, minutes, seconds, positive), kind, positive ? text : "-" + text);
+		}
+	}
+
+	@Test
+	public void rangeOutsideTheTextIsRejected() {
+		try {
+			PositionParser.parseLatDMSColon(new Utf8("51:41:20".getBytes(StandardCharsets.UTF_8)), 0, 9);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// the text is one character shorter
+		}
+		try {
+			PositionParser.parseLatDMS(new StringBuilder("51:41:20"), -1, 3);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// negative offset
+		}
+	}
+
+}